@@ -0,0 +1,132 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Debug;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that drawing a {@link DrawingLayer} frame, and extending its line, do not allocate.
+ * <p/>
+ * Extending the line allocates only when the tail chunk is full and a new one is started: the new chunk, its path,
+ * vertex array and bounds, plus the occasional growth of the chunk lists and the path index. The edit journal is held
+ * at its memory limit, where it collapses old entries in place instead of growing.
+ */
+@RunWith (AndroidJUnit4.class)
+public class DrawingLayerAllocationTest {
+	
+	private static final int FRAMES = 1000;
+	private static final int CHUNKS = 40;
+	/**
+	 * The most objects starting one chunk may allocate, averaged over {@link #CHUNKS} chunks.
+	 */
+	private static final int ALLOCATIONS_PER_CHUNK = 16;
+	
+	/**
+	 * Create a layer whose edit journal is full, with the pen at the start of a new tail chunk. Decimation is off, so
+	 * each point extends the tail by one vertex.
+	 *
+	 * @return the layer
+	 */
+	private static DrawingLayer warmedUp() {
+		DrawingLayer layer = new DrawingLayer(1080, 1920);
+		layer.setDecimationTolerance(0);
+		layer.setHistoryMemoryLimit(64 * 1024);
+		float[] offsets = new float[32];
+		for (int i = 0; i < 5000; i++) {
+			layer.lineToByOffset(i % 7 - 3, i % 5 - 2);
+			layer.lineToByOffsets(offsets, offsets.length / 2);
+		}
+		while (layer.getCurrentLayerPath().getTail().points.size() != 1) {
+			layer.lineToByOffset(1, 1);
+		}
+		return layer;
+	}
+	
+	@SuppressWarnings ("deprecation")
+	@Test
+	public void draw_doesNotAllocate() {
+		DrawingLayer layer = new DrawingLayer(1080, 1920);
+		layer.setNickname("etcher");
+		for (int i = 0; i < 500; i++) {
+			layer.lineToByOffset(i % 7, i % 5 - 2);
+			if (i % 100 == 0) {
+				layer.setColor(Color.rgb(i % 255, 0, 0));
+			}
+		}
+		layer.setTransformation(new float[]{-120f, 48f});
+		Canvas canvas = new Canvas(Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888));
+		layer.draw(canvas);
+		
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < FRAMES; i++) {
+			layer.draw(canvas);
+		}
+		Debug.stopAllocCounting();
+		
+		assertEquals(0, Debug.getThreadAllocCount());
+	}
+	
+	@SuppressWarnings ("deprecation")
+	@Test
+	public void lineTo_withinChunkDoesNotAllocate() {
+		DrawingLayer layer = warmedUp();
+		int points = StrokeChunk.CAPACITY - 2;
+		
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < points; i++) {
+			layer.lineTo(i % 7 * 3, i % 11 * 2);
+		}
+		Debug.stopAllocCounting();
+		
+		assertEquals(0, Debug.getThreadAllocCount());
+		assertEquals(points + 1, layer.getCurrentLayerPath().getTail().points.size());
+	}
+	
+	@SuppressWarnings ("deprecation")
+	@Test
+	public void lineToByOffsets_withinChunkDoesNotAllocate() {
+		DrawingLayer layer = warmedUp();
+		float[] offsets = new float[2 * 16];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = i % 3 - 1;
+		}
+		int batches = (StrokeChunk.CAPACITY - 2) / 16;
+		
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < batches; i++) {
+			layer.lineToByOffsets(offsets, 16);
+		}
+		Debug.stopAllocCounting();
+		
+		assertEquals(0, Debug.getThreadAllocCount());
+		assertEquals(batches * 16 + 1, layer.getCurrentLayerPath().getTail().points.size());
+	}
+	
+	@SuppressWarnings ("deprecation")
+	@Test
+	public void lineTo_allocatesOnlyForNewChunks() {
+		DrawingLayer layer = warmedUp();
+		int before = layer.getCurrentLayerPath().getChunks().size();
+		int points = CHUNKS * (StrokeChunk.CAPACITY - 1);
+		
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < points; i++) {
+			layer.lineTo(i % 7 * 3, i % 11 * 2);
+		}
+		Debug.stopAllocCounting();
+		
+		assertEquals(CHUNKS, layer.getCurrentLayerPath().getChunks().size() - before);
+		int allocations = Debug.getThreadAllocCount();
+		assertTrue(allocations + " allocations for " + CHUNKS + " chunks", allocations <= CHUNKS * ALLOCATIONS_PER_CHUNK);
+	}
+}
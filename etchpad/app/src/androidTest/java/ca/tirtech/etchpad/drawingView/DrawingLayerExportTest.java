@@ -0,0 +1,123 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.RectF;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of {@link DrawingLayer#exportPng(java.io.OutputStream, int, long, Progress)}, checking that an
+ * image rasterized in bands is the same as one rasterized at once.
+ */
+@RunWith (AndroidJUnit4.class)
+public class DrawingLayerExportTest {
+	
+	/**
+	 * Draw a zigzag several hundred pixels tall, so every band seam crosses the line.
+	 *
+	 * @return the drawing
+	 */
+	private static DrawingLayer zigzag() {
+		DrawingLayer layer = new DrawingLayer(0, 0);
+		layer.setPaintSize(9);
+		for (int i = 0; i < 403; i++) {
+			layer.lineToByOffset(i % 40 < 20 ? 6 : -6, 1);
+			if (i % 100 == 0) {
+				layer.setColor(Color.rgb(i % 255, 0, 255 - i % 255));
+			}
+		}
+		return layer;
+	}
+	
+	private static Bitmap export(DrawingLayer layer, int bandHeight, long memoryCeiling, ArrayList<Long> bands) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		layer.exportPng(out, bandHeight, memoryCeiling, (done, total) -> bands.add(done));
+		byte[] png = out.toByteArray();
+		return BitmapFactory.decodeByteArray(png, 0, png.length);
+	}
+	
+	private static int[] row(Bitmap image, int y) {
+		int[] row = new int[image.getWidth()];
+		image.getPixels(row, 0, image.getWidth(), 0, y, image.getWidth(), 1);
+		return row;
+	}
+	
+	@Test
+	public void exportPng_bandsMatchSingleBand() throws IOException {
+		DrawingLayer layer = zigzag();
+		RectF bounds = new RectF();
+		layer.getBounds(bounds);
+		int width = (int) Math.ceil(bounds.width());
+		int height = (int) Math.ceil(bounds.height());
+		
+		ArrayList<Long> whole = new ArrayList<>();
+		Bitmap expected = export(layer, Integer.MAX_VALUE, Long.MAX_VALUE, whole);
+		assertEquals(width, expected.getWidth());
+		assertEquals(height, expected.getHeight());
+		assertEquals(1, whole.size());
+		
+		// The memory ceiling holds a few rows less than the requested band height, and the last band is partial
+		int rows = height % 7 != 0 ? 7 : 8;
+		ArrayList<Long> bands = new ArrayList<>();
+		Bitmap actual = export(layer, 64, width * 4L * rows + 3, bands);
+		assertEquals(width, actual.getWidth());
+		assertEquals(height, actual.getHeight());
+		assertEquals((height + rows - 1) / rows, bands.size());
+		for (int i = 0; i < bands.size() - 1; i++) {
+			assertEquals((long) rows * (i + 1), (long) bands.get(i));
+		}
+		assertEquals(height, (long) bands.get(bands.size() - 1));
+		
+		for (int y = 0; y < height; y++) {
+			assertArrayEquals("row " + y, row(expected, y), row(actual, y));
+		}
+		for (int seam = rows; seam < height; seam += rows) {
+			boolean drawn = false;
+			for (int pixel : row(actual, seam - 1)) {
+				drawn |= pixel != Color.WHITE;
+			}
+			for (int pixel : row(actual, seam)) {
+				drawn |= pixel != Color.WHITE;
+			}
+			assertTrue("rows " + (seam - 1) + " and " + seam + " should cross the line", drawn);
+		}
+	}
+	
+	@Test
+	public void exportPng_usesRequestedBandHeightUnderCeiling() throws IOException {
+		DrawingLayer layer = zigzag();
+		ArrayList<Long> whole = new ArrayList<>();
+		Bitmap expected = export(layer, Integer.MAX_VALUE, Long.MAX_VALUE, whole);
+		int height = expected.getHeight();
+		
+		ArrayList<Long> bands = new ArrayList<>();
+		Bitmap actual = export(layer, 50, Long.MAX_VALUE, bands);
+		assertEquals((height + 49) / 50, bands.size());
+		assertEquals(50L, (long) bands.get(0));
+		assertEquals(height, (long) bands.get(bands.size() - 1));
+		for (int y = 0; y < height; y++) {
+			assertArrayEquals("row " + y, row(expected, y), row(actual, y));
+		}
+	}
+	
+	@Test (expected = IOException.class)
+	public void exportPng_rowOverCeilingThrows() throws IOException {
+		zigzag().exportPng(new ByteArrayOutputStream(), 64, 4);
+	}
+	
+	@Test (expected = IOException.class)
+	public void exportPng_emptyDrawingThrows() throws IOException {
+		DrawingLayer layer = new DrawingLayer(0, 0);
+		layer.setColor(Color.BLUE);
+		layer.exportPng(new ByteArrayOutputStream());
+	}
+}
@@ -0,0 +1,143 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark comparing the frame time of each {@link RenderMode} on a long drawing, of tiles drawn
+ * zoomed out against tiles drawn at full scale, and of frames clipped to the damaged area against full redraws.
+ */
+@RunWith (AndroidJUnit4.class)
+public class DrawingLayerRenderBenchmark {
+	
+	private static final String TAG = "Render Benchmark";
+	private static final int SEGMENTS = 50_000;
+	private static final int WARMUP_FRAMES = 10;
+	private static final int FRAMES = 100;
+	
+	@Test
+	public void draw_comparesRenderModes() {
+		DrawingLayer layer = new DrawingLayer(1080, 1920);
+		for (int i = 0; i < SEGMENTS; i++) {
+			layer.lineToByOffset((i / 40) % 2 == 0 ? 3 : -3, i % 3 - 1);
+			if (i % 5_000 == 0) {
+				layer.setColor(Color.rgb(i % 255, 0, 128));
+			}
+		}
+		layer.setTransformation(new float[]{-120f, 48f});
+		
+		Bitmap expected = render(layer, RenderMode.IMMEDIATE);
+		for (RenderMode mode : RenderMode.values()) {
+			Bitmap bitmap = render(layer, mode);
+			Canvas canvas = new Canvas(bitmap);
+			for (int i = 0; i < WARMUP_FRAMES; i++) {
+				layer.draw(canvas);
+			}
+			long start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < FRAMES; i++) {
+				layer.draw(canvas);
+			}
+			long frameNanos = (SystemClock.elapsedRealtimeNanos() - start) / FRAMES;
+			Log.i(TAG, mode + ": " + frameNanos / 1000 + "us per frame over " + SEGMENTS + " segments");
+			if (mode == RenderMode.DISPLAY_LIST) {
+				assertTrue(render(layer, mode).sameAs(expected));
+			}
+		}
+	}
+	
+	@Test
+	public void draw_zoomedOutIsComparableToFullScale() {
+		Canvas canvas = new Canvas(Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888));
+		DrawingLayer full = gridLayer();
+		long fullNanos = timeFrames(full, canvas);
+		DrawingLayer zoomed = gridLayer();
+		zoomed.zoom(0.1f, 0f, 0f);
+		assertEquals(0.1f, zoomed.getScale(), 1e-6f);
+		long zoomedNanos = timeFrames(zoomed, canvas);
+		Log.i(TAG, "Tiles: " + fullNanos / 1000 + "us per frame at 100%, " + zoomedNanos / 1000 + "us per frame at 10%");
+		
+		// Frame times vary between devices and runs, so compare the tiles each frame blits instead
+		long fullTiles = full.getTileMemoryUsage();
+		long zoomedTiles = zoomed.getTileMemoryUsage();
+		assertTrue(fullTiles > 0);
+		assertTrue(zoomedTiles + " bytes of tiles at 10%, " + fullTiles + " at 100%", zoomedTiles <= fullTiles * 2);
+	}
+	
+	@Test
+	public void draw_damagedAreaIsCheaperThanFullFrame() {
+		DrawingLayer layer = new DrawingLayer(1080, 1920);
+		for (int i = 0; i < SEGMENTS; i++) {
+			layer.lineTo((i % 200) * 5f, (i / 200) * 4f + (i % 2) * 2f);
+		}
+		layer.setRenderMode(RenderMode.IMMEDIATE);
+		Canvas canvas = new Canvas(Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888));
+		Rect dirty = new Rect();
+		layer.consumeDamage(dirty);
+		
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < FRAMES; i++) {
+			layer.lineToByOffset(i % 2 == 0 ? 3 : -3, 0);
+			layer.consumeDamage(dirty);
+			layer.draw(canvas);
+		}
+		long full = (SystemClock.elapsedRealtimeNanos() - start) / FRAMES;
+		start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < FRAMES; i++) {
+			layer.lineToByOffset(i % 2 == 0 ? 3 : -3, 0);
+			assertTrue(layer.consumeDamage(dirty));
+			canvas.save();
+			canvas.clipRect(dirty);
+			layer.draw(canvas);
+			canvas.restore();
+		}
+		long damaged = (SystemClock.elapsedRealtimeNanos() - start) / FRAMES;
+		Log.i(TAG, "Damage: " + full / 1000 + "us per full frame, " + damaged / 1000 + "us per damaged frame");
+		
+		// As above, check the area redrawn rather than the frame time
+		long area = (long) dirty.width() * dirty.height();
+		assertTrue(area + " pixels damaged", area > 0 && area < 1080L * 1920 / 100);
+	}
+	
+	/**
+	 * Draw a grid of long lines much larger than the screen, drawn with tiles from the origin.
+	 *
+	 * @return the drawing
+	 */
+	private static DrawingLayer gridLayer() {
+		DrawingLayer layer = new DrawingLayer(1080, 1920);
+		for (int i = 0; i < SEGMENTS; i++) {
+			layer.lineTo((i % 200) * 50f, (i / 200) * 40f + (i % 2) * 20f);
+		}
+		layer.setRenderMode(RenderMode.TILES);
+		layer.setTransformation(new float[]{0f, 0f});
+		return layer;
+	}
+	
+	private static long timeFrames(DrawingLayer layer, Canvas canvas) {
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			layer.draw(canvas);
+		}
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < FRAMES; i++) {
+			layer.draw(canvas);
+		}
+		return (SystemClock.elapsedRealtimeNanos() - start) / FRAMES;
+	}
+	
+	private static Bitmap render(DrawingLayer layer, RenderMode mode) {
+		layer.setRenderMode(mode);
+		Bitmap bitmap = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888);
+		bitmap.eraseColor(Color.WHITE);
+		layer.draw(new Canvas(bitmap));
+		return bitmap;
+	}
+}
@@ -0,0 +1,359 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Crash-safe autosave of a {@link DrawingLayer}. Every edit to the layer is appended to an {@link OperationLog}, a
+ * write-ahead log of a few bytes per vertex, which is flushed to storage every second. Once the log grows larger than
+ * the last snapshot, the layer is compacted: a new {@code .etch} snapshot is written and a new log started, so the
+ * drawing is never rewritten as a whole for each edit. After a crash, {@link #recover()} loads the latest snapshot and
+ * replays its log.
+ * <p/>
+ * Snapshots and logs are numbered by generation. A snapshot is written to a temporary file, synced and then renamed,
+ * so a generation only exists once its snapshot is complete; the files of older generations are deleted after that.
+ * Until then, the previous snapshot and its log are still complete, so a crash at any point recovers one or the other.
+ * <p/>
+ * Edits are logged on the main thread without touching storage. Compaction copies the vertex arrays of the layer on
+ * the main thread, which costs one array copy per chunk of the drawing; encoding the copy, flushing, snapshot writing
+ * and cleanup happen on the autosave thread.
+ */
+public class Autosave {
+	
+	private static final String TAG = "Autosave";
+	private static final String PREFIX = "autosave-";
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final long FLUSH_INTERVAL_MS = 1000;
+	private static final long MIN_COMPACT_BYTES = 256 * 1024;
+	private final Path directory;
+	private final Supplier<int[]> palette;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Autosave Thread"));
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final Runnable compactTask = this::compact;
+	private DrawingLayer layer;
+	private volatile OperationLog log;
+	private volatile long snapshotBytes = 0;
+	private long generation = 0;
+	private boolean stale = false;
+	
+	/**
+	 * Create an autosave that keeps its files in a directory. Nothing is logged until a layer is attached with
+	 * {@link #attach(DrawingLayer)}.
+	 *
+	 * @param directory the directory to keep snapshots and logs in
+	 * @param palette   supplies the palette colors to store with each snapshot; called on the main thread
+	 */
+	public Autosave(Path directory, Supplier<int[]> palette) {
+		this.directory = directory;
+		this.palette = palette;
+		executor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Load the drawing of the last session from its latest complete snapshot and log. If the latest snapshot cannot be
+	 * read, older ones are tried. Must be called before the first layer is attached, off the main thread.
+	 *
+	 * @return the recovered drawing and palette, or null if there was nothing to recover
+	 * @throws IOException error listing the autosave directory
+	 */
+	public Recovery recover() throws IOException {
+		Files.createDirectories(directory);
+		ArrayList<Long> generations = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + EtchFormat.EXTENSION)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					generations.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - EtchFormat.EXTENSION.length())));
+				} catch (NumberFormatException e) {
+					Log.w(TAG, "Ignoring " + name);
+				}
+			}
+		}
+		Collections.sort(generations, Collections.reverseOrder());
+		for (long g : generations) {
+			generation = Math.max(generation, g);
+			try (EtchReader reader = new EtchReader(Files.newInputStream(snapshotFile(g)))) {
+				DrawingLayer recovered = new DrawingLayer(reader);
+				int replayed = Files.exists(logFile(g)) ? recovered.replay(logFile(g)) : 0;
+				Log.i(TAG, "Recovered generation " + g + " with " + replayed + " logged edits");
+				return new Recovery(recovered, reader.getPalette());
+			} catch (IOException | RuntimeException e) {
+				Log.e(TAG, "Could not recover generation " + g, e);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Start logging the edits of a layer, replacing the layer logged before. A snapshot of the layer is taken
+	 * straight away. Does nothing if the layer is already attached. A {@link DrawingLayer#isPartial() partial} layer is
+	 * not saved; logging stops until a complete layer is attached, so the last snapshot is kept.
+	 *
+	 * @param layer the layer to save
+	 */
+	public void attach(DrawingLayer layer) {
+		if (layer == this.layer) return;
+		if (this.layer != null) {
+			this.layer.setAutosave(null);
+		}
+		if (layer.isPartial()) {
+			this.layer = null;
+			return;
+		}
+		this.layer = layer;
+		layer.setAutosave(this);
+		compact();
+	}
+	
+	/**
+	 * Take a snapshot of the attached layer and start a new log from it. Only the vertex arrays of the layer are copied
+	 * on the main thread, one array copy per chunk; the copy is encoded and written on the autosave thread.
+	 */
+	public void compact() {
+		mainHandler.removeCallbacks(compactTask);
+		stale = false;
+		if (layer == null) return;
+		ArrayList<PointStroke> snapshot = layer.snapshot();
+		layer.markAutosaved();
+		int[] colors = palette.get();
+		OperationLog previous = log;
+		long g = ++generation;
+		log = new OperationLog(logFile(g));
+		executor.execute(() -> writeSnapshot(previous, snapshot, colors, g));
+	}
+	
+	/**
+	 * Compact the layer on the main thread shortly, and stop logging until then. Used when an edit cannot be logged,
+	 * such as an undo back past the last snapshot, so that a burst of such edits is snapshot once.
+	 */
+	void compactSoon() {
+		if (stale) return;
+		stale = true;
+		mainHandler.postDelayed(compactTask, FLUSH_INTERVAL_MS);
+	}
+	
+	/**
+	 * Stop logging, write any edits that have not been saved and release the autosave thread. The autosave cannot be
+	 * used afterwards.
+	 */
+	public void close() {
+		if (stale) {
+			compact();
+		}
+		mainHandler.removeCallbacks(compactTask);
+		if (layer != null) {
+			layer.setAutosave(null);
+			layer = null;
+		}
+		OperationLog last = log;
+		executor.execute(() -> {
+			if (last == null) return;
+			try {
+				last.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Could not close the autosave log", e);
+			}
+		});
+		executor.shutdown();
+	}
+	
+	/**
+	 * Log a vertex added to the current line. See {@link OperationLog#segment(float, float)}.
+	 *
+	 * @param x the x position of the vertex
+	 * @param y the y position of the vertex
+	 */
+	void segment(float x, float y) {
+		if (!stale) log.segment(x, y);
+	}
+	
+	/**
+	 * Log the last vertex of the current line being moved. See {@link OperationLog#move(float, float)}.
+	 *
+	 * @param x the new x position of the vertex
+	 * @param y the new y position of the vertex
+	 */
+	void move(float x, float y) {
+		if (!stale) log.move(x, y);
+	}
+	
+	/**
+	 * Log a new line being started with a color. See {@link OperationLog#color(int)}.
+	 *
+	 * @param color the color of the new line
+	 */
+	void color(int color) {
+		if (!stale) log.color(color);
+	}
+	
+	/**
+	 * Log a change of stroke width. See {@link OperationLog#paintSize(float)}.
+	 *
+	 * @param size the new stroke width
+	 */
+	void paintSize(float size) {
+		if (!stale) log.paintSize(size);
+	}
+	
+	/**
+	 * Log edits being undone. See {@link OperationLog#undo(int)}.
+	 *
+	 * @param count the number of edits undone
+	 */
+	void undo(int count) {
+		if (!stale) log.undo(count);
+	}
+	
+	/**
+	 * Log edits being redone. See {@link OperationLog#redo(int)}.
+	 *
+	 * @param count the number of edits redone
+	 */
+	void redo(int count) {
+		if (!stale) log.redo(count);
+	}
+	
+	/**
+	 * Log the layer being cleared. See {@link OperationLog#clear(float, float)}.
+	 *
+	 * @param x the x position of the pen after clearing
+	 * @param y the y position of the pen after clearing
+	 */
+	void clear(float x, float y) {
+		if (!stale) log.clear(x, y);
+	}
+	
+	/**
+	 * Append the logged edits to the log file, and ask for a compaction once the log is larger than the snapshot.
+	 * Runs on the autosave thread.
+	 */
+	private void flush() {
+		OperationLog current = log;
+		if (current == null) return;
+		try {
+			current.flush();
+		} catch (IOException e) {
+			Log.e(TAG, "Could not write the autosave log", e);
+			return;
+		}
+		if (current.length() > Math.max(MIN_COMPACT_BYTES, snapshotBytes)) {
+			mainHandler.post(() -> {
+				if (log == current) {
+					compact();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Write a snapshot as the given generation, then delete the files of older generations. The previous log is synced
+	 * and closed first, so that its generation is complete if writing the snapshot fails. Runs on the autosave thread.
+	 *
+	 * @param previous   the log of the previous generation, or null
+	 * @param snapshot   the copied strokes of the layer to write
+	 * @param colors     the palette colors to write
+	 * @param generation the generation of the snapshot
+	 */
+	private void writeSnapshot(OperationLog previous, List<PointStroke> snapshot, int[] colors, long generation) {
+		if (previous != null) {
+			try {
+				previous.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Could not close the autosave log", e);
+			}
+		}
+		try {
+			Files.createDirectories(directory);
+			Path file = snapshotFile(generation);
+			Path temp = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+			try (EtchWriter writer = new EtchWriter(Files.newOutputStream(temp), colors, snapshot.size())) {
+				DrawingLayer.write(writer, snapshot, Progress.NONE);
+			}
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			snapshotBytes = Files.size(file);
+			deleteBefore(generation);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not write autosave snapshot " + generation, e);
+		}
+	}
+	
+	/**
+	 * Delete the snapshots, logs and temporary files of every generation before the given one.
+	 *
+	 * @param generation the oldest generation to keep
+	 * @throws IOException error listing the autosave directory
+	 */
+	private void deleteBefore(long generation) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				int end = name.indexOf('.');
+				try {
+					if (end > PREFIX.length() && Long.parseLong(name.substring(PREFIX.length(), end)) < generation) {
+						Files.deleteIfExists(file);
+					}
+				} catch (NumberFormatException e) {
+					Log.w(TAG, "Ignoring " + name);
+				}
+			}
+		}
+	}
+	
+	private Path snapshotFile(long generation) {
+		return directory.resolve(PREFIX + generation + EtchFormat.EXTENSION);
+	}
+	
+	private Path logFile(long generation) {
+		return directory.resolve(PREFIX + generation + OperationLog.EXTENSION);
+	}
+	
+	/**
+	 * A drawing and palette recovered from the autosave.
+	 */
+	public static class Recovery {
+		final DrawingLayer layer;
+		final int[] palette;
+		
+		Recovery(DrawingLayer layer, int[] palette) {
+			this.layer = layer;
+			this.palette = palette;
+		}
+		
+		/**
+		 * Get the recovered drawing.
+		 *
+		 * @return the recovered layer
+		 */
+		public DrawingLayer getLayer() {
+			return layer;
+		}
+		
+		/**
+		 * Get the recovered palette colors.
+		 *
+		 * @return the palette colors
+		 */
+		public int[] getPalette() {
+			return palette;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * A committed chunk as the {@link TileCache} draws it: a path that no longer changes, and the paint it is stroked
+ * with. Implemented by the chunks of a {@link DrawingLayer} and by the copies a {@link LayerMirror} keeps of them.
+ */
+interface CachedChunk {
+	
+	/**
+	 * Get the path through the vertices of the chunk.
+	 *
+	 * @return the path of the chunk
+	 */
+	Path getPath();
+	
+	/**
+	 * Get the paint the chunk is stroked with. The paint must not be modified.
+	 *
+	 * @return the paint of the chunk
+	 */
+	Paint getPaint();
+}
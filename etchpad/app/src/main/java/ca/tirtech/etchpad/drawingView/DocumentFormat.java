@@ -0,0 +1,30 @@
+package ca.tirtech.etchpad.drawingView;
+
+/**
+ * The file formats a drawing can be saved in.
+ */
+public enum DocumentFormat {
+	/**
+	 * The compact binary format written by {@link EtchWriter}.
+	 */
+	ETCH(EtchFormat.EXTENSION),
+	/**
+	 * The JSON produced by {@link DrawingLayer#jsonify()}, kept for importing and exporting.
+	 */
+	JSON(".json");
+	
+	private final String extension;
+	
+	DocumentFormat(String extension) {
+		this.extension = extension;
+	}
+	
+	/**
+	 * Get the file extension of this format, including the dot.
+	 *
+	 * @return the file extension
+	 */
+	public String getExtension() {
+		return extension;
+	}
+}
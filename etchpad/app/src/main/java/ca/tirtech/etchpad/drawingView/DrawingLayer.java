@@ -1,7 +1,8 @@
 package ca.tirtech.etchpad.drawingView;
 
 import android.graphics.*;
-import androidx.core.util.Pair;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 import androidx.databinding.Bindable;
 import androidx.databinding.library.baseAdapters.BR;
 import ca.tirtech.etchpad.mvvm.LiveDataObservable;
@@ -9,7 +10,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -21,18 +25,45 @@ import java.util.Stack;
  * though this is discouraged.
  */
 public class DrawingLayer extends LiveDataObservable {
-	public static final String JSON_LAYER_PATHS = "layer_paths";
-	public static final String JSON_PAINT_COLOR = "paint_color";
-	public static final String JSON_X = "x";
-	public static final String JSON_Y = "y";
-	public static final String JSON_PATH = "path";
-	public static final String JSON_PAINT_SIZE = "paint_size";
+	public static final String JSON_LAYER_PATHS = LayerJson.JSON_LAYER_PATHS;
+	public static final String JSON_PAINT_COLOR = Stroke.JSON_PAINT_COLOR;
+	public static final String JSON_X = Stroke.JSON_X;
+	public static final String JSON_Y = Stroke.JSON_Y;
+	public static final String JSON_PATH = Stroke.JSON_PATH;
+	public static final String JSON_PAINT_SIZE = Stroke.JSON_PAINT_SIZE;
 	private float[] transformation = new float[]{0f, 0f};
+	private float scale = 1f;
+	static final float MIN_SCALE = 0.05f;
+	static final float MAX_SCALE = 4f;
 	private final float[] screenOrigin = new float[]{0, 0};
 	private Stack<LayerPath> paths = new Stack<>();
-	private static final Paint textPaint = initPaint(Color.BLACK, 1f, Paint.Style.FILL_AND_STROKE);
+	private static final Paint textPaint = PaintPool.obtain(Color.BLACK, 1f, Paint.Style.FILL_AND_STROKE);
 	private String nickname = "";
 	private float paintSize = 5f;
+	private static final long DEFAULT_TILE_MEMORY_BUDGET = 32 * 1024 * 1024;
+	private static final float DEFAULT_DECIMATION_TOLERANCE = 0.25f;
+	public static final int DEFAULT_EXPORT_BAND_HEIGHT = 256;
+	public static final long DEFAULT_EXPORT_MEMORY_CEILING = 16 * 1024 * 1024;
+	private final TileCache tileCache = new TileCache(DEFAULT_TILE_MEMORY_BUDGET);
+	private final PictureCache pictureCache = new PictureCache();
+	private RenderMode renderMode = RenderMode.TILES;
+	private final QuadTree pathIndex = new QuadTree();
+	private final RectF pathBounds = new RectF();
+	private final Rect clipBounds = new Rect();
+	private float decimationTolerance = DEFAULT_DECIMATION_TOLERANCE;
+	private long inputVertexCount = 0;
+	private long mergedVertexCount = 0;
+	private final EditJournal journal = new EditJournal();
+	private final ArrayList<Chunk> indexedChunks = new ArrayList<>();
+	private static final float CURSOR_RADIUS = 10f;
+	private static final float NICKNAME_OFFSET = 30f;
+	private final RectF damage = new RectF();
+	private boolean fullDamage = true;
+	private float nicknameHalfWidth = 0;
+	private LayerMirror mirror;
+	private Autosave autosave;
+	private boolean partial = false;
+	private float[] batchPoints = new float[64];
 	
 	/**
 	 * Construct a blank layer. The pen on this layer will start at the provided {@code (x,y)} position.
@@ -46,6 +77,13 @@ public class DrawingLayer extends LiveDataObservable {
 		paths.push(new LayerPath(initPaint(Color.RED, paintSize), screenOrigin[0], screenOrigin[1]));
 	}
 	
+	/**
+	 * Construct a layer with no paths, which must be filled before it is used.
+	 */
+	private DrawingLayer() {
+		super();
+	}
+	
 	/**
 	 * Creates a new drawing layer from the given JSON. This is a convenience constructor, replacing the following:<br/><br/>
 	 * {@code
@@ -61,6 +99,74 @@ public class DrawingLayer extends LiveDataObservable {
 		objectify(root);
 	}
 	
+	/**
+	 * Creates a new drawing layer from a binary {@code .etch} document. This is a convenience constructor, replacing
+	 * the following:<br/><br/>
+	 * {@code
+	 * DrawingLayer layer = new DrawingLayer(0,0);<br/>
+	 * layer.{@link #read(EtchReader)};
+	 * }
+	 *
+	 * @param reader the reader to load from
+	 * @throws IOException the document could not be read
+	 */
+	public DrawingLayer(EtchReader reader) throws IOException {
+		super();
+		read(reader);
+	}
+	
+	/**
+	 * Creates a new drawing layer from an indexed {@code .etch} document. This is a convenience constructor, replacing
+	 * the following:<br/><br/>
+	 * {@code
+	 * DrawingLayer layer = new DrawingLayer(0,0);<br/>
+	 * layer.{@link #read(EtchIndex, Progress)};
+	 * }
+	 *
+	 * @param index    the index to load from
+	 * @param progress the receiver of progress reports, which may cancel the load
+	 * @throws IOException the document could not be read, or the load was cancelled
+	 */
+	public DrawingLayer(EtchIndex index, Progress progress) throws IOException {
+		super();
+		read(index, progress);
+	}
+	
+	/**
+	 * Creates a new drawing layer from copies of strokes, such as a {@link #snapshot()}. The {@link Path}s of the
+	 * strokes are built and indexed here, so this should be called off the main thread for large drawings.
+	 *
+	 * @param strokes the strokes to copy, oldest first
+	 * @throws IOException there were no strokes
+	 */
+	public DrawingLayer(List<? extends Stroke<?>> strokes) throws IOException {
+		super();
+		Stack<LayerPath> loaded = new Stack<>();
+		loaded.ensureCapacity(strokes.size());
+		for (Stroke<?> stroke : strokes) {
+			LayerPath path = new LayerPath();
+			path.copyFrom(stroke);
+			loaded.push(path);
+		}
+		replacePaths(loaded);
+	}
+	
+	/**
+	 * Creates a new drawing layer from a stream of JSON. This is a convenience constructor, replacing the
+	 * following:<br/><br/>
+	 * {@code
+	 * DrawingLayer layer = new DrawingLayer(0,0);<br/>
+	 * layer.{@link #read(JsonReader)};
+	 * }
+	 *
+	 * @param reader the reader positioned at the start of the layer object
+	 * @throws IOException the JSON could not be read
+	 */
+	public DrawingLayer(JsonReader reader) throws IOException {
+		super();
+		read(reader);
+	}
+	
 	/**
 	 * Creates a new drawing layer, initialized from another layer. This is equivalent to:<br/><br/>
 	 * {@code
@@ -77,14 +183,15 @@ public class DrawingLayer extends LiveDataObservable {
 	}
 	
 	/**
-	 * Create a new {@link Paint}.
+	 * Get the shared stroke {@link Paint} for the given settings from the {@link PaintPool}. The paint must not be
+	 * modified.
 	 *
 	 * @param color  the color of the paint
 	 * @param stroke the weight of the stroke
-	 * @return a new {@link Paint} with the specified color
+	 * @return a shared {@link Paint} with the specified color
 	 */
 	private static Paint initPaint(int color, float stroke) {
-		return initPaint(color, stroke, Paint.Style.STROKE);
+		return PaintPool.obtain(color, stroke, Paint.Style.STROKE);
 	}
 	
 	/**
@@ -97,6 +204,45 @@ public class DrawingLayer extends LiveDataObservable {
 		return transformation;
 	}
 	
+	/**
+	 * Get the scale the layer is drawn at. Layer coordinates are scaled by this before the transformation is added.
+	 *
+	 * @return the current scale
+	 */
+	@Bindable
+	public float getScale() {
+		return scale;
+	}
+	
+	/**
+	 * Set the scale the layer is drawn at, without moving the transformation.
+	 *
+	 * @param scale the new scale, clamped between {@link #MIN_SCALE} and {@link #MAX_SCALE}
+	 */
+	public void setScale(float scale) {
+		this.scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+		fullDamage = true;
+		notifyPropertyChanged(BR.scale);
+	}
+	
+	/**
+	 * Zoom the view of this layer by a factor, keeping the point under the focus still on screen.
+	 *
+	 * @param factor the factor to multiply the scale by
+	 * @param focusX the x position of the focus, in view coordinates
+	 * @param focusY the y position of the focus, in view coordinates
+	 */
+	public void zoom(float factor, float focusX, float focusY) {
+		float newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+		if (newScale == scale) return;
+		transformation[0] = focusX - (focusX - transformation[0]) * newScale / scale;
+		transformation[1] = focusY - (focusY - transformation[1]) * newScale / scale;
+		scale = newScale;
+		fullDamage = true;
+		notifyPropertyChanged(BR.scale);
+		notifyPropertyChanged(BR.transformation);
+	}
+	
 	/**
 	 * Set the origin of the screen. Used for centring the pen.
 	 *
@@ -112,8 +258,9 @@ public class DrawingLayer extends LiveDataObservable {
 	 * Centers the cursor on the screen.
 	 */
 	public void centerOnCursor() {
-		transformation[0] = screenOrigin[0] - getCurrentLayerPath().x;
-		transformation[1] = screenOrigin[1] - getCurrentLayerPath().y;
+		transformation[0] = screenOrigin[0] - getCurrentLayerPath().x * scale;
+		transformation[1] = screenOrigin[1] - getCurrentLayerPath().y * scale;
+		fullDamage = true;
 		notifyChange();
 	}
 	
@@ -124,40 +271,82 @@ public class DrawingLayer extends LiveDataObservable {
 	 */
 	public void setTransformation(float[] transformation) {
 		this.transformation = transformation;
+		fullDamage = true;
 		notifyPropertyChanged(BR.transformation);
 	}
 	
 	/**
-	 * Clears the layer, reverting to the default path.
+	 * Move the view of this layer by the given offset. The transformation is updated in place.
+	 *
+	 * @param dx the x distance to move by
+	 * @param dy the y distance to move by
+	 */
+	public void pan(float dx, float dy) {
+		transformation[0] += dx;
+		transformation[1] += dy;
+		fullDamage = true;
+		notifyPropertyChanged(BR.transformation);
+	}
+	
+	/**
+	 * Clears the layer, reverting to the default path. The cleared paths are kept in the edit journal so the clear
+	 * can be undone. Does nothing to a {@link #isPartial() partial} layer.
 	 */
 	public void clear() {
+		if (partial) return;
+		clear(screenOrigin[0], screenOrigin[1]);
+	}
+	
+	/**
+	 * Clears the layer, starting the new default path at the given position.
+	 *
+	 * @param x the x position of the pen
+	 * @param y the y position of the pen
+	 */
+	private void clear(float x, float y) {
+		long bytes = 0;
+		for (LayerPath p : paths) {
+			bytes += p.getPointCount() * 8L + 64;
+		}
+		journal.record(EditJournal.CLEAR, transformation[0], transformation[1], x, y, paths, bytes);
+		applyClear(x, y);
+		if (autosave != null) {
+			autosave.clear(x, y);
+		}
+		notifyPropertyChanged(BR.currentLayerPath);
+		notifyPropertyChanged(BR.transformation);
+	}
+	
+	/**
+	 * Replace the paths of the layer with a single empty path using the current paint, and reset the transformation.
+	 * The old path stack is left untouched.
+	 *
+	 * @param x the x position of the pen
+	 * @param y the y position of the pen
+	 */
+	private void applyClear(float x, float y) {
 		Paint currentPaint = getCurrentLayerPath().paint;
-		this.paths.clear();
-		this.paths.push(new LayerPath(currentPaint, screenOrigin[0], screenOrigin[1]));
+		this.paths = new Stack<>();
+		tileCache.invalidate();
+		pictureCache.invalidate();
+		pathIndex.clear();
+		indexedChunks.clear();
+		if (mirror != null) {
+			mirror.reset();
+		}
+		this.paths.push(new LayerPath(currentPaint, x, y));
 		transformation[0] = 0;
 		transformation[1] = 0;
-		notifyPropertyChanged(BR.currentLayerPath);
-		notifyPropertyChanged(BR.transformation);
+		fullDamage = true;
 	}
 	
 	/**
-	 * Create a new {@link Paint}.
+	 * Get the nickname displayed above the cursor.
 	 *
-	 * @param color  the color of the paint
-	 * @param stroke the weight of the stroke
-	 * @param style  the style of paint to use
-	 * @return a new {@link Paint} with the specified color
+	 * @return the nickname
 	 */
-	private static Paint initPaint(int color, float stroke, Paint.Style style) {
-		Paint paint = new Paint();
-		paint.setAntiAlias(false);
-		paint.setColor(color);
-		paint.setStrokeJoin(Paint.Join.BEVEL);
-		paint.setStyle(style);
-		paint.setStrokeWidth(stroke);
-		paint.setTextSize(24);
-		paint.setTextAlign(Paint.Align.CENTER);
-		return paint;
+	public String getNickname() {
+		return nickname;
 	}
 	
 	/**
@@ -166,7 +355,10 @@ public class DrawingLayer extends LiveDataObservable {
 	 * @param nickname the name to display
 	 */
 	public void setNickname(String nickname) {
+		damageHead();
 		this.nickname = nickname;
+		this.nicknameHalfWidth = textPaint.measureText(nickname) / 2;
+		damageHead();
 	}
 	
 	/**
@@ -180,20 +372,163 @@ public class DrawingLayer extends LiveDataObservable {
 	}
 	
 	/**
-	 * Draws all elements of this layer on the provided {@link Canvas}.
+	 * Draws all elements of this layer on the provided {@link Canvas}. Paths are stored in {@link Chunk}s; every chunk
+	 * but the tail of the current path is committed and drawn according to the {@link RenderMode}, so only the tail
+	 * chunk is stroked each frame, however long the current line is. With {@link RenderMode#TILES}, if the canvas needs
+	 * more tiles than the memory budget allows, only the committed chunks that intersect the canvas' clip are stroked,
+	 * found using the path index. The transformation is applied once to the canvas rather than to each path, so
+	 * drawing a frame does not allocate.
 	 *
 	 * @param canvas the canvas to draw on
 	 */
 	public void draw(Canvas canvas) {
-		for (LayerPath lp : paths) {
-			canvas.drawPath(lp.getPathTranslated(transformation), lp.paint);
+		canvas.save();
+		canvas.translate(transformation[0], transformation[1]);
+		canvas.scale(scale, scale);
+		switch (renderMode) {
+			case TILES:
+				if (!tileCache.draw(canvas, indexedChunks, pathIndex, indexedChunks.size(), scale)) {
+					drawVisiblePaths(canvas);
+				}
+				break;
+			case DISPLAY_LIST:
+				pictureCache.draw(canvas, indexedChunks, indexedChunks.size());
+				break;
+			default:
+				drawVisiblePaths(canvas);
+		}
+		drawCurrentPath(canvas);
+		canvas.restore();
+	}
+	
+	/**
+	 * Get the way committed chunks are drawn.
+	 *
+	 * @return the render mode
+	 */
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}
+	
+	/**
+	 * Choose how committed chunks are drawn. The cache of the previous mode is released, and the next frame is drawn
+	 * in full.
+	 *
+	 * @param renderMode the render mode
+	 */
+	public void setRenderMode(RenderMode renderMode) {
+		if (this.renderMode == renderMode) return;
+		this.renderMode = renderMode;
+		tileCache.release();
+		pictureCache.invalidate();
+		fullDamage = true;
+	}
+	
+	/**
+	 * Stroke the committed chunks that intersect the canvas' clip, found using the path index. The canvas must already
+	 * be translated into layer coordinates.
+	 *
+	 * @param canvas the canvas to draw on
+	 */
+	private void drawVisiblePaths(Canvas canvas) {
+		canvas.getClipBounds(clipBounds);
+		int count = pathIndex.query(clipBounds.left, clipBounds.top, clipBounds.right, clipBounds.bottom);
+		int[] visible = pathIndex.getResults();
+		for (int i = 0; i < count; i++) {
+			Chunk chunk = indexedChunks.get(visible[i]);
+			canvas.drawPath(chunk.path, chunk.owner.paint);
+		}
+	}
+	
+	/**
+	 * Stroke the tail chunk of the current path, along with the cursor and nickname at its head. The canvas must
+	 * already be translated into layer coordinates.
+	 *
+	 * @param canvas the canvas to draw on
+	 */
+	private void drawCurrentPath(Canvas canvas) {
+		LayerPath cur = getCurrentLayerPath();
+		drawHead(canvas, cur.getTail().path, cur.paint, cur.x, cur.y, nickname);
+	}
+	
+	/**
+	 * Stroke a tail chunk, along with the cursor and nickname at its head. The canvas must already be translated into
+	 * layer coordinates.
+	 *
+	 * @param canvas   the canvas to draw on
+	 * @param tail     the path of the tail chunk
+	 * @param paint    the paint of the current path
+	 * @param x        the x position of the cursor
+	 * @param y        the y position of the cursor
+	 * @param nickname the nickname to draw above the cursor
+	 */
+	static void drawHead(Canvas canvas, Path tail, Paint paint, float x, float y, String nickname) {
+		canvas.drawPath(tail, paint);
+		canvas.drawCircle(x, y, CURSOR_RADIUS, paint);
+		canvas.drawText(nickname, x, y - NICKNAME_OFFSET, textPaint);
+	}
+	
+	/**
+	 * Attach a mirror that a render thread draws this layer from. The mirror is sent every committed chunk now, and is
+	 * then kept up to date as chunks are committed and removed. Frames must be sent with
+	 * {@link #publishFrame(Rect)}.
+	 *
+	 * @param mirror the mirror to keep up to date, or null to stop updating the current one
+	 */
+	public void setMirror(LayerMirror mirror) {
+		this.mirror = mirror;
+		if (mirror != null) {
+			mirror.reset();
+			for (int i = 0; i < indexedChunks.size(); i++) {
+				Chunk chunk = indexedChunks.get(i);
+				chunk.computeStrokeBounds(pathBounds);
+				mirror.commit(chunk.points, chunk.owner.paint, pathBounds);
+			}
+			fullDamage = true;
 		}
+	}
+	
+	/**
+	 * Attach the autosave that every edit to this layer is logged to. Edits are logged from then on; the autosave is
+	 * expected to take a snapshot of the layer first.
+	 *
+	 * @param autosave the autosave to log to, or null to stop logging
+	 */
+	void setAutosave(Autosave autosave) {
+		this.autosave = autosave;
+	}
+	
+	/**
+	 * Mark the current state of the edit history as the state of the autosave's latest snapshot. Undo and redo are
+	 * only logged while they stay within the edits made since; see {@link EditJournal#mark()}.
+	 */
+	void markAutosaved() {
+		journal.mark();
+	}
+	
+	/**
+	 * Replay an {@link OperationLog} written by the autosave onto this layer, which must hold the snapshot the log was
+	 * started from. The edits are recorded in the edit journal as they were when first made, so they can be undone.
+	 *
+	 * @param file the log to replay
+	 * @return the number of edits replayed
+	 * @throws IOException error reading the log
+	 */
+	int replay(java.nio.file.Path file) throws IOException {
+		return OperationLog.replay(file, new LogReplayer());
+	}
+	
+	/**
+	 * Send the tail chunk, cursor and transformation to the mirror, along with the area changed since the last frame.
+	 * Does nothing if no mirror is attached.
+	 *
+	 * @param dirty the changed area in view coordinates as returned by {@link #consumeDamage(Rect)}, or null if the
+	 *              whole view changed
+	 */
+	public void publishFrame(Rect dirty) {
+		if (mirror == null) return;
 		LayerPath cur = getCurrentLayerPath();
-		canvas.drawCircle(cur.x + transformation[0], cur.y + transformation[1], 10, cur.paint);
-		canvas.drawText(nickname, cur.x + transformation[0], cur.y + transformation[1] - 30, textPaint);
-		/*RectF b = calculateBounds();
-		b.offset(transformation[0],transformation[1]);
-		canvas.drawRect(b, cur.paint);*/
+		mirror.frame(cur.getTail().points, cur.paint, cur.x, cur.y, nickname, transformation, scale, dirty);
 	}
 	
 	/**
@@ -208,20 +543,98 @@ public class DrawingLayer extends LiveDataObservable {
 	}
 	
 	/**
-	 * Continue the current line to the x.
+	 * Continue the current line by several offsets, each from the position the previous one reached. Observers are
+	 * notified once for the whole batch.
+	 *
+	 * @param offsets the x and y offsets, interleaved
+	 * @param count   the number of offsets
+	 */
+	public void lineToByOffsets(float[] offsets, int count) {
+		if (batchPoints.length < count * 2) {
+			batchPoints = new float[Math.max(count * 2, batchPoints.length * 2)];
+		}
+		LayerPath cur = getCurrentLayerPath();
+		float x = cur.x;
+		float y = cur.y;
+		for (int i = 0; i < count * 2; i += 2) {
+			x += offsets[i];
+			y += offsets[i + 1];
+			batchPoints[i] = x;
+			batchPoints[i + 1] = y;
+		}
+		lineTo(batchPoints, count);
+	}
+	
+	/**
+	 * Continue the current line to the x. If the previous point lies within the decimation tolerance of the
+	 * extended line, the previous point is moved rather than adding a new one. See {@link PointDecimator}.
+	 * Only the tail chunk of the current path is changed; once it is full, it is committed and a new tail is started.
 	 *
 	 * @param x the x position to draw to
 	 * @param y the y position to draw to
 	 */
 	public void lineTo(float x, float y) {
-		LayerPath cur = getCurrentLayerPath();
-		cur.path.lineTo(x, y);
-		cur.pathPoints.add(new Pair<>(x, y));
-		cur.x = x;
-		cur.y = y;
+		if (partial) return;
+		damageHead();
+		appendPoint(x, y);
+		damageHead();
+		notifyPropertyChanged(BR.currentLayerPath);
+	}
+	
+	/**
+	 * Continue the current line through several points, as if {@link #lineTo(float, float)} was called for each, but
+	 * notify observers only once for the whole batch.
+	 *
+	 * @param points the x and y positions to draw to, interleaved
+	 * @param count  the number of points
+	 */
+	public void lineTo(float[] points, int count) {
+		if (partial) return;
+		if (count == 0) return;
+		damageHead();
+		for (int i = 0; i < count * 2; i += 2) {
+			appendPoint(points[i], points[i + 1]);
+		}
+		damageHead();
 		notifyPropertyChanged(BR.currentLayerPath);
 	}
 	
+	/**
+	 * Add a point to the current line, recording it in the journal and damaging the changed segments. Observers are
+	 * not notified, and the cursor is not damaged.
+	 *
+	 * @param x the x position to draw to
+	 * @param y the y position to draw to
+	 */
+	private void appendPoint(float x, float y) {
+		LayerPath cur = getCurrentLayerPath();
+		Chunk tail = cur.getTail();
+		inputVertexCount++;
+		int last = tail.points.size() - 1;
+		float lastX = tail.points.getX(last);
+		float lastY = tail.points.getY(last);
+		if (cur.draw(x, y, decimationTolerance, journal)) {
+			tail.path.setLastPoint(x, y);
+			mergedVertexCount++;
+			if (autosave != null) {
+				autosave.move(x, y);
+			}
+			float prevX = tail.points.getX(last - 1);
+			float prevY = tail.points.getY(last - 1);
+			damageSegment(prevX, prevY, lastX, lastY, cur.paint);
+			damageSegment(prevX, prevY, x, y, cur.paint);
+		} else {
+			tail.path.lineTo(x, y);
+			if (autosave != null) {
+				autosave.segment(x, y);
+			}
+			damageSegment(lastX, lastY, x, y, cur.paint);
+			if (tail.isFull()) {
+				finishChunk(cur);
+			}
+		}
+	}
+	
 	/**
 	 * Get the current layer path. Defined as the layer path that is on the top of the path stack.
 	 *
@@ -239,13 +652,7 @@ public class DrawingLayer extends LiveDataObservable {
 	 * @throws JSONException thrown if instance values were not valid JSON types
 	 */
 	public JSONObject jsonify() throws JSONException {
-		JSONObject root = new JSONObject();
-		JSONArray layers = new JSONArray();
-		for (LayerPath p : paths) {
-			layers.put(p.jsonify());
-		}
-		root.put(JSON_LAYER_PATHS, layers);
-		return root;
+		return LayerJson.jsonify(paths);
 	}
 	
 	/**
@@ -256,189 +663,1172 @@ public class DrawingLayer extends LiveDataObservable {
 	 */
 	public void objectify(JSONObject root) throws JSONException {
 		paths = new Stack<>();
+		tileCache.invalidate();
+		pictureCache.invalidate();
+		journal.clear();
 		JSONArray layers = root.getJSONArray(JSON_LAYER_PATHS);
 		for (int i = 0; i < layers.length(); i++) {
 			paths.push(new LayerPath(layers.getJSONObject(i)));
 		}
+		reindex();
+		fullDamage = true;
 		notifyPropertyChanged(BR.currentLayerPath);
 	}
 	
 	/**
-	 * Assign the color when drawing on this layer. This will create a new {@link Paint} for this color.
-	 * Since each path must have its own paint, this will create a new path.
+	 * Write the paths of this DrawingLayer to a binary {@code .etch} document. To recreate this object, use
+	 * {@link #read(EtchReader)}.
 	 *
-	 * @param color the color to set to
+	 * @param writer the writer to write the paths to, which must have been created for {@link #getPathCount()} strokes
+	 * @throws IOException error writing the document
 	 */
-	public void setColor(int color) {
-		LayerPath cur = getCurrentLayerPath();
-		paths.push(new LayerPath(initPaint(color, paintSize), cur.x, cur.y));
-		notifyPropertyChanged(BR.currentPaintColor);
+	public void write(EtchWriter writer) throws IOException {
+		write(writer, Progress.NONE);
 	}
 	
 	/**
-	 * Removes the top-most path from the layer.
+	 * Write the paths of this DrawingLayer to a binary {@code .etch} document, reporting the number of paths written.
+	 *
+	 * @param writer   the writer to write the paths to, which must have been created for {@link #getPathCount()} strokes
+	 * @param progress the receiver of progress reports, which may cancel the write
+	 * @throws IOException error writing the document, or the write was cancelled
 	 */
-	public void undo() {
-		if (paths.size() > 1) {
-			paths.pop();
-			paintSize = getCurrentLayerPath().paint.getStrokeWidth();
-			notifyPropertyChanged(BR.paintSize);
-		} else if (paths.size() == 1) {
-			paths.set(0, new LayerPath(initPaint(Color.RED, paintSize), screenOrigin[0], screenOrigin[1]));
-			transformation[0] = 0;
-			transformation[1] = 0;
-			notifyPropertyChanged(BR.transformation);
-		}
-		notifyPropertyChanged(BR.currentLayerPath);
+	public void write(EtchWriter writer, Progress progress) throws IOException {
+		write(writer, paths, progress);
 	}
 	
 	/**
-	 * Get the current paint size.
+	 * Write strokes, such as a {@link #snapshot()}, to a binary {@code .etch} document, reporting the number of strokes
+	 * written.
 	 *
-	 * @return the size of the paint.
+	 * @param writer   the writer to write the strokes to, which must have been created for as many strokes
+	 * @param strokes  the strokes to write, oldest first
+	 * @param progress the receiver of progress reports, which may cancel the write
+	 * @throws IOException error writing the document, or the write was cancelled
 	 */
-	@Bindable
-	public float getPaintSize() {
-		return paintSize;
+	public static void write(EtchWriter writer, List<? extends Stroke<?>> strokes, Progress progress) throws IOException {
+		for (int i = 0; i < strokes.size(); i++) {
+			writer.writeStroke(strokes.get(i));
+			progress.update(i + 1, strokes.size());
+		}
 	}
 	
 	/**
-	 * Sets the size of the Paint that is drawn.
+	 * Write this DrawingLayer to a stream of JSON, in the same form as {@link #jsonify()}, reporting the number of
+	 * paths written. Unlike {@link #jsonify()}, the JSON is never held in memory as a whole.
 	 *
-	 * @param size the size of the paint
+	 * @param writer   the writer to write the layer object to
+	 * @param progress the receiver of progress reports, which may cancel the write
+	 * @throws IOException error writing the stream, or the write was cancelled
 	 */
-	public void setPaintSize(float size) {
-		getCurrentLayerPath().paint.setStrokeWidth(size);
-		this.paintSize = size;
+	public void write(JsonWriter writer, Progress progress) throws IOException {
+		write(writer, paths, progress);
 	}
 	
 	/**
-	 * Calculates the rectangle that fully contains all paths in this layer.
+	 * Write strokes, such as a {@link #snapshot()}, to a stream of JSON as a layer object, in the same form as
+	 * {@link #jsonify()}, reporting the number of strokes written.
 	 *
-	 * @return the computed bounds
+	 * @param writer   the writer to write the layer object to
+	 * @param strokes  the strokes to write, oldest first
+	 * @param progress the receiver of progress reports, which may cancel the write
+	 * @throws IOException error writing the stream, or the write was cancelled
 	 */
-	private RectF calculateBounds() {
-		RectF allBounds = new RectF();
-		RectF pathBounds = new RectF();
-		for (LayerPath lp : paths) {
-			lp.path.computeBounds(pathBounds, true);
-			allBounds.union(pathBounds);
+	public static void write(JsonWriter writer, List<? extends Stroke<?>> strokes, Progress progress) throws IOException {
+		writer.beginObject();
+		writer.name(JSON_LAYER_PATHS);
+		writer.beginArray();
+		for (int i = 0; i < strokes.size(); i++) {
+			writeStroke(writer, strokes.get(i));
+			progress.update(i + 1, strokes.size());
 		}
-		return allBounds;
+		writer.endArray();
+		writer.endObject();
 	}
 	
 	/**
-	 * Draws the layer on a bitmap, ensuring the full drawing is visible.
+	 * Write a stroke to a stream of JSON conforming to the output of {@link Stroke#jsonify()}.
 	 *
-	 * @return the drawn bitmap
+	 * @param writer the writer to write the stroke object to
+	 * @param stroke the stroke to write
+	 * @throws IOException error writing the stream
 	 */
-	public Bitmap drawForExport() {
-		RectF allBounds = calculateBounds();
-		Bitmap b = Bitmap.createBitmap((int) Math.ceil(allBounds.width()), (int) Math.ceil(allBounds.height()), Bitmap.Config.ARGB_8888);
-		Canvas fakeCanvas = new Canvas(b);
-		fakeCanvas.drawColor(Color.WHITE);
-		float[] oldTransform = transformation;
-		transformation = new float[]{-allBounds.left, -allBounds.top};
-		draw(fakeCanvas);
-		transformation = oldTransform;
-		return b;
+	private static void writeStroke(JsonWriter writer, Stroke<?> stroke) throws IOException {
+		writer.beginObject();
+		writer.name(JSON_PATH);
+		writer.beginArray();
+		for (int c = 0; c < stroke.chunks.size(); c++) {
+			PointBuffer chunkPoints = stroke.chunks.get(c).points;
+			for (int i = c == 0 ? 0 : 1; i < chunkPoints.size(); i++) {
+				writer.beginArray();
+				writer.value(Float.valueOf(chunkPoints.getX(i)));
+				writer.value(Float.valueOf(chunkPoints.getY(i)));
+				writer.endArray();
+			}
+		}
+		writer.endArray();
+		writer.name(JSON_X).value(Float.valueOf(stroke.x));
+		writer.name(JSON_Y).value(Float.valueOf(stroke.y));
+		writer.name(JSON_PAINT_COLOR).value(stroke.color);
+		writer.name(JSON_PAINT_SIZE).value(Float.valueOf(stroke.width));
+		writer.endObject();
 	}
 	
 	/**
-	 * A container for settings defining a {@link Path} with a color and current position (head).
-	 * Used as a substitute for {@link Pair}s of {@link Path}s and {@link Paint}s
+	 * Copy the vertices of this layer's paths into plain {@link PointStroke}s that later edits to this layer do not
+	 * affect, so the drawing can be saved or exported on another thread while drawing continues. Each chunk is copied
+	 * with a single array copy and no {@link Path} is built, so this is cheap enough to call on the main thread; build
+	 * a layer from the copy with {@link #DrawingLayer(List)} on the thread that needs one.
+	 *
+	 * @return the copied strokes, oldest first
 	 */
-	private static class LayerPath {
-		Path path;
-		Paint paint;
-		ArrayList<Pair<Float, Float>> pathPoints = new ArrayList<>();
-		float x;
-		float y;
-		
-		public LayerPath(Paint paint, float x, float y) {
-			this.path = new Path();
-			this.path.moveTo(x, y);
-			this.pathPoints.add(new Pair<>(x, y));
-			this.x = x;
-			this.y = y;
-			this.paint = paint;
+	public ArrayList<PointStroke> snapshot() {
+		ArrayList<PointStroke> copy = new ArrayList<>(paths.size());
+		for (LayerPath p : paths) {
+			copy.add(new PointStroke(p));
 		}
-		
-		/**
-		 * Get the path for this LayerPath translated by the given transform.
-		 *
-		 * @param translation the x,y translation to apply
-		 * @return the translated path
-		 */
-		public Path getPathTranslated(float[] translation) {
-			Path newPath = new Path();
-			path.offset(translation[0], translation[1], newPath);
-			return newPath;
+		return copy;
+	}
+	
+	/**
+	 * Load the paths of a binary {@code .etch} document into this DrawingLayer, replacing its contents. Paths are
+	 * decoded straight into their chunks as they are read.
+	 *
+	 * @param reader the reader to read the paths from
+	 * @throws IOException error reading the document
+	 */
+	public void read(EtchReader reader) throws IOException {
+		Stack<LayerPath> loaded = new Stack<>();
+		for (int i = 0; i < reader.getStrokeCount(); i++) {
+			LayerPath path = new LayerPath();
+			reader.readStroke(path);
+			loaded.push(path);
 		}
-		
-		/**
-		 * Creates a new layer from the given JSON. This is a convenience constructor, replacing the following:<br/><br/>
-		 * {@code
-		 * LayerPath layer = new LayerPath(Color.RED,0,0);<br/>
-		 * layer.{@link #objectify(JSONObject)};
-		 * }
-		 *
-		 * @param root the JSON to load from
-		 */
-		public LayerPath(JSONObject root) throws JSONException {
-			objectify(root);
+		replacePaths(loaded);
+	}
+	
+	/**
+	 * Load every path of an indexed {@code .etch} document into this DrawingLayer, replacing its contents, and
+	 * reporting the number of paths read.
+	 *
+	 * @param index    the index to read the paths from
+	 * @param progress the receiver of progress reports, which may cancel the load
+	 * @throws IOException error reading the document, or the load was cancelled
+	 */
+	public void read(EtchIndex index, Progress progress) throws IOException {
+		Stack<LayerPath> loaded = new Stack<>();
+		loaded.ensureCapacity(index.getStrokeCount());
+		for (int i = 0; i < index.getStrokeCount(); i++) {
+			LayerPath path = new LayerPath();
+			index.readStroke(i, path);
+			loaded.push(path);
+			progress.update(i + 1, index.getStrokeCount());
 		}
-		
-		/**
-		 * Convert this LayerPath into a {@link JSONObject}. To recreate this object, use {@link #objectify(JSONObject)}.
-		 *
-		 * @return the JSON representation of this object
-		 * @throws JSONException thrown if instance values were not valid JSON types
-		 */
-		public JSONObject jsonify() throws JSONException {
-			JSONObject root = new JSONObject();
-			JSONArray points = new JSONArray();
-			for (Pair<Float, Float> point : pathPoints) {
-				JSONArray xy = new JSONArray();
-				xy.put(point.first);
-				xy.put(point.second);
-				points.put(xy);
+		partial = false;
+		replacePaths(loaded);
+	}
+	
+	/**
+	 * Create a layer holding only the parts of an indexed {@code .etch} document that lie in an area, to show while
+	 * the whole document is loaded. Only the chunks whose stroked bounds intersect the area are decoded; each run of
+	 * consecutive such chunks becomes a path of its own. The last chunk of the last path is always loaded, so the pen
+	 * is where the document left it. The layer is {@link #isPartial() partial}: it ignores drawing, color and paint
+	 * size changes, clearing, undo and redo, and must not be saved.
+	 *
+	 * @param index    the index to read the chunks from
+	 * @param viewport the area to load, in layer coordinates
+	 * @return the partial layer
+	 * @throws IOException error reading the document
+	 */
+	public static DrawingLayer preview(EtchIndex index, RectF viewport) throws IOException {
+		DrawingLayer preview = new DrawingLayer();
+		Stack<LayerPath> loaded = new Stack<>();
+		for (int i = 0; i < index.getStrokeCount(); i++) {
+			float halfStroke = index.getStrokeWidth(i) / 2 + 1;
+			int first = index.getFirstChunk(i);
+			int count = index.getChunkCount(i);
+			int last = i == index.getStrokeCount() - 1 ? count - 1 : count;
+			int from = -1;
+			for (int c = 0; c <= count; c++) {
+				boolean visible = c < count && (c == last || index.chunkIntersects(first + c,
+						viewport.left - halfStroke, viewport.top - halfStroke,
+						viewport.right + halfStroke, viewport.bottom + halfStroke));
+				if (visible && from < 0) {
+					from = c;
+				} else if (!visible && from >= 0) {
+					LayerPath path = new LayerPath();
+					index.readChunks(i, from, c, path);
+					loaded.push(path);
+					from = -1;
+				}
 			}
-			root.put(JSON_PATH, points);
-			root.put(JSON_X, x);
-			root.put(JSON_Y, y);
-			root.put(JSON_PAINT_COLOR, paint.getColor());
-			root.put(JSON_PAINT_SIZE, paint.getStrokeWidth());
-			return root;
 		}
-		
-		/**
-		 * Load the given {@link JSONObject} into this LayerPath. JSON should conform to the output of {@link #jsonify()}.
-		 *
-		 * @param root the JSON to load from
-		 * @throws JSONException thrown if loaded data was not valid JSON
-		 */
-		public void objectify(JSONObject root) throws JSONException {
-			
-			this.pathPoints = new ArrayList<>();
-			this.path = new Path();
-			
-			this.paint = initPaint(root.getInt(JSON_PAINT_COLOR), (float) root.getDouble(JSON_PAINT_SIZE));
-			this.y = (float) root.getDouble(JSON_Y);
-			this.x = (float) root.getDouble(JSON_X);
-			JSONArray points = root.getJSONArray(JSON_PATH);
-			for (int i = 0; i < points.length(); i++) {
-				JSONArray point = points.getJSONArray(i);
-				float x = (float) point.getDouble(0);
-				float y = (float) point.getDouble(1);
-				if (i == 0) {
-					path.moveTo(x, y);
-				} else {
-					path.lineTo(x, y);
+		preview.partial = true;
+		preview.replacePaths(loaded);
+		return preview;
+	}
+	
+	/**
+	 * Check whether this layer holds only part of a drawing, as created by {@link #preview(EtchIndex, RectF)}. A partial
+	 * layer can be moved and zoomed, but its paths cannot be changed until it is replaced.
+	 *
+	 * @return true if the layer is a partial preview
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+	
+	/**
+	 * Load a layer from a stream of JSON into this DrawingLayer, replacing its contents. The JSON should conform to the
+	 * output of {@link #jsonify()}. Unlike {@link #objectify(JSONObject)}, the JSON is never held in memory as a whole;
+	 * vertices are decoded straight into their chunks as they are read.
+	 *
+	 * @param reader the reader positioned at the start of the layer object
+	 * @throws IOException error reading the stream, or the JSON is not a valid layer
+	 */
+	public void read(JsonReader reader) throws IOException {
+		Stack<LayerPath> loaded = new Stack<>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(JSON_LAYER_PATHS)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					LayerPath path = new LayerPath();
+					path.read(reader);
+					loaded.push(path);
 				}
-				this.pathPoints.add(new Pair<>(x, y));
+				reader.endArray();
+			} else {
+				reader.skipValue();
 			}
 		}
+		reader.endObject();
+		replacePaths(loaded);
+	}
+	
+	/**
+	 * Replace every path of this layer with newly loaded paths, clearing the edit journal and caches.
+	 *
+	 * @param loaded the loaded paths, oldest first
+	 * @throws IOException there were no paths to load
+	 */
+	private void replacePaths(Stack<LayerPath> loaded) throws IOException {
+		if (loaded.isEmpty()) {
+			throw new IOException("Document has no paths");
+		}
+		paths = loaded;
+		tileCache.invalidate();
+		pictureCache.invalidate();
+		journal.clear();
+		reindex();
+		paintSize = getCurrentLayerPath().paint.getStrokeWidth();
+		fullDamage = true;
+		notifyPropertyChanged(BR.paintSize);
+		notifyPropertyChanged(BR.currentLayerPath);
+	}
+	
+	/**
+	 * Get the number of paths in this layer, including the current one.
+	 *
+	 * @return the number of paths
+	 */
+	public int getPathCount() {
+		return paths.size();
+	}
+	
+	/**
+	 * Assign the color when drawing on this layer. The paint for this color is taken from the {@link PaintPool}.
+	 * Since each path has a single paint, this will create a new path.
+	 *
+	 * @param color the color to set to
+	 */
+	public void setColor(int color) {
+		if (partial) return;
+		journal.record(EditJournal.NEW_PATH, color >>> 16, color & 0xFFFF, paintSize, 0);
+		startPath(color, paintSize);
+		if (autosave != null) {
+			autosave.color(color);
+		}
+		damageHead();
+		notifyPropertyChanged(BR.currentPaintColor);
+	}
+	
+	/**
+	 * Commit the current path and start a new one from its head.
+	 *
+	 * @param color  the color of the new path
+	 * @param stroke the stroke width of the new path
+	 */
+	private void startPath(int color, float stroke) {
+		LayerPath cur = getCurrentLayerPath();
+		cur.decimator.reset();
+		commitPath(paths.size() - 1);
+		paths.push(new LayerPath(initPaint(color, stroke), cur.x, cur.y));
+	}
+	
+	/**
+	 * Undo the edits made since the last checkpoint of the edit journal. Checkpoints are placed before every color
+	 * change, paint size change and clear, and periodically along long lines. See {@link EditJournal}.
+	 * <p/>
+	 * Once there is no more history, such as after loading, the top-most path is removed from the layer instead.
+	 * This cannot be redone.
+	 */
+	public void undo() {
+		if (partial) return;
+		int from = journal.getPosition();
+		if (from > 0) {
+			revertTo(journal.previousCheckpoint());
+			logHistoryMove(from);
+			return;
+		}
+		if (autosave != null) {
+			autosave.compactSoon();
+		}
+		journal.truncate();
+		if (paths.size() > 1) {
+			uncommitChunks(paths.pop());
+			uncommitChunk();
+			paintSize = getCurrentLayerPath().paint.getStrokeWidth();
+			notifyPropertyChanged(BR.paintSize);
+		} else if (paths.size() == 1) {
+			uncommitChunks(paths.get(0));
+			paths.set(0, new LayerPath(initPaint(Color.RED, paintSize), screenOrigin[0], screenOrigin[1]));
+			transformation[0] = 0;
+			transformation[1] = 0;
+			notifyPropertyChanged(BR.transformation);
+		}
+		fullDamage = true;
+		notifyPropertyChanged(BR.currentLayerPath);
+	}
+	
+	/**
+	 * Redo the edits up to the next checkpoint of the edit journal.
+	 */
+	public void redo() {
+		if (partial) return;
+		int from = journal.getPosition();
+		if (from < journal.size()) {
+			applyTo(journal.nextCheckpoint());
+			logHistoryMove(from);
+		}
+	}
+	
+	/**
+	 * Undo individual edits, such as single line segments, ignoring checkpoints.
+	 *
+	 * @param count the number of edits to undo
+	 */
+	public void undoSegments(int count) {
+		if (partial) return;
+		int from = journal.getPosition();
+		revertTo(Math.max(0, from - count));
+		logHistoryMove(from);
+	}
+	
+	/**
+	 * Redo individual edits, such as single line segments, ignoring checkpoints.
+	 *
+	 * @param count the number of edits to redo
+	 */
+	public void redoSegments(int count) {
+		if (partial) return;
+		int from = journal.getPosition();
+		applyTo((int) Math.min(journal.size(), (long) from + count));
+		logHistoryMove(from);
+	}
+	
+	/**
+	 * Log an undo or redo to the autosave. If the journal was moved outside the history the autosave can replay, such
+	 * as back past its last snapshot, a new snapshot is taken instead.
+	 *
+	 * @param from the journal position before the undo or redo
+	 */
+	private void logHistoryMove(int from) {
+		if (autosave == null) return;
+		int to = journal.getPosition();
+		if (!journal.isWithinMark(to)) {
+			autosave.compactSoon();
+		} else if (to < from) {
+			autosave.undo(from - to);
+		} else if (to > from) {
+			autosave.redo(to - from);
+		}
+	}
+	
+	/**
+	 * Revert the edits in the journal back to the given position, newest first. Removing points cannot be done on a
+	 * {@link Path}, so only the tail chunk of the current path is rebuilt, once, at the end rather than after every edit.
+	 *
+	 * @param target the journal position to revert to
+	 */
+	@SuppressWarnings ("unchecked")
+	private void revertTo(int target) {
+		for (int i = journal.getPosition() - 1; i >= target; i--) {
+			LayerPath cur = getCurrentLayerPath();
+			Chunk tail = cur.getTail();
+			switch (journal.getType(i)) {
+				case EditJournal.APPEND:
+					if (cur.revert(journal, i)) {
+						uncommitChunk();
+					}
+					cur.getTail().dirty = true;
+					break;
+				case EditJournal.MOVE:
+					cur.revert(journal, i);
+					tail.path.setLastPoint(journal.getArg(i, 0), journal.getArg(i, 1));
+					break;
+				case EditJournal.NEW_PATH:
+					paths.pop();
+					uncommitChunk();
+					break;
+				case EditJournal.PAINT_SIZE:
+					repaint(cur, initPaint(cur.paint.getColor(), journal.getArg(i, 0)));
+					break;
+				case EditJournal.CLEAR:
+					paths = (Stack<LayerPath>) journal.getAttachment(i);
+					reindex();
+					transformation[0] = journal.getArg(i, 0);
+					transformation[1] = journal.getArg(i, 1);
+					break;
+			}
+		}
+		journal.setPosition(target);
+		finishEdits();
+	}
+	
+	/**
+	 * Apply the edits in the journal from the current position up to the given position, oldest first.
+	 *
+	 * @param target the journal position to apply up to
+	 */
+	private void applyTo(int target) {
+		for (int i = journal.getPosition(); i < target; i++) {
+			LayerPath cur = getCurrentLayerPath();
+			Chunk tail = cur.getTail();
+			switch (journal.getType(i)) {
+				case EditJournal.APPEND:
+					cur.apply(journal, i);
+					if (tail.isFull()) {
+						finishChunk(cur);
+					}
+					break;
+				case EditJournal.MOVE:
+					cur.apply(journal, i);
+					tail.path.setLastPoint(journal.getArg(i, 2), journal.getArg(i, 3));
+					break;
+				case EditJournal.NEW_PATH:
+					int color = (int) journal.getArg(i, 0) << 16 | (int) journal.getArg(i, 1);
+					cur.x = tail.points.getX(tail.points.size() - 1);
+					cur.y = tail.points.getY(tail.points.size() - 1);
+					startPath(color, journal.getArg(i, 2));
+					break;
+				case EditJournal.PAINT_SIZE:
+					repaint(cur, initPaint(cur.paint.getColor(), journal.getArg(i, 1)));
+					break;
+				case EditJournal.CLEAR:
+					applyClear(journal.getArg(i, 2), journal.getArg(i, 3));
+					break;
+			}
+		}
+		journal.setPosition(target);
+		finishEdits();
+	}
+	
+	/**
+	 * Bring the current path and the layer's state back in line with its points after edits were undone or redone,
+	 * and notify observers. The tail chunk is rebuilt if points were removed from it.
+	 */
+	private void finishEdits() {
+		LayerPath cur = getCurrentLayerPath();
+		Chunk tail = cur.getTail();
+		if (tail.dirty) {
+			tail.rebuildPath();
+		}
+		cur.updateBounds();
+		cur.decimator.reset();
+		int last = tail.points.size() - 1;
+		cur.x = tail.points.getX(last);
+		cur.y = tail.points.getY(last);
+		paintSize = cur.paint.getStrokeWidth();
+		fullDamage = true;
+		notifyPropertyChanged(BR.paintSize);
+		notifyPropertyChanged(BR.currentPaintColor);
+		notifyPropertyChanged(BR.transformation);
+		notifyPropertyChanged(BR.currentLayerPath);
+	}
+	
+	/**
+	 * Set the approximate number of bytes the undo history may use. Once it is reached, the oldest history is
+	 * collapsed and can no longer be undone.
+	 *
+	 * @param bytes the memory limit for the undo history
+	 */
+	public void setHistoryMemoryLimit(long bytes) {
+		journal.setMemoryLimit(bytes);
+	}
+	
+	/**
+	 * Set the number of line segments a single {@link #undo()} removes from a long line.
+	 *
+	 * @param segments the number of segments between checkpoints
+	 */
+	public void setUndoCheckpointInterval(int segments) {
+		journal.setCheckpointInterval(segments);
+	}
+	
+	/**
+	 * Get the current paint size.
+	 *
+	 * @return the size of the paint.
+	 */
+	@Bindable
+	public float getPaintSize() {
+		return paintSize;
+	}
+	
+	/**
+	 * Sets the size of the Paint that is drawn. Paints are shared between paths, so the current path is given the
+	 * pooled paint of the new size rather than having its paint changed. The committed chunks of the current path are
+	 * committed again with the new paint; other paths in the tile cache are unaffected.
+	 *
+	 * @param size the size of the paint
+	 */
+	public void setPaintSize(float size) {
+		if (partial) return;
+		LayerPath cur = getCurrentLayerPath();
+		if (autosave != null && (cur.paint.getStrokeWidth() != size || paintSize != size)) {
+			autosave.paintSize(size);
+		}
+		if (cur.paint.getStrokeWidth() != size) {
+			if (!journal.amendPaintSize(size)) {
+				journal.record(EditJournal.PAINT_SIZE, cur.paint.getStrokeWidth(), size, 0, 0);
+			}
+			cur.computeStrokeBounds(pathBounds);
+			damage(pathBounds);
+			damageHead();
+			repaint(cur, initPaint(cur.paint.getColor(), size));
+			cur.computeStrokeBounds(pathBounds);
+			damage(pathBounds);
+			damageHead();
+		}
+		this.paintSize = size;
+	}
+	
+	/**
+	 * Set how far a point passed to {@link #lineTo(float, float)} may be from the stored line before it is kept
+	 * as a new vertex. Dropped points are never further than twice this distance from the line.
+	 *
+	 * @param tolerance the tolerance in pixels; 0 keeps every point
+	 */
+	public void setDecimationTolerance(float tolerance) {
+		this.decimationTolerance = tolerance;
+	}
+	
+	/**
+	 * Get the fraction of points passed to {@link #lineTo(float, float)} that were merged into an existing vertex
+	 * instead of being stored.
+	 *
+	 * @return the vertex reduction, between 0 and 1
+	 */
+	public float getVertexReduction() {
+		return inputVertexCount == 0 ? 0 : (float) mergedVertexCount / inputVertexCount;
+	}
+	
+	/**
+	 * Commit the full tail chunk of the current path and start a new tail from its last point. The decimator is reset
+	 * so the shared point is never moved.
+	 *
+	 * @param cur the current path
+	 */
+	private void finishChunk(LayerPath cur) {
+		Chunk tail = cur.getTail();
+		indexChunk(tail);
+		cur.startChunk();
+	}
+	
+	/**
+	 * Commit a path by committing its tail chunk, and record the bounds of all paths up to and including it.
+	 * Paths must be committed from the bottom of the stack up.
+	 *
+	 * @param id the position of the path in the path stack
+	 */
+	private void commitPath(int id) {
+		LayerPath lp = paths.get(id);
+		Chunk tail = lp.getTail();
+		tail.points.trimToSize();
+		indexChunk(tail);
+		lp.computeStrokeBounds(pathBounds);
+		lp.committedBounds.set(pathBounds);
+		if (id > 0) {
+			lp.committedBounds.union(paths.get(id - 1).committedBounds);
+		}
+	}
+	
+	/**
+	 * Add a chunk to the top of the committed chunks and to the path index. Its id is its position among the committed
+	 * chunks, so ids follow drawing order.
+	 *
+	 * @param chunk the chunk to commit
+	 */
+	private void indexChunk(Chunk chunk) {
+		chunk.computeStrokeBounds(pathBounds);
+		pathIndex.insert(indexedChunks.size(), pathBounds.left, pathBounds.top, pathBounds.right, pathBounds.bottom);
+		indexedChunks.add(chunk);
+		if (mirror != null) {
+			mirror.commit(chunk.points, chunk.owner.paint, pathBounds);
+		}
+	}
+	
+	/**
+	 * Remove the top-most committed chunk. It is removed from the path index, any tiles it was drawn on are
+	 * invalidated and any recording it is in is dropped. The chunk must not have changed since it was committed.
+	 */
+	private void uncommitChunk() {
+		int id = indexedChunks.size() - 1;
+		indexedChunks.remove(id).computeStrokeBounds(pathBounds);
+		pathIndex.remove(id, pathBounds.left, pathBounds.top, pathBounds.right, pathBounds.bottom);
+		tileCache.uncommit(id, pathBounds.left, pathBounds.top, pathBounds.right, pathBounds.bottom);
+		pictureCache.uncommit(id);
+		if (mirror != null) {
+			mirror.uncommit(id);
+		}
+	}
+	
+	/**
+	 * Remove every committed chunk of a path from the top of the committed chunks.
+	 *
+	 * @param lp the path whose chunks to remove
+	 */
+	private void uncommitChunks(LayerPath lp) {
+		while (!indexedChunks.isEmpty() && indexedChunks.get(indexedChunks.size() - 1).owner == lp) {
+			uncommitChunk();
+		}
+	}
+	
+	/**
+	 * Change the paint of the current path. Its committed chunks are committed again, so tiles drawn with the old paint
+	 * are redrawn.
+	 *
+	 * @param cur   the current path
+	 * @param paint the new paint
+	 */
+	private void repaint(LayerPath cur, Paint paint) {
+		uncommitChunks(cur);
+		cur.setPaint(paint);
+		for (int i = 0; i < cur.chunks.size() - 1; i++) {
+			indexChunk(cur.chunks.get(i));
+		}
+	}
+	
+	/**
+	 * Rebuild the path index and the committed chunks from scratch, invalidating every tile and recording.
+	 */
+	private void reindex() {
+		indexedChunks.clear();
+		pathIndex.clear();
+		tileCache.invalidate();
+		pictureCache.invalidate();
+		if (mirror != null) {
+			mirror.reset();
+		}
+		for (int i = 0; i < paths.size(); i++) {
+			LayerPath lp = paths.get(i);
+			for (int c = 0; c < lp.chunks.size() - 1; c++) {
+				indexChunk(lp.chunks.get(c));
+			}
+			if (i < paths.size() - 1) {
+				commitPath(i);
+			}
+		}
+	}
+	
+	/**
+	 * Take the area of the view changed since damage was last consumed. Mutations record the area they change in
+	 * layer coordinates: new segments with their stroke width, and the cursor and nickname before and after they move.
+	 * Panning, clearing, undoing and loading change the whole layer.
+	 *
+	 * @param out the rectangle to write the changed area into, in view coordinates; empty if nothing changed
+	 * @return false if the whole view must be redrawn, in which case {@code out} is empty
+	 */
+	public boolean consumeDamage(Rect out) {
+		boolean hasRect = !fullDamage;
+		if (hasRect && !damage.isEmpty()) {
+			out.set((int) Math.floor(damage.left * scale + transformation[0]),
+					(int) Math.floor(damage.top * scale + transformation[1]),
+					(int) Math.ceil(damage.right * scale + transformation[0]),
+					(int) Math.ceil(damage.bottom * scale + transformation[1]));
+		} else {
+			out.setEmpty();
+		}
+		fullDamage = false;
+		damage.setEmpty();
+		return hasRect;
+	}
+	
+	/**
+	 * Move the damage recorded by another layer drawn with the same transformation into this layer.
+	 *
+	 * @param other the layer to take the damage of
+	 */
+	protected void takeDamage(DrawingLayer other) {
+		if (other.fullDamage) {
+			fullDamage = true;
+		} else if (!other.damage.isEmpty()) {
+			damage(other.damage);
+		}
+		other.fullDamage = false;
+		other.damage.setEmpty();
+	}
+	
+	/**
+	 * Record an area of the layer as changed.
+	 *
+	 * @param area the changed area, in layer coordinates
+	 */
+	private void damage(RectF area) {
+		if (damage.isEmpty()) {
+			damage.set(area);
+		} else {
+			damage.union(area);
+		}
+	}
+	
+	/**
+	 * Record the area covered by a stroked segment as changed.
+	 *
+	 * @param x0    the x position of the start of the segment
+	 * @param y0    the y position of the start of the segment
+	 * @param x1    the x position of the end of the segment
+	 * @param y1    the y position of the end of the segment
+	 * @param paint the paint the segment is stroked with
+	 */
+	private void damageSegment(float x0, float y0, float x1, float y1, Paint paint) {
+		float halfStroke = paint.getStrokeWidth() / 2 + 1;
+		pathBounds.set(Math.min(x0, x1) - halfStroke, Math.min(y0, y1) - halfStroke,
+				Math.max(x0, x1) + halfStroke, Math.max(y0, y1) + halfStroke);
+		damage(pathBounds);
+	}
+	
+	/**
+	 * Record the area covered by the cursor and nickname at the head of the current path as changed.
+	 */
+	private void damageHead() {
+		LayerPath cur = getCurrentLayerPath();
+		float radius = CURSOR_RADIUS + cur.paint.getStrokeWidth() / 2 + 1;
+		pathBounds.set(cur.x - radius, cur.y - radius, cur.x + radius, cur.y + radius);
+		damage(pathBounds);
+		if (nicknameHalfWidth > 0) {
+			float baseline = cur.y - NICKNAME_OFFSET;
+			pathBounds.set(cur.x - nicknameHalfWidth - 1, baseline + textPaint.ascent() - 1,
+					cur.x + nicknameHalfWidth + 1, baseline + textPaint.descent() + 1);
+			damage(pathBounds);
+		}
+	}
+	
+	/**
+	 * Set the number of bytes the tile cache may use for its bitmaps. Tiles are evicted, least recently used first,
+	 * when the cache is over budget.
+	 *
+	 * @param bytes the memory budget for cached tiles
+	 */
+	public void setTileMemoryBudget(long bytes) {
+		tileCache.setMemoryBudget(bytes);
+	}
+	
+	/**
+	 * Get the number of bytes used by the tile cache's bitmaps.
+	 *
+	 * @return the memory used by cached tiles
+	 */
+	long getTileMemoryUsage() {
+		return tileCache.getMemoryUsage();
+	}
+	
+	/**
+	 * Get the rectangle that fully contains all paths in this layer when stroked. Bounds are maintained as the layer
+	 * is drawn on, so this does not need to visit every path. The bounds may be slightly larger than the drawing when
+	 * vertices were merged by decimation.
+	 *
+	 * @param out the rectangle to write the bounds into
+	 */
+	public void getBounds(RectF out) {
+		getCurrentLayerPath().computeStrokeBounds(out);
+		if (paths.size() > 1) {
+			out.union(paths.get(paths.size() - 2).committedBounds);
+		}
+	}
+	
+	/**
+	 * Check whether any path of the layer has a line segment, rather than only the point it starts at.
+	 *
+	 * @return true if anything has been drawn
+	 */
+	private boolean hasSegments() {
+		for (int i = paths.size() - 1; i >= 0; i--) {
+			if (paths.get(i).getPointCount() > 1) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Write the full drawing to a PNG image using the default band height and memory ceiling.
+	 * See {@link #exportPng(OutputStream, int, long)}.
+	 *
+	 * @param out the stream to write the image to; it is closed once the image is written
+	 * @throws IOException error writing the image
+	 */
+	public void exportPng(OutputStream out) throws IOException {
+		exportPng(out, Progress.NONE);
+	}
+	
+	/**
+	 * Write the full drawing to a PNG image using the default band height and memory ceiling, reporting the number of
+	 * rows written. See {@link #exportPng(OutputStream, int, long, Progress)}.
+	 *
+	 * @param out      the stream to write the image to; it is closed once the image is written
+	 * @param progress the receiver of progress reports, which may cancel the export
+	 * @throws IOException error writing the image, or the export was cancelled
+	 */
+	public void exportPng(OutputStream out, Progress progress) throws IOException {
+		exportPng(out, DEFAULT_EXPORT_BAND_HEIGHT, DEFAULT_EXPORT_MEMORY_CEILING, progress);
+	}
+	
+	/**
+	 * Write the full drawing to a PNG image. See {@link #exportPng(OutputStream, int, long, Progress)}.
+	 *
+	 * @param out           the stream to write the image to; it is closed once the image is written
+	 * @param bandHeight    the most rows to rasterize at once
+	 * @param memoryCeiling the most bytes the band bitmap may use; the band height is reduced to fit
+	 * @throws IOException error writing the image, nothing has been drawn, or a single row of the drawing does not fit in
+	 *                     the memory ceiling
+	 */
+	public void exportPng(OutputStream out, int bandHeight, long memoryCeiling) throws IOException {
+		exportPng(out, bandHeight, memoryCeiling, Progress.NONE);
+	}
+	
+	/**
+	 * Write the full drawing to a PNG image on a white background. The drawing is rasterized in horizontal bands,
+	 * each of which is encoded and written before the next is drawn, so memory use depends on the band size rather
+	 * than on the size of the drawing. Paths are stroked directly, culled to each band with the path index, so the
+	 * tile cache is left untouched.
+	 *
+	 * @param out           the stream to write the image to; it is closed once the image is written
+	 * @param bandHeight    the most rows to rasterize at once
+	 * @param memoryCeiling the most bytes the band bitmap may use; the band height is reduced to fit
+	 * @param progress      the receiver of progress reports, which may cancel the export between bands
+	 * @throws IOException error writing the image, nothing has been drawn, a single row of the drawing does not fit in
+	 *                     the memory ceiling, or the export was cancelled
+	 */
+	public void exportPng(OutputStream out, int bandHeight, long memoryCeiling, Progress progress) throws IOException {
+		RectF allBounds = new RectF();
+		getBounds(allBounds);
+		int width = (int) Math.ceil(allBounds.width());
+		int height = (int) Math.ceil(allBounds.height());
+		if (!hasSegments() || width <= 0 || height <= 0) {
+			out.close();
+			throw new IOException("Nothing to export: the drawing is empty");
+		}
+		long rowBytes = width * 4L;
+		if (rowBytes > memoryCeiling) {
+			out.close();
+			throw new IOException("A row of " + width + " pixels does not fit in " + memoryCeiling + " bytes");
+		}
+		bandHeight = (int) Math.max(1, Math.min(Math.min(bandHeight, height), memoryCeiling / rowBytes));
+		Bitmap band = Bitmap.createBitmap(width, bandHeight, Bitmap.Config.ARGB_8888);
+		Canvas bandCanvas = new Canvas(band);
+		int[] row = new int[width];
+		try (PngWriter png = new PngWriter(out, width, height)) {
+			for (int bandTop = 0; bandTop < height; bandTop += bandHeight) {
+				band.eraseColor(Color.WHITE);
+				bandCanvas.save();
+				bandCanvas.translate(-allBounds.left, -allBounds.top - bandTop);
+				drawVisiblePaths(bandCanvas);
+				drawCurrentPath(bandCanvas);
+				bandCanvas.restore();
+				int rows = Math.min(bandHeight, height - bandTop);
+				for (int y = 0; y < rows; y++) {
+					band.getPixels(row, 0, width, 0, y, width, 1);
+					png.writeRow(row, 0);
+				}
+				progress.update(bandTop + rows, height);
+			}
+		} finally {
+			band.recycle();
+		}
+	}
+	
+	/**
+	 * Applies the edits of an {@link OperationLog} to the layer. Vertices are applied exactly as logged, without
+	 * decimation, since the log holds the vertices decimation kept; other edits go through the same methods that
+	 * made them.
+	 */
+	private class LogReplayer implements OperationLog.Replayer {
+		
+		@Override
+		public void segment(float x, float y) {
+			LayerPath cur = getCurrentLayerPath();
+			Chunk tail = cur.getTail();
+			if (tail.isFull()) {
+				finishChunk(cur);
+				tail = cur.getTail();
+			}
+			tail.lineTo(x, y);
+			cur.bounds.union(x, y);
+			journal.record(EditJournal.APPEND, x, y, 0, 0);
+			if (tail.isFull()) {
+				finishChunk(cur);
+			}
+			cur.x = x;
+			cur.y = y;
+		}
+		
+		@Override
+		public void move(float x, float y) {
+			LayerPath cur = getCurrentLayerPath();
+			Chunk tail = cur.getTail();
+			int last = tail.points.size() - 1;
+			journal.record(EditJournal.MOVE, tail.points.getX(last), tail.points.getY(last), x, y);
+			tail.points.set(last, x, y);
+			tail.path.setLastPoint(x, y);
+			tail.bounds.union(x, y);
+			cur.bounds.union(x, y);
+			cur.x = x;
+			cur.y = y;
+		}
+		
+		@Override
+		public void color(int color) {
+			setColor(color);
+		}
+		
+		@Override
+		public void paintSize(float size) {
+			setPaintSize(size);
+		}
+		
+		@Override
+		public void undo(int count) {
+			undoSegments(count);
+		}
 		
+		@Override
+		public void redo(int count) {
+			redoSegments(count);
+		}
+		
+		@Override
+		public void clear(float x, float y) {
+			DrawingLayer.this.clear(x, y);
+		}
+	}
+	
+	/**
+	 * Android adapter for a {@link Stroke}, adding the {@link Paint} it is drawn with. The vertices, bounds and JSON
+	 * format of the line are kept by the platform independent {@link Stroke}; this class only holds what is needed to
+	 * render it. Its {@link Chunk}s each hold a {@link Path} built from their vertices.
+	 * <p/>
+	 * Once the path is committed, it also stores the stroked bounds of every path up to and including itself, so the
+	 * bounds of the layer never need a full scan.
+	 */
+	static class LayerPath extends Stroke<Chunk> {
+		Paint paint;
+		final RectF committedBounds = new RectF();
+		
+		public LayerPath(Paint paint, float x, float y) {
+			super(paint.getColor(), paint.getStrokeWidth(), x, y);
+			this.paint = paint;
+		}
+		
+		/**
+		 * Creates a new layer from the given JSON. This is a convenience constructor, replacing the following:<br/><br/>
+		 * {@code
+		 * LayerPath layer = new LayerPath(Color.RED,0,0);<br/>
+		 * layer.{@link #objectify(JSONObject)};
+		 * }
+		 *
+		 * @param root the JSON to load from
+		 */
+		public LayerPath(JSONObject root) throws JSONException {
+			objectify(root);
+		}
+		
+		/**
+		 * Creates an empty path, which must be loaded with {@link #objectify(JSONObject)} or
+		 * {@link EtchReader#readStroke(Stroke)} before it is used.
+		 */
+		LayerPath() {
+		}
+		
+		@Override
+		protected Chunk createChunk(float x, float y) {
+			return new Chunk(this, x, y);
+		}
+		
+		/**
+		 * Change the paint this path is drawn with, keeping the color and width of the stroke in step.
+		 *
+		 * @param paint the new paint
+		 */
+		void setPaint(Paint paint) {
+			this.paint = paint;
+			this.color = paint.getColor();
+			this.width = paint.getStrokeWidth();
+		}
+		
+		@Override
+		protected void setStyle(int color, float width) {
+			super.setStyle(color, width);
+			this.paint = initPaint(color, width);
+		}
+		
+		/**
+		 * Load this LayerPath from a stream of JSON conforming to the output of {@link #jsonify()}. The members may
+		 * appear in any order; vertices are added to the chunks as they are read, and the style and head are applied
+		 * once the whole object has been read.
+		 *
+		 * @param reader the reader positioned at the start of the path object
+		 * @throws IOException error reading the stream, or the JSON is not a valid path
+		 */
+		void read(JsonReader reader) throws IOException {
+			int color = Color.RED;
+			float width = 1;
+			float x = 0;
+			float y = 0;
+			boolean started = false;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case JSON_PATH:
+						reader.beginArray();
+						while (reader.hasNext()) {
+							reader.beginArray();
+							float px = (float) reader.nextDouble();
+							float py = (float) reader.nextDouble();
+							reader.endArray();
+							if (started) {
+								lineTo(px, py);
+							} else {
+								start(color, width, x, y, px, py);
+								started = true;
+							}
+						}
+						reader.endArray();
+						break;
+					case JSON_X:
+						x = (float) reader.nextDouble();
+						break;
+					case JSON_Y:
+						y = (float) reader.nextDouble();
+						break;
+					case JSON_PAINT_COLOR:
+						color = reader.nextInt();
+						break;
+					case JSON_PAINT_SIZE:
+						width = (float) reader.nextDouble();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (!started) {
+				start(color, width, x, y, x, y);
+			}
+			setStyle(color, width);
+			this.x = x;
+			this.y = y;
+		}
+		
+		/**
+		 * Compute the bounds of the area covered when this path is stroked with its paint.
+		 *
+		 * @param out the rectangle to write the bounds into
+		 */
+		void computeStrokeBounds(RectF out) {
+			strokeBounds(bounds, width, out);
+		}
+		
+	}
+	
+	/**
+	 * Android adapter for a {@link StrokeChunk}, adding a {@link Path} through its vertices.
+	 * <p/>
+	 * Once a chunk is full, it no longer changes unless the line is undone into it. Full chunks are committed to the
+	 * path index and cached in the tile cache like any other committed path.
+	 */
+	static class Chunk extends StrokeChunk implements CachedChunk {
+		final LayerPath owner;
+		final Path path = new Path();
+		boolean dirty = false;
+		
+		/**
+		 * Start a new chunk.
+		 *
+		 * @param owner the path this chunk belongs to
+		 * @param x     the x position of the first vertex
+		 * @param y     the y position of the first vertex
+		 */
+		Chunk(LayerPath owner, float x, float y) {
+			super(x, y);
+			this.owner = owner;
+			this.path.moveTo(x, y);
+		}
+		
+		@Override
+		public void lineTo(float x, float y) {
+			super.lineTo(x, y);
+			path.lineTo(x, y);
+		}
+		
+		@Override
+		public void copyFrom(StrokeChunk other) {
+			super.copyFrom(other);
+			rebuildPath();
+		}
+		
+		@Override
+		public Path getPath() {
+			return path;
+		}
+		
+		@Override
+		public Paint getPaint() {
+			return owner.paint;
+		}
+		
+		/**
+		 * Compute the bounds of the area covered when this chunk is stroked with its path's paint.
+		 *
+		 * @param out the rectangle to write the bounds into
+		 */
+		void computeStrokeBounds(RectF out) {
+			strokeBounds(bounds, owner.width, out);
+		}
+		
+		/**
+		 * Recreate the {@link Path} and the bounds of this chunk from its stored vertices.
+		 */
+		void rebuildPath() {
+			path.rewind();
+			float[] raw = points.getRawPoints();
+			path.moveTo(raw[0], raw[1]);
+			for (int i = 1; i < points.size(); i++) {
+				path.lineTo(raw[i * 2], raw[i * 2 + 1]);
+			}
+			rebuildBounds();
+			dirty = false;
+		}
+	}
+	
+	/**
+	 * Convert the bounds of some vertices into the rectangle covered when they are stroked with the given width.
+	 *
+	 * @param bounds the bounds of the vertices
+	 * @param width  the width of the stroke
+	 * @param out    the rectangle to write the bounds into
+	 */
+	private static void strokeBounds(Bounds bounds, float width, RectF out) {
+		float halfStroke = width / 2 + 1;
+		out.set(bounds.left - halfStroke, bounds.top - halfStroke, bounds.right + halfStroke, bounds.bottom + halfStroke);
 	}
 }
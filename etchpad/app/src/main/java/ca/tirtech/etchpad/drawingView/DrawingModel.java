@@ -2,23 +2,31 @@ package ca.tirtech.etchpad.drawingView;
 
 
 import android.app.Application;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.icu.text.SimpleDateFormat;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.VibrationEffect;
 import android.provider.MediaStore;
 import android.text.InputType;
+import android.util.DisplayMetrics;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.widget.EditText;
 import androidx.annotation.StringRes;
 import androidx.appcompat.app.AlertDialog;
 import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.Observer;
 import androidx.preference.PreferenceManager;
 import ca.tirtech.etchpad.R;
 import ca.tirtech.etchpad.colors.ColorPalette;
@@ -27,15 +35,17 @@ import ca.tirtech.etchpad.hardware.InteractionService;
 import ca.tirtech.etchpad.mvvm.DeepLiveData;
 import ca.tirtech.etchpad.mvvm.Event;
 import ca.tirtech.etchpad.mvvm.NonNullLiveData;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * LiveModel for storing UI information across the UI lifecycle. This class contains data about the drawing created in the app.
@@ -48,16 +58,29 @@ public class DrawingModel extends AndroidViewModel {
 	private static final String JSON_MODEL = "model";
 	private static final String JSON_COLORS = "colors";
 	private static final String TAG = "Drawing Model";
+	private static final String TEMP_EXTENSION = ".tmp";
 	private final SharedPreferences sharedPreferences;
 	private final DeepLiveData<DrawingLayer> layer;
 	private final NonNullLiveData<Integer> sensitivityPitch;
 	private final NonNullLiveData<Integer> sensitivityRoll;
 	private final NonNullLiveData<Boolean> lockMovement;
 	private final NonNullLiveData<Boolean> shakeLock;
+	private final NonNullLiveData<Boolean> threadedRendering;
+	private final ScaleGestureDetector scaleGestureDetector;
 	private final DeepLiveData<ColorPalette> colorPalette;
 	private final NonNullLiveData<Event<Integer>> snackbarMessage;
 	private int orientation = Configuration.ORIENTATION_PORTRAIT;
 	private SharedPreferences.OnSharedPreferenceChangeListener prefListener = (sharedPreferences, key) -> loadPreferences();
+	private RenderMode renderMode = RenderMode.TILES;
+	private DocumentFormat saveFormat = DocumentFormat.ETCH;
+	private final NonNullLiveData<Integer> documentProgress = new NonNullLiveData<>(-1);
+	private final ExecutorService documentExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Document Thread"));
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private DocumentTask documentTask;
+	private final Observer<DrawingLayer> renderModeObserver = l -> l.setRenderMode(renderMode);
+	private final InputCoalescer inputCoalescer = new InputCoalescer(this::drawOffsets);
+	private final Autosave autosave;
+	private final Observer<DrawingLayer> autosaveObserver;
 	
 	/**
 	 * Construct a new model given the current application.
@@ -78,6 +101,7 @@ public class DrawingModel extends AndroidViewModel {
 		layer = new DeepLiveData<>(new DrawingLayer(screenSize[0], screenSize[1]));
 		sensitivityPitch = new NonNullLiveData<>(0);
 		sensitivityRoll = new NonNullLiveData<>(0);
+		threadedRendering = new NonNullLiveData<>(false);
 		colorPalette = new DeepLiveData<>(new ColorPalette());
 		Event<Integer> e = new Event<>(0);
 		e.consume();
@@ -87,14 +111,30 @@ public class DrawingModel extends AndroidViewModel {
 		sharedPreferences = PreferenceManager.getDefaultSharedPreferences(application);
 		sharedPreferences.registerOnSharedPreferenceChangeListener(prefListener);
 		loadPreferences();
+		layer.observeForever(renderModeObserver);
+		
+		// Autosave
+		autosave = new Autosave(application.getFilesDir().toPath().resolve("autosave"), this::getPaletteColors);
+		autosaveObserver = autosave::attach;
+		recoverAutosave();
 		
 		// Interactions
-		InteractionService.getInstance().setOnRotation(this::onRotation);
+		scaleGestureDetector = new ScaleGestureDetector(getApplication(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+			@Override
+			public boolean onScale(ScaleGestureDetector detector) {
+				layer.getValue().zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+				return true;
+			}
+		});
+		InteractionService.getInstance().addScaleGestureDetector(scaleGestureDetector);
+		InteractionService.getInstance().setOnRotation((azimuth, pitch, roll) -> onRotation(azimuth, pitch, roll));
 		InteractionService.getInstance().setOnShake(this::onShake);
 		InteractionService.getInstance().addGestureDetector(new GestureDetector(getApplication(), new GestureDetector.SimpleOnGestureListener() {
 			@Override
 			public boolean onSingleTapConfirmed(MotionEvent e) {
+				if (getLayer().getValue().isPartial()) return false;
 				colorPalette.getValue().nextColor();
+				inputCoalescer.flush();
 				getLayer().getValue().setColor(colorPalette.getValue().getSelectedColor());
 				InteractionService.getInstance().vibrate(VibrationEffect.createOneShot(InteractionService.VIBRATE_SHORT, VibrationEffect.DEFAULT_AMPLITUDE));
 				return true;
@@ -113,10 +153,8 @@ public class DrawingModel extends AndroidViewModel {
 			
 			@Override
 			public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-				DrawingLayer l = layer.getValue();
-				float[] oldT = l.getTransformation();
-				float[] dist = {oldT[0] - distanceX, oldT[1] - distanceY};
-				l.setTransformation(dist);
+				if (scaleGestureDetector.isInProgress()) return true;
+				layer.getValue().pan(-distanceX, -distanceY);
 				return true;
 			}
 			
@@ -169,18 +207,63 @@ public class DrawingModel extends AndroidViewModel {
 	private void loadPreferences() {
 		sensitivityPitch.setValue(sharedPreferences.getInt("pen_sensitivity_pitch", 50));
 		sensitivityRoll.setValue(sharedPreferences.getInt("pen_sensitivity_roll", 50));
+		renderMode = RenderMode.valueOf(sharedPreferences.getString("render_mode", RenderMode.TILES.name()));
+		layer.getValue().setRenderMode(renderMode);
+		saveFormat = DocumentFormat.valueOf(sharedPreferences.getString("save_format", DocumentFormat.ETCH.name()));
+		boolean threaded = sharedPreferences.getBoolean("threaded_rendering", false);
+		if (threaded != threadedRendering.getValue()) {
+			threadedRendering.setValue(threaded);
+		}
+	}
+	
+	/**
+	 * Get the LiveData choosing whether the drawing is shown on a {@link DrawingSurfaceView} drawn by its own render
+	 * thread, rather than on a {@link DrawingView} drawn on the main thread.
+	 *
+	 * @return LiveData for using the threaded surface
+	 */
+	public NonNullLiveData<Boolean> getThreadedRendering() {
+		return threadedRendering;
+	}
+	
+	/**
+	 * Switch between the classic view and the threaded surface. The choice is saved in the preferences.
+	 *
+	 * @param threaded whether to draw on the threaded surface
+	 */
+	public void setThreadedRendering(boolean threaded) {
+		sharedPreferences.edit().putBoolean("threaded_rendering", threaded).apply();
+	}
+	
+	/**
+	 * Draw any pending rotation input, stop listening for pinch gestures, stop applying the render mode preference to
+	 * new layers, close the autosave, and cancel any running save, load or export.
+	 */
+	@Override
+	protected void onCleared() {
+		super.onCleared();
+		inputCoalescer.flush();
+		InteractionService.getInstance().removeScaleGestureDetector(scaleGestureDetector);
+		layer.removeObserver(renderModeObserver);
+		layer.removeObserver(autosaveObserver);
+		autosave.close();
+		cancelDocumentTask();
+		documentExecutor.shutdown();
 	}
 	
 	/**
-	 * Save this view as a JSON file. Will prompt for the file name
+	 * Save this view as a file in the format chosen in the preferences. Will prompt for the file name. The file is
+	 * written on a background thread from a snapshot of the layer, so drawing can continue while it is saved.
 	 *
 	 * @param context the context to save using
 	 */
 	public void save(Context context) {
-		if (layer == null) return;
+		if (layer == null || isDocumentTaskRunning()) return;
+		inputCoalescer.flush();
 		lockMovement.setValue(true);
 		//Prompt for file name
-		String jsonFileName = "JSON_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "_";
+		DocumentFormat format = saveFormat;
+		String jsonFileName = format.name() + "_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "_";
 		final EditText input = new EditText(context);
 		input.setHint("New File Name");
 		input.setInputType(InputType.TYPE_CLASS_TEXT);
@@ -188,27 +271,19 @@ public class DrawingModel extends AndroidViewModel {
 				.setTitle(R.string.action_save)
 				.setView(input)
 				.setPositiveButton("OK", (dialog, which) -> {
-					try {
-						String in = input.getText().toString();
-						JSONObject json = new JSONObject();
-						JSONObject model = layer.getValue().jsonify();
-						JSONArray colors = new JSONArray();
-						for (int color : colorPalette.getValue().getColors()) {
-							colors.put(color);
+					String in = input.getText().toString();
+					Path file = FileUtils.getPath(context, in.isEmpty() ? jsonFileName : in, format.getExtension(), Environment.DIRECTORY_DOCUMENTS);
+					ArrayList<PointStroke> snapshot = layer.getValue().snapshot();
+					int[] palette = getPaletteColors();
+					lockMovement.setValue(false);
+					Log.i(TAG, "Saving drawing. Vertex reduction: " + Math.round(layer.getValue().getVertexReduction() * 100) + "%");
+					runDocumentTask(R.string.model_save, task -> writeReplacing(file, temp -> {
+						if (format == DocumentFormat.ETCH) {
+							writeEtch(temp, snapshot, palette, task);
+						} else {
+							writeJson(temp, snapshot, palette, task);
 						}
-						json.put(JSON_MODEL, model);
-						json.put(JSON_COLORS, colors);
-						FileUtils.writeToFile(context, in.isEmpty() ? jsonFileName : in, ".json", Environment.DIRECTORY_DOCUMENTS, json.toString());
-						lockMovement.setValue(false);
-						sendSnackbarMessage(R.string.model_save);
-					} catch (IOException | JSONException e) {
-						dialog.dismiss();
-						new AlertDialog.Builder(context)
-								.setTitle(R.string.action_load)
-								.setMessage("The file does not exist, or something went wrong. Please try again.")
-								.setPositiveButton("OK", (d, w) -> lockMovement.setValue(false))
-								.show();
-					}
+					}));
 				})
 				.setNegativeButton("Cancel", (dialog, which) -> {
 					dialog.cancel();
@@ -218,10 +293,16 @@ public class DrawingModel extends AndroidViewModel {
 	}
 	
 	/**
-	 * Load this view from a JSON file.
+	 * Load this view from a file. A {@code .etch} document with the given name is preferred; otherwise a JSON file
+	 * with that name is imported. The file is read on a background thread, and replaces the drawing once it is loaded.
+	 * Drawing stays locked until then, so no edit is made to a drawing that is about to be replaced.
+	 * An indexed {@code .etch} document shows the part of the drawing in view first; see
+	 * {@link #readIndexed(Path, DrawingLayer, DocumentTask)}.
 	 * @param context the context to save using
 	 */
 	public void load(Context context) {
+		if (isDocumentTaskRunning()) return;
+		inputCoalescer.flush();
 		lockMovement.setValue(true);
 		//Prompt for file name
 		final EditText input = new EditText(context);
@@ -231,28 +312,28 @@ public class DrawingModel extends AndroidViewModel {
 				.setTitle(R.string.action_load)
 				.setView(input)
 				.setPositiveButton("OK", (dialog, which) -> {
-					try {
-						String json = FileUtils.readFromFile(context, input.getText().toString(), ".json", "", Environment.DIRECTORY_DOCUMENTS);
-						Log.i(TAG, "JSON in: " + json);
-						JSONObject root = new JSONObject(json);
-						JSONArray colors = root.getJSONArray(JSON_COLORS);
-						JSONObject model = root.getJSONObject(JSON_MODEL);
-						ArrayList<Integer> newColors = new ArrayList<>();
-						for (int i = 0; i < colors.length(); i++) {
-							newColors.add(colors.getInt(i));
+					String name = input.getText().toString();
+					Path etch = FileUtils.getPath(context, name, DocumentFormat.ETCH.getExtension(), Environment.DIRECTORY_DOCUMENTS);
+					Path json = FileUtils.getPath(context, name, DocumentFormat.JSON.getExtension(), Environment.DIRECTORY_DOCUMENTS);
+					DrawingLayer previous = layer.getValue();
+					runDocumentTask(R.string.model_load, task -> {
+						LoadedDocument loaded;
+						try {
+							if (Files.exists(etch) && EtchIndex.isIndexed(etch)) {
+								loaded = readIndexed(etch, previous, task);
+							} else {
+								loaded = Files.exists(etch) ? readEtch(etch, task) : readJson(json, task);
+							}
+						} catch (IOException | RuntimeException e) {
+							mainHandler.post(() -> lockMovement.setValue(false));
+							throw e;
 						}
-						colorPalette.getValue().setColors(newColors);
-						layer.setValue(new DrawingLayer(model));
-						lockMovement.setValue(false);
-						sendSnackbarMessage(R.string.model_load);
-					} catch (IOException | JSONException e) {
-						dialog.dismiss();
-						new AlertDialog.Builder(context)
-								.setTitle(R.string.action_load)
-								.setMessage("The file does not exist, or something went wrong. Please try again.")
-								.setPositiveButton("OK", (d, w) -> lockMovement.setValue(false))
-								.show();
-					}
+						mainHandler.post(() -> {
+							colorPalette.getValue().setColors(loaded.colors);
+							layer.setValue(loaded.layer);
+							lockMovement.setValue(false);
+						});
+					});
 				})
 				.setNegativeButton("Cancel", (dialog, which) -> {
 					dialog.cancel();
@@ -262,16 +343,16 @@ public class DrawingModel extends AndroidViewModel {
 	}
 	
 	/**
-	 * Export this view as a JPEG file.
+	 * Export this view as a PNG file. The image is streamed to the file as it is drawn, on a background thread from a
+	 * snapshot of the layer.
 	 * @param context the context to save using
-	 * @param width the width of the image to save
-	 * @param height the height of the image to save
 	 */
-	public void export(Context context, int width, int height) {
-		if (layer == null) return;
+	public void export(Context context) {
+		if (layer == null || isDocumentTaskRunning()) return;
+		inputCoalescer.flush();
 		lockMovement.setValue(true);
 		//Prompt for file name
-		String jsonFileName = "JPEG_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "_";
+		String jsonFileName = "PNG_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "_";
 		final EditText input = new EditText(context);
 		input.setHint("Image Name");
 		input.setInputType(InputType.TYPE_CLASS_TEXT);
@@ -279,32 +360,27 @@ public class DrawingModel extends AndroidViewModel {
 				.setTitle(R.string.action_export)
 				.setView(input)
 				.setPositiveButton("OK", (dialog, which) -> {
-					try {
-						String in = input.getText().toString();
-						//Load Bitmap
-						Bitmap b = layer.getValue().drawForExport();
-						ByteArrayOutputStream fos = new ByteArrayOutputStream();
-						b.compress(Bitmap.CompressFormat.JPEG, 95, fos);
-						fos.flush();
-						byte[] bytes = fos.toByteArray();
-						fos.close();
-						
-						//Write to file
-						Path image = FileUtils.writeToFile(context, in.isEmpty() ? jsonFileName : in, ".jpeg", Environment.DIRECTORY_PICTURES, bytes);
-						MediaStore.Images.Media.insertImage(context.getContentResolver(),
+					String in = input.getText().toString();
+					Path image = FileUtils.getPath(context, in.isEmpty() ? jsonFileName : in, ".png", Environment.DIRECTORY_PICTURES);
+					ContentResolver resolver = context.getContentResolver();
+					ArrayList<PointStroke> snapshot = layer.getValue().snapshot();
+					String nickname = layer.getValue().getNickname();
+					lockMovement.setValue(false);
+					runDocumentTask(R.string.model_export, task -> {
+						//Build the paths of the copy here rather than on the main thread
+						DrawingLayer drawing = new DrawingLayer(snapshot);
+						drawing.setNickname(nickname);
+						//Stream the drawing to file
+						writeReplacing(image, temp -> {
+							try (OutputStream fos = new BufferedOutputStream(Files.newOutputStream(temp))) {
+								drawing.exportPng(fos, task);
+							}
+						});
+						MediaStore.Images.Media.insertImage(resolver,
 								image.toString(),
 								image.getFileName().toString(),
 								image.getFileName().toString());
-						lockMovement.setValue(false);
-						sendSnackbarMessage(R.string.model_export);
-					} catch (IOException e) {
-						dialog.dismiss();
-						new AlertDialog.Builder(context)
-								.setTitle(R.string.action_load)
-								.setMessage("The file does not exist, or something went wrong. Please try again.")
-								.setPositiveButton("OK", (d, w) -> lockMovement.setValue(false))
-								.show();
-					}
+					});
 				})
 				.setNegativeButton("Cancel", (dialog, which) -> {
 					dialog.cancel();
@@ -313,6 +389,328 @@ public class DrawingModel extends AndroidViewModel {
 				.show();
 	}
 	
+	/**
+	 * Recover the drawing of the last session from the autosave, if the app was closed or crashed with one. Drawing is
+	 * locked while it is loaded on the document thread. The layer is attached to the autosave once recovery is done,
+	 * so that its first snapshot does not replace the one being recovered.
+	 */
+	private void recoverAutosave() {
+		lockMovement.setValue(true);
+		documentExecutor.execute(() -> {
+			Autosave.Recovery recovered = null;
+			try {
+				recovered = autosave.recover();
+			} catch (IOException | RuntimeException e) {
+				Log.e(TAG, "Could not recover the autosave", e);
+			}
+			Autosave.Recovery result = recovered;
+			mainHandler.post(() -> {
+				if (result != null) {
+					ArrayList<Integer> colors = new ArrayList<>();
+					for (int color : result.getPalette()) {
+						colors.add(color);
+					}
+					colorPalette.getValue().setColors(colors);
+					layer.setValue(result.getLayer());
+					sendSnackbarMessage(R.string.autosave_recovered);
+				}
+				lockMovement.setValue(false);
+				layer.observeForever(autosaveObserver);
+			});
+		});
+	}
+	
+	/**
+	 * Get the LiveData for the progress of the running save, load or export.
+	 *
+	 * @return LiveData for the percentage done, or -1 when nothing is running
+	 */
+	public NonNullLiveData<Integer> getDocumentProgress() {
+		return documentProgress;
+	}
+	
+	/**
+	 * Cancel the running save, load or export, if there is one. A partly written file is deleted, leaving any earlier
+	 * file of the same name in place, and a partly loaded drawing is discarded.
+	 */
+	public void cancelDocumentTask() {
+		DocumentTask task = documentTask;
+		if (task != null) {
+			task.cancelled = true;
+		}
+	}
+	
+	/**
+	 * Check whether a save, load or export is already running, telling the user to wait if one is.
+	 *
+	 * @return whether a task is running
+	 */
+	private boolean isDocumentTaskRunning() {
+		if (documentTask == null) return false;
+		sendSnackbarMessage(R.string.document_busy);
+		return true;
+	}
+	
+	/**
+	 * Run a save, load or export on the document thread. Its progress is published through
+	 * {@link #getDocumentProgress()}, and a snackbar message is shown once it finishes, fails or is cancelled.
+	 *
+	 * @param successMessage the message to show if the task succeeds
+	 * @param work           the work to run
+	 */
+	private void runDocumentTask(@StringRes int successMessage, DocumentWork work) {
+		DocumentTask task = new DocumentTask();
+		documentTask = task;
+		documentProgress.setValue(0);
+		documentExecutor.execute(() -> {
+			int message;
+			try {
+				work.run(task);
+				message = successMessage;
+			} catch (InterruptedIOException e) {
+				message = R.string.document_cancelled;
+			} catch (IOException | RuntimeException e) {
+				Log.e(TAG, "Document task failed", e);
+				message = R.string.document_failed;
+			}
+			int result = message;
+			mainHandler.post(() -> {
+				documentTask = null;
+				documentProgress.setValue(-1);
+				sendSnackbarMessage(result);
+			});
+		});
+	}
+	
+	/**
+	 * Get the colors of the color palette.
+	 *
+	 * @return the palette colors
+	 */
+	private int[] getPaletteColors() {
+		ArrayList<Integer> colors = colorPalette.getValue().getColors();
+		int[] palette = new int[colors.size()];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = colors.get(i);
+		}
+		return palette;
+	}
+	
+	/**
+	 * Write a file through a temporary file beside it, which replaces the file only once it is completely written. If
+	 * the write fails or is cancelled, only the temporary file is deleted, so an earlier file of the same name is kept.
+	 *
+	 * @param file  the file to write
+	 * @param write the writer of the file's contents, given the temporary file to write to
+	 * @throws IOException error writing the file, or the write was cancelled
+	 */
+	private static void writeReplacing(Path file, FileWrite write) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+		try {
+			write.to(temp);
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Write a drawing and a color palette to a binary {@code .etch} document.
+	 *
+	 * @param file     the file to write to
+	 * @param drawing  the strokes of the drawing to write
+	 * @param palette  the palette colors to write
+	 * @param progress the receiver of progress reports
+	 * @throws IOException error writing the file, or the write was cancelled
+	 */
+	private static void writeEtch(Path file, List<PointStroke> drawing, int[] palette, Progress progress) throws IOException {
+		try (EtchWriter writer = new EtchWriter(Files.newOutputStream(file), palette, drawing.size())) {
+			DrawingLayer.write(writer, drawing, progress);
+		}
+	}
+	
+	/**
+	 * Write a drawing and a color palette to a JSON file. The JSON is streamed to the file as it is produced.
+	 *
+	 * @param file     the file to write to
+	 * @param drawing  the strokes of the drawing to write
+	 * @param palette  the palette colors to write
+	 * @param progress the receiver of progress reports
+	 * @throws IOException error writing the file, or the write was cancelled
+	 */
+	private static void writeJson(Path file, List<PointStroke> drawing, int[] palette, Progress progress) throws IOException {
+		try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(file))) {
+			writer.beginObject();
+			writer.name(JSON_MODEL);
+			DrawingLayer.write(writer, drawing, progress);
+			writer.name(JSON_COLORS);
+			writer.beginArray();
+			for (int color : palette) {
+				writer.value(color);
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+	}
+	
+	/**
+	 * Read a drawing and a color palette from a binary {@code .etch} document.
+	 *
+	 * @param file     the file to read from
+	 * @param progress the receiver of progress reports
+	 * @return the loaded drawing and palette
+	 * @throws IOException error reading the file, it is not a valid document, or the read was cancelled
+	 */
+	private static LoadedDocument readEtch(Path file, Progress progress) throws IOException {
+		InputStream in = new ProgressInputStream(Files.newInputStream(file), Files.size(file), progress);
+		try (EtchReader reader = new EtchReader(in)) {
+			DrawingLayer loaded = new DrawingLayer(reader);
+			ArrayList<Integer> colors = new ArrayList<>();
+			for (int color : reader.getPalette()) {
+				colors.add(color);
+			}
+			return new LoadedDocument(loaded, colors);
+		}
+	}
+	
+	/**
+	 * Read a drawing and a color palette from an indexed {@code .etch} document. The document is memory-mapped, and the
+	 * chunks in the top left screen of the drawing, where a loaded drawing is first shown, are decoded first and shown
+	 * straight away as a {@link DrawingLayer#preview(EtchIndex, RectF) preview}, while drawing stays locked. If reading
+	 * the rest of the document fails, the previous drawing is shown again.
+	 *
+	 * @param file     the file to read from
+	 * @param previous the drawing shown before the load, restored if it fails
+	 * @param task     the running task, which receives progress and may cancel the read
+	 * @return the loaded drawing and palette
+	 * @throws IOException error reading the file, it is not a valid document, or the read was cancelled
+	 */
+	private LoadedDocument readIndexed(Path file, DrawingLayer previous, DocumentTask task) throws IOException {
+		try (EtchIndex index = new EtchIndex(file)) {
+			DisplayMetrics metrics = Resources.getSystem().getDisplayMetrics();
+			DrawingLayer preview = DrawingLayer.preview(index, new RectF(0, 0, metrics.widthPixels, metrics.heightPixels));
+			mainHandler.post(() -> layer.setValue(preview));
+			DrawingLayer loaded;
+			try {
+				loaded = new DrawingLayer(index, task);
+			} catch (IOException | RuntimeException e) {
+				mainHandler.post(() -> layer.setValue(previous));
+				throw e;
+			}
+			ArrayList<Integer> colors = new ArrayList<>();
+			for (int color : index.getPalette()) {
+				colors.add(color);
+			}
+			return new LoadedDocument(loaded, colors);
+		}
+	}
+	
+	/**
+	 * Read a drawing and a color palette from a saved JSON file. The file is read as a stream, so the JSON is never
+	 * held in memory as a whole.
+	 *
+	 * @param file     the file to read from
+	 * @param progress the receiver of progress reports
+	 * @return the loaded drawing and palette
+	 * @throws IOException error reading the file, it is not a valid drawing, or the read was cancelled
+	 */
+	private static LoadedDocument readJson(Path file, Progress progress) throws IOException {
+		DrawingLayer loaded = null;
+		ArrayList<Integer> colors = new ArrayList<>();
+		InputStream in = new ProgressInputStream(Files.newInputStream(file), Files.size(file), progress);
+		try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case JSON_MODEL:
+						loaded = new DrawingLayer(reader);
+						break;
+					case JSON_COLORS:
+						reader.beginArray();
+						while (reader.hasNext()) {
+							colors.add(reader.nextInt());
+						}
+						reader.endArray();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IllegalStateException | NumberFormatException e) {
+			throw new IOException("Not a valid drawing: " + file.getFileName(), e);
+		}
+		if (loaded == null) {
+			throw new IOException("No drawing in " + file.getFileName());
+		}
+		return new LoadedDocument(loaded, colors);
+	}
+	
+	/**
+	 * A save, load or export to run on the document thread.
+	 */
+	@FunctionalInterface
+	private interface DocumentWork {
+		
+		/**
+		 * Do the work, reporting progress to the task.
+		 *
+		 * @param task the running task, which receives progress and may cancel the work
+		 * @throws IOException error reading or writing a file, or the task was cancelled
+		 */
+		void run(DocumentTask task) throws IOException;
+	}
+	
+	/**
+	 * The contents of a file written by {@link #writeReplacing(Path, FileWrite)}.
+	 */
+	@FunctionalInterface
+	private interface FileWrite {
+		
+		/**
+		 * Write the contents to a file.
+		 *
+		 * @param file the file to write to
+		 * @throws IOException error writing the file, or the write was cancelled
+		 */
+		void to(Path file) throws IOException;
+	}
+	
+	/**
+	 * A running save, load or export. Progress reports are published as a percentage through
+	 * {@link #getDocumentProgress()}; once the task is cancelled, the next report stops the work.
+	 */
+	private class DocumentTask implements Progress {
+		private volatile boolean cancelled = false;
+		private int percent = 0;
+		
+		@Override
+		public void update(long done, long total) throws InterruptedIOException {
+			if (cancelled) {
+				throw new InterruptedIOException("Cancelled");
+			}
+			int p = total > 0 ? (int) Math.min(100, done * 100 / total) : 0;
+			if (p != percent) {
+				percent = p;
+				documentProgress.postValue(p);
+			}
+		}
+	}
+	
+	/**
+	 * A drawing and a color palette loaded from a file.
+	 */
+	private static class LoadedDocument {
+		final DrawingLayer layer;
+		final ArrayList<Integer> colors;
+		
+		LoadedDocument(DrawingLayer layer, ArrayList<Integer> colors) {
+			this.layer = layer;
+			this.colors = colors;
+		}
+	}
+	
 	/**
 	 * Get the LiveData for the color palette.
 	 *
@@ -321,7 +719,7 @@ public class DrawingModel extends AndroidViewModel {
 	public DeepLiveData<ColorPalette> getColorPalette() {
 		return colorPalette;
 	}
-
+	
 	/**
 	 * Get the LiveData for the drawing layer.
 	 *
@@ -332,24 +730,73 @@ public class DrawingModel extends AndroidViewModel {
 	}
 	
 	/**
-	 * Calculates the action to take when the device is rotated.
+	 * Calculates the action to take when the device is rotated. See {@link #onRotation(float, float, float)}.
 	 *
 	 * @param vals {@code [z,y,x]} Euler angles of rotation from the start position
 	 */
 	public void onRotation(float[] vals) {
+		onRotation(vals[0], vals[1], vals[2]);
+	}
+	
+	/**
+	 * Calculates the action to take when the device is rotated, given the angles as primitives. The pen offset is
+	 * drawn on the next display frame, together with any other offsets received before it.
+	 *
+	 * @param azimuth the rotation around the z axis from the start position
+	 * @param pitch   the rotation around the x axis from the start position
+	 * @param roll    the rotation around the y axis from the start position
+	 */
+	public void onRotation(float azimuth, float pitch, float roll) {
 		if (lockMovement.getValue() || layer == null) return;
-		float xOffset = vals[2] * sensitivityPitch.getValue();
-		float yOffset = -1 * vals[1] * sensitivityRoll.getValue();
+		float xOffset = roll * sensitivityPitch.getValue();
+		float yOffset = -1 * pitch * sensitivityRoll.getValue();
 		if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
 			float temp = xOffset;
 			xOffset = -yOffset;
 			yOffset = temp;
 		}
-		layer.getValue().lineToByOffset(xOffset, yOffset);
+		inputCoalescer.add(xOffset, yOffset);
+	}
+	
+	/**
+	 * Continue the current line by a batch of pen offsets.
+	 *
+	 * @param offsets the x and y offsets, interleaved
+	 * @param count   the number of offsets
+	 */
+	private void drawOffsets(float[] offsets, int count) {
+		layer.getValue().lineToByOffsets(offsets, count);
+	}
+	
+	/**
+	 * Clear the drawing and center the view on the cursor.
+	 */
+	public void clear() {
+		inputCoalescer.flush();
+		layer.getValue().clear();
+		layer.getValue().centerOnCursor();
+	}
+	
+	/**
+	 * Undo the last edits to the drawing, back to the previous checkpoint of its history.
+	 */
+	public void undo() {
+		inputCoalescer.flush();
+		layer.getValue().undo();
+	}
+	
+	/**
+	 * Redo the edits to the drawing up to the next checkpoint of its history.
+	 */
+	public void redo() {
+		inputCoalescer.flush();
+		layer.getValue().redo();
 	}
 	
 	/**
-	 * Determines whether to undo an action based on the number of shakes and prior shakes.
+	 * Determines whether to undo an action based on the number of shakes and prior shakes. Each undo steps back to
+	 * the previous checkpoint of the layer's edit journal, so it does not depend on the size of the drawing. Shakes
+	 * are ignored while a partial preview of a loading document is shown.
 	 *
 	 * @param shakeCount number of shakes
 	 */
@@ -359,14 +806,15 @@ public class DrawingModel extends AndroidViewModel {
 			shakeLock.setValue(false);
 		}
 		
-		if (shakeCount >= 2 && !shakeLock.getValue()) {
-			layer.getValue().undo();
+		if (shakeCount >= 2 && !shakeLock.getValue() && !layer.getValue().isPartial()) {
+			undo();
 			shakeLock.setValue(true);
 			InteractionService.getInstance().vibrate(VibrationEffect.createOneShot(125, VibrationEffect.DEFAULT_AMPLITUDE));
 		}
 	}
 	
 	public void setPaintSize(float size) {
+		inputCoalescer.flush();
 		layer.getValue().setPaintSize(size);
 	}
 }
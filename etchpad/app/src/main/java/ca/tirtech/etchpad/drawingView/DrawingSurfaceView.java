@@ -0,0 +1,237 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A surface to draw the user's drawing on from a dedicated render thread, so frames are not dropped while the main
+ * thread is busy with dialogs, snackbars or navigation. Driven by a {@link DrawingModel}.
+ * <p/>
+ * The layer is still only touched on the main thread. While the surface exists, the layer keeps a
+ * {@link LayerMirror} up to date, and each change of the layer publishes a frame to it. The render thread sleeps
+ * until a frame arrives, drains the mirror and redraws only the damaged area of the surface.
+ */
+public class DrawingSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+	
+	private final Rect dirty = new Rect();
+	private DrawingModel model;
+	private DrawingLayer attachedLayer;
+	private RenderThread renderThread;
+	
+	/**
+	 * Create a surface.
+	 *
+	 * @param context the context to use
+	 */
+	public DrawingSurfaceView(Context context) {
+		super(context);
+		getHolder().addCallback(this);
+		initModel(getActivity(context));
+	}
+	
+	/**
+	 * Create a surface.
+	 *
+	 * @param context the context to use
+	 * @param attrs   the view attributes to use
+	 */
+	public DrawingSurfaceView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		getHolder().addCallback(this);
+		initModel(getActivity(context));
+	}
+	
+	private AppCompatActivity getActivity(Context context) {
+		while (context instanceof ContextWrapper) {
+			if (context instanceof AppCompatActivity) {
+				return (AppCompatActivity) context;
+			}
+			context = ((ContextWrapper) context).getBaseContext();
+		}
+		return null;
+	}
+	
+	private void initModel(AppCompatActivity activity) {
+		if (isInEditMode()) {
+			return;
+		}
+		model = new ViewModelProvider(activity, ViewModelProvider.AndroidViewModelFactory.getInstance(activity.getApplication())).get(DrawingModel.class);
+		model.getLayer().observe(activity, this::publishLayer);
+	}
+	
+	@Override
+	public void surfaceCreated(SurfaceHolder holder) {
+		if (isInEditMode()) {
+			return;
+		}
+		renderThread = new RenderThread(holder);
+		renderThread.start();
+		publishLayer(model.getLayer().getValue());
+	}
+	
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		if (renderThread != null) {
+			renderThread.requestRedraw();
+		}
+	}
+	
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		if (renderThread == null) {
+			return;
+		}
+		renderThread.quit();
+		renderThread = null;
+		if (attachedLayer != null) {
+			attachedLayer.setMirror(null);
+			attachedLayer = null;
+		}
+	}
+	
+	/**
+	 * Send the area of the layer that changed to the render thread. If the model holds a new layer, a new mirror is
+	 * attached to it first and the whole surface is redrawn. Does nothing while there is no surface.
+	 *
+	 * @param layer the layer that changed
+	 */
+	private void publishLayer(DrawingLayer layer) {
+		if (renderThread == null) {
+			return;
+		}
+		if (layer != attachedLayer) {
+			if (attachedLayer != null) {
+				attachedLayer.setMirror(null);
+			}
+			LayerMirror mirror = new LayerMirror(renderThread);
+			layer.setMirror(mirror);
+			renderThread.setMirror(mirror);
+			attachedLayer = layer;
+		}
+		if (!layer.consumeDamage(dirty)) {
+			layer.publishFrame(null);
+		} else if (!dirty.isEmpty()) {
+			layer.publishFrame(dirty);
+		}
+	}
+	
+	/**
+	 * Get the model that drives this surface.
+	 *
+	 * @return the model
+	 */
+	public DrawingModel getModel() {
+		return model;
+	}
+	
+	/**
+	 * The thread that draws the mirror onto the surface.
+	 */
+	private static class RenderThread extends Thread {
+		
+		private final SurfaceHolder holder;
+		private final Rect dirty = new Rect();
+		private final AtomicBoolean redraw = new AtomicBoolean(true);
+		private volatile LayerMirror mirror;
+		private volatile boolean running = true;
+		
+		/**
+		 * Create a render thread for a surface.
+		 *
+		 * @param holder the holder of the surface to draw on
+		 */
+		RenderThread(SurfaceHolder holder) {
+			super("Drawing Render Thread");
+			this.holder = holder;
+		}
+		
+		/**
+		 * Replace the mirror being drawn, and redraw the whole surface.
+		 *
+		 * @param mirror the mirror to draw
+		 */
+		void setMirror(LayerMirror mirror) {
+			this.mirror = mirror;
+			requestRedraw();
+		}
+		
+		/**
+		 * Redraw the whole surface as soon as possible.
+		 */
+		void requestRedraw() {
+			redraw.set(true);
+			LockSupport.unpark(this);
+		}
+		
+		/**
+		 * Stop the thread and wait for it to finish its current frame.
+		 */
+		void quit() {
+			running = false;
+			LockSupport.unpark(this);
+			boolean interrupted = false;
+			while (isAlive()) {
+				try {
+					join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		@Override
+		public void run() {
+			LayerMirror drawn = null;
+			while (running) {
+				LayerMirror current = mirror;
+				if (current != drawn) {
+					if (drawn != null) {
+						drawn.release();
+					}
+					drawn = current;
+				}
+				boolean changed = current != null && current.drain();
+				boolean full = redraw.getAndSet(false);
+				if (!changed && !full) {
+					LockSupport.park(this);
+					continue;
+				}
+				if (current != null && !current.consumeDamage(dirty)) {
+					full = true;
+				}
+				if (!full && dirty.isEmpty()) {
+					continue;
+				}
+				Canvas canvas = holder.lockCanvas(full ? null : dirty);
+				if (canvas == null) {
+					continue;
+				}
+				try {
+					canvas.drawColor(Color.WHITE);
+					if (current != null) {
+						current.draw(canvas);
+					}
+				} finally {
+					holder.unlockCanvasAndPost(canvas);
+				}
+			}
+			if (drawn != null) {
+				drawn.release();
+			}
+		}
+	}
+}
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.ContextWrapper;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 import androidx.appcompat.app.AppCompatActivity;
@@ -14,10 +15,13 @@ import com.google.android.material.snackbar.Snackbar;
 
 /**
  * The view to draw the user's drawing on. Driven by a {@link DrawingModel}
+ * <p/>
+ * Only the area of the view changed by each mutation of the layer is invalidated, as reported by
+ * {@link DrawingLayer#consumeDamage(Rect)}.
  */
 public class DrawingView extends View {
 	
-	private static final String TAG = "Drawing View";
+	private final Rect dirty = new Rect();
 	private DrawingModel model;
 	private final Observer<Event<Integer>> snackObserver = event -> {
 		if (isAttachedToWindow() && !event.isConsumed()) {
@@ -62,7 +66,7 @@ public class DrawingView extends View {
 		}
 		model = new ViewModelProvider(activity, ViewModelProvider.AndroidViewModelFactory.getInstance(activity.getApplication())).get(DrawingModel.class);
 		model.setOrientation(getResources().getConfiguration().orientation);
-		model.getLayer().observe(activity, layer -> invalidate());
+		model.getLayer().observe(activity, this::invalidateLayer);
 		model.getSnackbarMessage().observe(activity, snackObserver);
 	}
 	
@@ -73,10 +77,27 @@ public class DrawingView extends View {
 		if (isInEditMode()) {
 			return;
 		}
-		model.getLayer().getValue();
 		model.getLayer().getValue().draw(canvas);
 	}
 	
+	/**
+	 * Invalidate the area of the view changed in the layer, or the whole view if the layer needs a full redraw. The
+	 * damage is left for the {@link DrawingSurfaceView} while this view is hidden.
+	 *
+	 * @param layer the layer that changed
+	 */
+	@SuppressWarnings ("deprecation")
+	private void invalidateLayer(DrawingLayer layer) {
+		if (getVisibility() != VISIBLE) {
+			return;
+		}
+		if (!layer.consumeDamage(dirty)) {
+			invalidate();
+		} else if (!dirty.isEmpty()) {
+			invalidate(dirty);
+		}
+	}
+	
 	/**
 	 * Get the model that drives this view.
 	 *
@@ -0,0 +1,84 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.view.Choreographer;
+
+/**
+ * Collects pen offsets between display frames and hands them over as a single batch on the next vsync. Rotation
+ * events can arrive several times per frame; batching them means the layer is changed, and its observers are
+ * notified, at most once per frame, while every offset is still drawn.
+ * <p/>
+ * Must only be used from the main thread. Anything that changes the layer in a way that depends on the order of
+ * edits, such as changing color or undoing, should {@link #flush()} first so pending offsets are drawn before it.
+ */
+public class InputCoalescer implements Choreographer.FrameCallback {
+	
+	private final BatchListener listener;
+	private float[] offsets = new float[64];
+	private int count = 0;
+	private boolean scheduled = false;
+	
+	/**
+	 * Create a coalescer.
+	 *
+	 * @param listener the listener to give each batch of offsets to
+	 */
+	public InputCoalescer(BatchListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Add an offset to the current batch, and make sure the batch is handed over on the next frame.
+	 *
+	 * @param dx the x offset
+	 * @param dy the y offset
+	 */
+	public void add(float dx, float dy) {
+		if (count * 2 == offsets.length) {
+			float[] grown = new float[offsets.length * 2];
+			System.arraycopy(offsets, 0, grown, 0, offsets.length);
+			offsets = grown;
+		}
+		offsets[count * 2] = dx;
+		offsets[count * 2 + 1] = dy;
+		count++;
+		if (!scheduled) {
+			scheduled = true;
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+	}
+	
+	/**
+	 * Hand over the current batch immediately, without waiting for the next frame.
+	 */
+	public void flush() {
+		if (scheduled) {
+			Choreographer.getInstance().removeFrameCallback(this);
+			scheduled = false;
+		}
+		if (count > 0) {
+			int batch = count;
+			count = 0;
+			listener.accept(offsets, batch);
+		}
+	}
+	
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		scheduled = false;
+		flush();
+	}
+	
+	/**
+	 * Listener for batches of offsets.
+	 */
+	@FunctionalInterface
+	public interface BatchListener {
+		/**
+		 * Handle a batch of offsets. The array is reused for later batches, so it must not be kept.
+		 *
+		 * @param offsets the x and y offsets, interleaved
+		 * @param count   the number of offsets
+		 */
+		void accept(float[] offsets, int count);
+	}
+}
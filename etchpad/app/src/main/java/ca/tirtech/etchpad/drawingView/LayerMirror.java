@@ -0,0 +1,407 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A copy of what a {@link DrawingLayer} draws, kept up to date from another thread. The layer is only ever touched on
+ * the main thread; it sends its stroke mutations to the mirror through a lock-free queue, and a render thread drains
+ * the queue and draws the mirror without waiting on the main thread.
+ * <p/>
+ * The layer sends the vertices of each chunk as it is committed, the number of chunks left when committed chunks are
+ * removed, and a frame with the vertices of the tail chunk, the cursor, the transformation and the damaged area each
+ * time it changes. Only vertex arrays are copied on the main thread; the {@link Path}s are built on the render thread,
+ * so nothing the mirror holds is shared with the layer.
+ * <p/>
+ * The render thread keeps the committed chunks the way the layer does: in a {@link QuadTree} path index and a
+ * {@link TileCache} rasterized on the render thread, so a frame blits tiles instead of stroking every chunk. If the
+ * area drawn needs more tiles than the budget allows, the chunks the path index finds in the clip are stroked.
+ * <p/>
+ * Frames are not queued. Each frame is written into one of {@link #FRAMES} frame objects allocated with the mirror,
+ * and handed over through {@link #pending}; a frame the render thread has not taken yet is merged into the next one,
+ * and taken frames are handed back through the {@link #free} slots. The main thread holds one frame and the render
+ * thread at most one, so of the other two, one is always either pending or free when the main thread needs a frame,
+ * and a free slot is always empty when the render thread hands one back. Sending a frame therefore allocates nothing,
+ * however often it is sent. Each frame carries the number of mutations sent before it, so the render thread applies
+ * exactly the mutations the frame was drawn with.
+ * <p/>
+ * Overlays are mirrors of other layers drawn on top of this one, such as the remote layer of a
+ * {@link ca.tirtech.etchpad.drawingView.network.NetworkedDrawingLayer}. They share the render thread of their parent
+ * and are drained and drawn with it.
+ */
+public class LayerMirror {
+	
+	private static final byte COMMIT = 0;
+	private static final byte UNCOMMIT = 1;
+	private static final byte RESET = 2;
+	private static final long TILE_MEMORY_BUDGET = 16 * 1024 * 1024;
+	private static final int FRAMES = 3;
+	private final ConcurrentLinkedQueue<Mutation> mutations = new ConcurrentLinkedQueue<>();
+	private final AtomicReference<Frame> pending = new AtomicReference<>();
+	private final AtomicReferenceArray<Frame> free = new AtomicReferenceArray<>(FRAMES - 1);
+	private final Thread consumer;
+	private final ArrayList<LayerMirror> overlays = new ArrayList<>();
+	// Owned by the main thread
+	private Frame spare = new Frame();
+	private long sent = 0;
+	// Owned by the render thread
+	private final ArrayList<MirrorChunk> chunks = new ArrayList<>();
+	private final ArrayList<MirrorChunk> recycled = new ArrayList<>();
+	private final QuadTree index = new QuadTree();
+	private final TileCache tileCache = new TileCache(TILE_MEMORY_BUDGET);
+	private final RectF removed = new RectF();
+	private final Rect clip = new Rect();
+	private final Rect damage = new Rect();
+	private boolean fullDamage = true;
+	private final Path tail = new Path();
+	private Paint paint;
+	private String nickname = "";
+	private float x;
+	private float y;
+	private float tx;
+	private float ty;
+	private float scale = 1f;
+	
+	/**
+	 * Create an empty mirror.
+	 *
+	 * @param consumer the render thread that drains and draws the mirror, woken up each time a frame is sent
+	 */
+	public LayerMirror(Thread consumer) {
+		this.consumer = consumer;
+		for (int i = 0; i < free.length(); i++) {
+			free.set(i, new Frame());
+		}
+	}
+	
+	/**
+	 * Create a mirror of another layer, drawn on top of this one by the same render thread. Overlays must be created
+	 * before the mirror is handed to the render thread.
+	 *
+	 * @return the new overlay
+	 */
+	public LayerMirror createOverlay() {
+		LayerMirror overlay = new LayerMirror(consumer);
+		overlays.add(overlay);
+		return overlay;
+	}
+	
+	/**
+	 * Send a committed chunk to the mirror. Called on the main thread; the vertices are copied.
+	 *
+	 * @param points the vertices of the chunk
+	 * @param paint  the paint of the chunk, which must not be modified
+	 * @param bounds the stroked bounds of the chunk, in layer coordinates
+	 */
+	void commit(PointBuffer points, Paint paint, RectF bounds) {
+		Mutation m = new Mutation(COMMIT);
+		m.points = Arrays.copyOf(points.getRawPoints(), points.size() * 2);
+		m.paint = paint;
+		m.bounds = new RectF(bounds);
+		send(m);
+	}
+	
+	/**
+	 * Remove committed chunks from the top of the mirror. Called on the main thread.
+	 *
+	 * @param committed the number of committed chunks remaining
+	 */
+	void uncommit(int committed) {
+		Mutation m = new Mutation(UNCOMMIT);
+		m.committed = committed;
+		send(m);
+	}
+	
+	/**
+	 * Remove every committed chunk from the mirror. Called on the main thread.
+	 */
+	void reset() {
+		send(new Mutation(RESET));
+	}
+	
+	/**
+	 * Send the current state of the layer's head and the area it changed, and wake the render thread. Called on the
+	 * main thread; the tail vertices are copied into a recycled frame.
+	 *
+	 * @param tail           the vertices of the tail chunk
+	 * @param paint          the paint of the current path, which must not be modified
+	 * @param x              the x position of the cursor
+	 * @param y              the y position of the cursor
+	 * @param nickname       the nickname drawn above the cursor
+	 * @param transformation the transformation of the layer
+	 * @param scale          the scale of the layer
+	 * @param dirty          the changed area in view coordinates, or null if the whole view changed
+	 */
+	void frame(PointBuffer tail, Paint paint, float x, float y, String nickname, float[] transformation, float scale, Rect dirty) {
+		Frame f = spare;
+		f.points.copyFrom(tail);
+		f.paint = paint;
+		f.x = x;
+		f.y = y;
+		f.nickname = nickname;
+		f.tx = transformation[0];
+		f.ty = transformation[1];
+		f.scale = scale;
+		f.sequence = sent;
+		f.fullDamage = dirty == null;
+		if (dirty == null) {
+			f.damage.setEmpty();
+		} else {
+			f.damage.set(dirty);
+		}
+		Frame unread = pending.getAndSet(null);
+		if (unread != null) {
+			f.fullDamage |= unread.fullDamage;
+			f.damage.union(unread.damage);
+		}
+		pending.set(f);
+		if (unread != null) {
+			spare = unread;
+		} else {
+			for (int i = 0; spare == f; i++) {
+				Frame reclaimed = free.getAndSet(i, null);
+				if (reclaimed != null) {
+					spare = reclaimed;
+				}
+			}
+		}
+		LockSupport.unpark(consumer);
+	}
+	
+	/**
+	 * Apply the latest frame and the mutations sent before it, including those sent to overlays. Called on the render
+	 * thread.
+	 *
+	 * @return whether any frames were received
+	 */
+	public boolean drain() {
+		boolean changed = false;
+		Frame f = pending.getAndSet(null);
+		if (f != null) {
+			Mutation m;
+			while ((m = mutations.peek()) != null && m.sequence <= f.sequence) {
+				mutations.poll();
+				apply(m);
+			}
+			float[] raw = f.points.getRawPoints();
+			tail.rewind();
+			tail.moveTo(raw[0], raw[1]);
+			for (int i = 1; i < f.points.size(); i++) {
+				tail.lineTo(raw[i * 2], raw[i * 2 + 1]);
+			}
+			paint = f.paint;
+			x = f.x;
+			y = f.y;
+			nickname = f.nickname;
+			tx = f.tx;
+			ty = f.ty;
+			scale = f.scale;
+			if (f.fullDamage) {
+				fullDamage = true;
+			} else {
+				damage.union(f.damage);
+			}
+			for (int i = 0; !free.compareAndSet(i, null, f); i++) ;
+			changed = true;
+		}
+		for (int i = 0; i < overlays.size(); i++) {
+			LayerMirror overlay = overlays.get(i);
+			if (overlay.drain()) {
+				changed = true;
+				fullDamage |= overlay.fullDamage;
+				damage.union(overlay.damage);
+				overlay.fullDamage = false;
+				overlay.damage.setEmpty();
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Take the area of the view changed by the frames drained since damage was last consumed. Called on the render
+	 * thread.
+	 *
+	 * @param out the rectangle to write the changed area into, in view coordinates; empty if nothing changed
+	 * @return false if the whole view must be redrawn, in which case {@code out} is empty
+	 * @see DrawingLayer#consumeDamage(Rect)
+	 */
+	public boolean consumeDamage(Rect out) {
+		boolean partial = !fullDamage;
+		if (partial) {
+			out.set(damage);
+		} else {
+			out.setEmpty();
+		}
+		fullDamage = false;
+		damage.setEmpty();
+		return partial;
+	}
+	
+	/**
+	 * Draw the mirror and its overlays. Committed chunks are blitted from the tile cache, or stroked if the clip needs
+	 * more tiles than the budget allows; either way only the area within the canvas' clip is drawn. Called on the
+	 * render thread.
+	 *
+	 * @param canvas the canvas to draw on
+	 */
+	public void draw(Canvas canvas) {
+		if (paint != null) {
+			canvas.save();
+			canvas.translate(tx, ty);
+			canvas.scale(scale, scale);
+			if (!tileCache.draw(canvas, chunks, index, chunks.size(), scale)) {
+				canvas.getClipBounds(clip);
+				int count = index.query(clip.left, clip.top, clip.right, clip.bottom);
+				int[] visible = index.getResults();
+				for (int i = 0; i < count; i++) {
+					MirrorChunk chunk = chunks.get(visible[i]);
+					canvas.drawPath(chunk.path, chunk.paint);
+				}
+			}
+			DrawingLayer.drawHead(canvas, tail, paint, x, y, nickname);
+			canvas.restore();
+		}
+		for (int i = 0; i < overlays.size(); i++) {
+			overlays.get(i).draw(canvas);
+		}
+	}
+	
+	/**
+	 * Release the tile bitmaps of the mirror and its overlays, once the mirror is no longer drawn. Called on the render
+	 * thread.
+	 */
+	public void release() {
+		tileCache.release();
+		for (int i = 0; i < overlays.size(); i++) {
+			overlays.get(i).release();
+		}
+	}
+	
+	/**
+	 * Queue a mutation, numbering it so frames know which mutations they were drawn with. Called on the main thread.
+	 *
+	 * @param m the mutation to send
+	 */
+	private void send(Mutation m) {
+		m.sequence = ++sent;
+		mutations.offer(m);
+	}
+	
+	/**
+	 * Apply a mutation to the committed chunks, the path index and the tile cache. Called on the render thread.
+	 *
+	 * @param m the mutation to apply
+	 */
+	private void apply(Mutation m) {
+		switch (m.type) {
+			case COMMIT:
+				MirrorChunk chunk = recycled.isEmpty() ? new MirrorChunk() : recycled.remove(recycled.size() - 1);
+				chunk.set(m.points, m.paint, m.bounds);
+				index.insert(chunks.size(), m.bounds.left, m.bounds.top, m.bounds.right, m.bounds.bottom);
+				chunks.add(chunk);
+				break;
+			case UNCOMMIT:
+				removed.setEmpty();
+				for (int i = chunks.size() - 1; i >= m.committed; i--) {
+					MirrorChunk c = chunks.remove(i);
+					index.remove(i, c.bounds.left, c.bounds.top, c.bounds.right, c.bounds.bottom);
+					removed.union(c.bounds);
+					recycled.add(c);
+				}
+				if (!removed.isEmpty()) {
+					tileCache.uncommit(m.committed, removed.left, removed.top, removed.right, removed.bottom);
+				}
+				break;
+			case RESET:
+				recycled.addAll(chunks);
+				chunks.clear();
+				index.clear();
+				tileCache.invalidate();
+				break;
+		}
+	}
+	
+	/**
+	 * A change to the committed chunks sent from the layer.
+	 */
+	private static class Mutation {
+		final byte type;
+		long sequence;
+		float[] points;
+		Paint paint;
+		RectF bounds;
+		int committed;
+		
+		/**
+		 * Create a mutation.
+		 *
+		 * @param type the type of mutation
+		 */
+		Mutation(byte type) {
+			this.type = type;
+		}
+	}
+	
+	/**
+	 * The state of the layer's head sent with a frame. Frames are recycled between the main and render threads.
+	 */
+	private static class Frame {
+		final PointBuffer points = new PointBuffer(StrokeChunk.CAPACITY);
+		final Rect damage = new Rect();
+		boolean fullDamage;
+		long sequence;
+		Paint paint;
+		String nickname;
+		float x;
+		float y;
+		float tx;
+		float ty;
+		float scale;
+	}
+	
+	/**
+	 * A committed chunk of the mirror, with its path built on the render thread. Reused once uncommitted.
+	 */
+	private static class MirrorChunk implements CachedChunk {
+		final Path path = new Path();
+		final RectF bounds = new RectF();
+		Paint paint;
+		
+		/**
+		 * Rebuild this chunk from the vertices of a committed chunk.
+		 *
+		 * @param points the interleaved vertices of the chunk
+		 * @param paint  the paint of the chunk
+		 * @param bounds the stroked bounds of the chunk
+		 */
+		void set(float[] points, Paint paint, RectF bounds) {
+			path.rewind();
+			path.moveTo(points[0], points[1]);
+			for (int i = 2; i < points.length; i += 2) {
+				path.lineTo(points[i], points[i + 1]);
+			}
+			this.paint = paint;
+			this.bounds.set(bounds);
+		}
+		
+		@Override
+		public Path getPath() {
+			return path;
+		}
+		
+		@Override
+		public Paint getPaint() {
+			return paint;
+		}
+	}
+}
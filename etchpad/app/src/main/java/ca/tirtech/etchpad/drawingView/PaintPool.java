@@ -0,0 +1,68 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Paint;
+import android.util.LongSparseArray;
+
+import java.util.EnumMap;
+
+/**
+ * Interning pool of the {@link Paint}s used by drawing layers. Paths with the same color, stroke width and style share
+ * a single paint, across every layer, instead of each holding its own copy.
+ * <p/>
+ * Paints returned by the pool are shared and must never be modified. To change the paint of a path, obtain a new
+ * paint from the pool and replace it. Paints are kept for the lifetime of the process; a drawing only ever uses a
+ * handful of distinct colors and widths, so the pool stays small.
+ * <p/>
+ * Paints are keyed on their color and stroke width packed into a primitive {@code long}, so looking up an existing
+ * paint does not allocate.
+ */
+final class PaintPool {
+	
+	private static final EnumMap<Paint.Style, LongSparseArray<Paint>> paints = new EnumMap<>(Paint.Style.class);
+	
+	private PaintPool() {
+	}
+	
+	/**
+	 * Get the shared paint with the given settings, creating it if it does not exist yet.
+	 *
+	 * @param color  the color of the paint
+	 * @param stroke the weight of the stroke
+	 * @param style  the style of paint to use
+	 * @return a shared {@link Paint} with the specified settings
+	 */
+	static synchronized Paint obtain(int color, float stroke, Paint.Style style) {
+		LongSparseArray<Paint> styled = paints.get(style);
+		if (styled == null) {
+			styled = new LongSparseArray<>();
+			paints.put(style, styled);
+		}
+		long key = (long) color << 32 | Float.floatToIntBits(stroke) & 0xFFFFFFFFL;
+		Paint paint = styled.get(key);
+		if (paint == null) {
+			paint = create(color, stroke, style);
+			styled.put(key, paint);
+		}
+		return paint;
+	}
+	
+	/**
+	 * Create a new {@link Paint}.
+	 *
+	 * @param color  the color of the paint
+	 * @param stroke the weight of the stroke
+	 * @param style  the style of paint to use
+	 * @return a new {@link Paint} with the specified color
+	 */
+	private static Paint create(int color, float stroke, Paint.Style style) {
+		Paint paint = new Paint();
+		paint.setAntiAlias(false);
+		paint.setColor(color);
+		paint.setStrokeJoin(Paint.Join.BEVEL);
+		paint.setStyle(style);
+		paint.setStrokeWidth(stroke);
+		paint.setTextSize(24);
+		paint.setTextAlign(Paint.Align.CENTER);
+		return paint;
+	}
+}
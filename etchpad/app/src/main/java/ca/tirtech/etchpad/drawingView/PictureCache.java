@@ -0,0 +1,132 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A display list cache of the committed chunks of a {@link DrawingLayer}'s paths. Chunks are recorded into
+ * {@link Picture}s once, and each frame replays the pictures instead of issuing a stroke for every chunk. A hardware
+ * canvas keeps a recorded picture on the GPU side, so replaying it costs little however many chunks it holds.
+ * <p/>
+ * Recordings cover consecutive ranges of chunk ids, in drawing order. Newly committed chunks are stroked directly
+ * until there are {@link #BATCH_SIZE} of them, and are then recorded together into a new picture, so drawing a long
+ * line does not re-record what was already recorded. Recordings are only thrown away when history changes: removing
+ * committed chunks drops the recordings that contain them, and {@link #invalidate()} drops everything.
+ */
+class PictureCache {
+	
+	static final int BATCH_SIZE = 32;
+	private final ArrayList<Recording> recordings = new ArrayList<>();
+	private final RectF bounds = new RectF();
+	private final RectF chunkBounds = new RectF();
+	private int recorded = 0;
+	
+	/**
+	 * Drop every recording, so the committed chunks are recorded again the next time they are drawn.
+	 */
+	void invalidate() {
+		recordings.clear();
+		recorded = 0;
+	}
+	
+	/**
+	 * Remove committed chunks from the top of the cache. Recordings that contain any of the removed chunks are
+	 * dropped; the chunks below them that are still committed are recorded again once there are enough of them.
+	 *
+	 * @param committed the number of committed chunks remaining
+	 */
+	void uncommit(int committed) {
+		while (recorded > committed) {
+			recordings.remove(recordings.size() - 1);
+			recorded = recordings.isEmpty() ? 0 : recordings.get(recordings.size() - 1).end;
+		}
+	}
+	
+	/**
+	 * Get the number of pictures currently recorded.
+	 *
+	 * @return the number of recordings
+	 */
+	int getRecordingCount() {
+		return recordings.size();
+	}
+	
+	/**
+	 * Draw the committed chunks, recording any pending chunks first if there are enough of them. The canvas must
+	 * already be translated into layer coordinates.
+	 *
+	 * @param canvas    the canvas to draw on
+	 * @param chunks    the committed chunks of the layer, by id
+	 * @param committed the number of committed chunks
+	 */
+	void draw(Canvas canvas, List<DrawingLayer.Chunk> chunks, int committed) {
+		if (committed - recorded >= BATCH_SIZE) {
+			record(chunks, committed);
+		}
+		for (int i = 0; i < recordings.size(); i++) {
+			Recording recording = recordings.get(i);
+			canvas.save();
+			canvas.translate(recording.left, recording.top);
+			canvas.drawPicture(recording.picture);
+			canvas.restore();
+		}
+		for (int i = recorded; i < committed; i++) {
+			DrawingLayer.Chunk chunk = chunks.get(i);
+			canvas.drawPath(chunk.path, chunk.owner.paint);
+		}
+	}
+	
+	/**
+	 * Record every committed chunk that is not recorded yet into a new picture. Pictures start at the origin, so the
+	 * chunks are recorded relative to the top left of their stroked bounds.
+	 *
+	 * @param chunks    the committed chunks of the layer, by id
+	 * @param committed the number of committed chunks
+	 */
+	private void record(List<DrawingLayer.Chunk> chunks, int committed) {
+		bounds.setEmpty();
+		for (int i = recorded; i < committed; i++) {
+			chunks.get(i).computeStrokeBounds(chunkBounds);
+			bounds.union(chunkBounds);
+		}
+		bounds.set((float) Math.floor(bounds.left), (float) Math.floor(bounds.top),
+				(float) Math.ceil(bounds.right), (float) Math.ceil(bounds.bottom));
+		Recording recording = new Recording(committed, bounds.left, bounds.top);
+		Canvas canvas = recording.picture.beginRecording(Math.max(1, (int) bounds.width()), Math.max(1, (int) bounds.height()));
+		canvas.translate(-bounds.left, -bounds.top);
+		for (int i = recorded; i < committed; i++) {
+			DrawingLayer.Chunk chunk = chunks.get(i);
+			canvas.drawPath(chunk.path, chunk.owner.paint);
+		}
+		recording.picture.endRecording();
+		recordings.add(recording);
+		recorded = committed;
+	}
+	
+	/**
+	 * A picture of a range of committed chunks.
+	 */
+	private static class Recording {
+		final Picture picture = new Picture();
+		final int end;
+		final float left;
+		final float top;
+		
+		/**
+		 * Create an empty recording.
+		 *
+		 * @param end  the id after the last chunk in the recording
+		 * @param left the x position of the picture's origin in layer coordinates
+		 * @param top  the y position of the picture's origin in layer coordinates
+		 */
+		Recording(int end, float left, float top) {
+			this.end = end;
+			this.left = left;
+			this.top = top;
+		}
+	}
+}
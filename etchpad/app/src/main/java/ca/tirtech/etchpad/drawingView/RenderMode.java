@@ -0,0 +1,20 @@
+package ca.tirtech.etchpad.drawingView;
+
+/**
+ * The ways a {@link DrawingLayer} can draw its committed chunks. The tail of the current path is always stroked
+ * directly, whichever mode is used.
+ */
+public enum RenderMode {
+	/**
+	 * Stroke the committed chunks that intersect the canvas' clip every frame.
+	 */
+	IMMEDIATE,
+	/**
+	 * Blit the committed chunks from a {@link TileCache} of rasterized tiles.
+	 */
+	TILES,
+	/**
+	 * Replay the committed chunks from a {@link PictureCache} of recorded display lists.
+	 */
+	DISPLAY_LIST
+}
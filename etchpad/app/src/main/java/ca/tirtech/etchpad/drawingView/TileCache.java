@@ -0,0 +1,281 @@
+package ca.tirtech.etchpad.drawingView;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.List;
+
+/**
+ * A raster cache of the committed chunks of a {@link DrawingLayer}'s paths, or of a {@link LayerMirror}'s, split
+ * into square tiles in layer coordinates. Committed chunks are every chunk except the tail of the current path; they
+ * can no longer change, so the tiles are blitted each frame instead of stroking the chunks again.
+ * <p/>
+ * Tiles are created lazily for the area being drawn, and are rasterized from the layer's path index. When a chunk is
+ * committed, each tile strokes it the next time the tile is drawn. The number of tiles is bounded by a memory budget;
+ * once it is reached, the least recently drawn tile is reused. Evicted or invalidated tiles are re-rendered the next
+ * time they are needed.
+ * <p/>
+ * Tiles form a pyramid of mip levels. A tile at level {@code n} is still {@link #TILE_SIZE} pixels square, but covers
+ * {@code 2^n} times as much of the layer, rasterized at {@code 1/2^n} scale. When the layer is drawn zoomed out, the
+ * level whose resolution is closest above the zoom is used, and its tiles are drawn downsampled with filtering, so
+ * the number of tiles on screen and the cost of a frame stay about the same at any zoom.
+ * <p/>
+ * If the area being drawn needs more tiles than the budget allows, even at the next coarser level,
+ * {@link #draw(Canvas, List, QuadTree, int, float)} draws nothing and reports that the caller should draw the paths
+ * directly.
+ */
+class TileCache {
+	
+	static final int TILE_SIZE = 256;
+	static final int MAX_LEVEL = 6;
+	private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+	private final Rect clip = new Rect();
+	private final RectF destination = new RectF();
+	private final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private Tile[] tiles;
+	private int tileCount = 0;
+	private long frame = 0;
+	
+	/**
+	 * Create an empty cache.
+	 *
+	 * @param memoryBudget the number of bytes the tile bitmaps may use
+	 */
+	TileCache(long memoryBudget) {
+		tiles = new Tile[capacityFor(memoryBudget)];
+	}
+	
+	/**
+	 * Change the number of bytes the tile bitmaps may use. Least recently used tiles are released if the cache is
+	 * over the new budget.
+	 *
+	 * @param memoryBudget the number of bytes the tile bitmaps may use
+	 */
+	void setMemoryBudget(long memoryBudget) {
+		int capacity = capacityFor(memoryBudget);
+		while (tileCount > capacity) {
+			int lru = leastRecentlyUsed();
+			tiles[lru].bitmap.recycle();
+			tiles[lru] = tiles[--tileCount];
+			tiles[tileCount] = null;
+		}
+		Tile[] resized = new Tile[capacity];
+		System.arraycopy(tiles, 0, resized, 0, tileCount);
+		tiles = resized;
+	}
+	
+	/**
+	 * Get the number of bytes used by the tile bitmaps.
+	 *
+	 * @return the memory used by the cache
+	 */
+	long getMemoryUsage() {
+		return tileCount * TILE_BYTES;
+	}
+	
+	/**
+	 * Release every tile bitmap. Tiles are created again the next time they are drawn.
+	 */
+	void release() {
+		for (int i = 0; i < tileCount; i++) {
+			tiles[i].bitmap.recycle();
+			tiles[i] = null;
+		}
+		tileCount = 0;
+	}
+	
+	/**
+	 * Mark every tile as needing to be rasterized again.
+	 */
+	void invalidate() {
+		for (int i = 0; i < tileCount; i++) {
+			tiles[i].valid = false;
+		}
+	}
+	
+	/**
+	 * Remove committed chunks from the top of the cache. Tiles overlapping the area of the removed chunks are marked as
+	 * needing to be rasterized again; other tiles never drew them, so they only forget about them.
+	 *
+	 * @param committed the number of committed chunks remaining
+	 * @param left      the left edge of the removed chunks' area
+	 * @param top       the top edge of the removed chunks' area
+	 * @param right     the right edge of the removed chunks' area
+	 * @param bottom    the bottom edge of the removed chunks' area
+	 */
+	void uncommit(int committed, float left, float top, float right, float bottom) {
+		for (int i = 0; i < tileCount; i++) {
+			Tile tile = tiles[i];
+			int size = TILE_SIZE << tile.level;
+			float tileLeft = (float) tile.tx * size;
+			float tileTop = (float) tile.ty * size;
+			if (left <= tileLeft + size && right >= tileLeft && top <= tileTop + size && bottom >= tileTop) {
+				tile.valid = false;
+			} else if (tile.rendered > committed) {
+				tile.rendered = committed;
+			}
+		}
+	}
+	
+	/**
+	 * Draw the committed chunks within the canvas' clip using tiles, rasterizing any tiles that are missing or out of
+	 * date. The canvas must already be transformed into layer coordinates.
+	 *
+	 * @param canvas    the canvas to draw on
+	 * @param chunks    the committed chunks of the layer, by id
+	 * @param index     the index of the committed chunks' bounds
+	 * @param committed the number of committed chunks
+	 * @param scale     the scale the layer is drawn at, used to pick the mip level
+	 * @return false if the clip needs more tiles than the budget allows, in which case nothing was drawn
+	 */
+	boolean draw(Canvas canvas, List<? extends CachedChunk> chunks, QuadTree index, int committed, float scale) {
+		canvas.getClipBounds(clip);
+		int level = levelFor(scale);
+		if (countTiles(level) > tiles.length) {
+			level = Math.min(level + 1, MAX_LEVEL);
+			if (countTiles(level) > tiles.length) {
+				return false;
+			}
+		}
+		int size = TILE_SIZE << level;
+		int left = Math.floorDiv(clip.left, size);
+		int top = Math.floorDiv(clip.top, size);
+		int right = Math.floorDiv(clip.right - 1, size);
+		int bottom = Math.floorDiv(clip.bottom - 1, size);
+		Paint paint = level == 0 && scale == 1 ? null : filterPaint;
+		frame++;
+		for (int ty = top; ty <= bottom; ty++) {
+			for (int tx = left; tx <= right; tx++) {
+				Tile tile = obtain(level, tx, ty);
+				render(tile, chunks, index, committed);
+				destination.set((float) tx * size, (float) ty * size, (float) tx * size + size, (float) ty * size + size);
+				canvas.drawBitmap(tile.bitmap, null, destination, paint);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Pick the coarsest mip level that still has at least as many pixels as the screen at the given scale.
+	 *
+	 * @param scale the scale the layer is drawn at
+	 * @return the mip level
+	 */
+	static int levelFor(float scale) {
+		int level = 0;
+		while (level < MAX_LEVEL && scale * (2 << level) <= 1) {
+			level++;
+		}
+		return level;
+	}
+	
+	/**
+	 * Count the tiles of a mip level needed to cover the clip.
+	 *
+	 * @param level the mip level
+	 * @return the number of tiles
+	 */
+	private long countTiles(int level) {
+		int size = TILE_SIZE << level;
+		long columns = Math.floorDiv(clip.right - 1, size) - Math.floorDiv(clip.left, size) + 1;
+		long rows = Math.floorDiv(clip.bottom - 1, size) - Math.floorDiv(clip.top, size) + 1;
+		return columns * rows;
+	}
+	
+	/**
+	 * Find the tile at the given tile coordinates, creating it or reusing the least recently used tile if needed.
+	 *
+	 * @param level the mip level
+	 * @param tx    the tile column
+	 * @param ty    the tile row
+	 * @return the tile, marked as used in this frame
+	 */
+	private Tile obtain(int level, int tx, int ty) {
+		Tile tile = null;
+		for (int i = 0; i < tileCount && tile == null; i++) {
+			if (tiles[i].level == level && tiles[i].tx == tx && tiles[i].ty == ty) {
+				tile = tiles[i];
+			}
+		}
+		if (tile == null) {
+			if (tileCount < tiles.length) {
+				tile = new Tile();
+				tiles[tileCount++] = tile;
+			} else {
+				tile = tiles[leastRecentlyUsed()];
+			}
+			tile.level = level;
+			tile.tx = tx;
+			tile.ty = ty;
+			tile.valid = false;
+		}
+		tile.lastUsed = frame;
+		return tile;
+	}
+	
+	/**
+	 * Stroke any committed chunks the tile has not drawn yet, scaled down to the tile's mip level. Invalid tiles are
+	 * cleared and drawn from scratch.
+	 *
+	 * @param tile      the tile to bring up to date
+	 * @param chunks    the committed chunks of the layer, by id
+	 * @param index     the index of the committed chunks' bounds
+	 * @param committed the number of committed chunks
+	 */
+	private void render(Tile tile, List<? extends CachedChunk> chunks, QuadTree index, int committed) {
+		if (!tile.valid) {
+			tile.bitmap.eraseColor(Color.TRANSPARENT);
+			tile.rendered = 0;
+			tile.valid = true;
+		}
+		if (tile.rendered == committed) return;
+		int size = TILE_SIZE << tile.level;
+		float tileLeft = (float) tile.tx * size;
+		float tileTop = (float) tile.ty * size;
+		int count = index.query(tileLeft, tileTop, tileLeft + size, tileTop + size);
+		int[] ids = index.getResults();
+		tile.canvas.save();
+		tile.canvas.scale(1f / (1 << tile.level), 1f / (1 << tile.level));
+		tile.canvas.translate(-tileLeft, -tileTop);
+		for (int i = 0; i < count; i++) {
+			if (ids[i] >= tile.rendered && ids[i] < committed) {
+				CachedChunk chunk = chunks.get(ids[i]);
+				tile.canvas.drawPath(chunk.getPath(), chunk.getPaint());
+			}
+		}
+		tile.canvas.restore();
+		tile.rendered = committed;
+	}
+	
+	private int leastRecentlyUsed() {
+		int lru = 0;
+		for (int i = 1; i < tileCount; i++) {
+			if (tiles[i].lastUsed < tiles[lru].lastUsed) {
+				lru = i;
+			}
+		}
+		return lru;
+	}
+	
+	private static int capacityFor(long memoryBudget) {
+		return (int) Math.max(1, memoryBudget / TILE_BYTES);
+	}
+	
+	/**
+	 * A single tile of the cache.
+	 */
+	private static class Tile {
+		final Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+		final Canvas canvas = new Canvas(bitmap);
+		int level;
+		int tx;
+		int ty;
+		int rendered = 0;
+		long lastUsed;
+		boolean valid = false;
+	}
+}
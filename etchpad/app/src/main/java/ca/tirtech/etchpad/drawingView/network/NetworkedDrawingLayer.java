@@ -1,7 +1,11 @@
 package ca.tirtech.etchpad.drawingView.network;
 
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import ca.tirtech.etchpad.drawingView.DrawingLayer;
+import ca.tirtech.etchpad.drawingView.LayerJson;
+import ca.tirtech.etchpad.drawingView.LayerMirror;
+import ca.tirtech.etchpad.drawingView.RenderMode;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -23,6 +27,9 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 	private static final String ACTION_LINE_TO = "LINETO";
 	private static final String ACTION_SET_COLOR = "SET_COLOR";
 	private static final String ACTION_UNDO = "UNDO";
+	private static final String ACTION_REDO = "REDO";
+	private static final String ACTION_UNDO_SEGMENTS = "UNDO_SEGMENTS";
+	private static final String ACTION_REDO_SEGMENTS = "REDO_SEGMENTS";
 	private static final String ACTION_NICKNAME = "NICKNAME";
 	private static final String ACTION_SET_PAINT_SIZE = "PAINT_SIZE";
 	
@@ -48,6 +55,47 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 	public void setTransformation(float[] transformation) {
 		super.setTransformation(transformation);
 		networkedLayer.setTransformation(transformation);
+		takeDamage(networkedLayer);
+	}
+	
+	@Override
+	public void pan(float dx, float dy) {
+		super.pan(dx, dy);
+		networkedLayer.setTransformation(getTransformation());
+		takeDamage(networkedLayer);
+	}
+	
+	@Override
+	public void setScale(float scale) {
+		super.setScale(scale);
+		networkedLayer.setScale(getScale());
+		takeDamage(networkedLayer);
+	}
+	
+	@Override
+	public void zoom(float factor, float focusX, float focusY) {
+		super.zoom(factor, focusX, focusY);
+		networkedLayer.setTransformation(getTransformation());
+		networkedLayer.setScale(getScale());
+		takeDamage(networkedLayer);
+	}
+	
+	@Override
+	public void setRenderMode(RenderMode renderMode) {
+		super.setRenderMode(renderMode);
+		networkedLayer.setRenderMode(renderMode);
+	}
+	
+	@Override
+	public void setMirror(LayerMirror mirror) {
+		super.setMirror(mirror);
+		networkedLayer.setMirror(mirror == null ? null : mirror.createOverlay());
+	}
+	
+	@Override
+	public void publishFrame(Rect dirty) {
+		super.publishFrame(dirty);
+		networkedLayer.publishFrame(dirty);
 	}
 	
 	@Override
@@ -75,6 +123,21 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 		}
 	}
 	
+	@Override
+	public void lineTo(float[] points, int count) {
+		super.lineTo(points, count);
+		try {
+			for (int i = 0; i < count * 2; i += 2) {
+				JSONArray json = new JSONArray();
+				json.put(points[i]);
+				json.put(points[i + 1]);
+				protocol.createNetworkAction(ACTION_LINE_TO, json);
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	@Override
 	public void setColor(int color) {
 		super.setColor(color);
@@ -89,6 +152,28 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 		protocol.createNetworkAction(ACTION_UNDO, null);
 	}
 	
+	@Override
+	public void redo() {
+		super.redo();
+		protocol.createNetworkAction(ACTION_REDO, null);
+	}
+	
+	@Override
+	public void undoSegments(int count) {
+		super.undoSegments(count);
+		JSONArray json = new JSONArray();
+		json.put(count);
+		protocol.createNetworkAction(ACTION_UNDO_SEGMENTS, json);
+	}
+	
+	@Override
+	public void redoSegments(int count) {
+		super.redoSegments(count);
+		JSONArray json = new JSONArray();
+		json.put(count);
+		protocol.createNetworkAction(ACTION_REDO_SEGMENTS, json);
+	}
+	
 	@Override
 	public void setNickname(String nickname) {
 		super.setNickname(nickname);
@@ -123,7 +208,7 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 				networkedLayer.clear();
 				break;
 			case ACTION_LINE_TO:
-				networkedLayer.lineTo(value.getInt(0), value.getInt(1));
+				networkedLayer.lineTo((float) value.getDouble(0), (float) value.getDouble(1));
 				break;
 			case ACTION_SET_COLOR:
 				networkedLayer.setColor(value.getInt(0));
@@ -131,6 +216,15 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 			case ACTION_UNDO:
 				networkedLayer.undo();
 				break;
+			case ACTION_REDO:
+				networkedLayer.redo();
+				break;
+			case ACTION_UNDO_SEGMENTS:
+				networkedLayer.undoSegments(value.getInt(0));
+				break;
+			case ACTION_REDO_SEGMENTS:
+				networkedLayer.redoSegments(value.getInt(0));
+				break;
 			case ACTION_NICKNAME:
 				networkedLayer.setNickname(value.getString(0));
 				break;
@@ -138,6 +232,7 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 				networkedLayer.setPaintSize((float) value.getDouble(0));
 				break;
 		}
+		takeDamage(networkedLayer);
 		notifyChange();
 	}
 	
@@ -148,17 +243,6 @@ public class NetworkedDrawingLayer extends DrawingLayer {
 	 * @throws JSONException JSON was invalid
 	 */
 	public JSONObject jsonifyMerged() throws JSONException {
-		JSONObject selfLayer = jsonify();
-		JSONArray netLayers = networkedLayer.jsonify().getJSONArray(JSON_LAYER_PATHS);
-		JSONArray selfLayers = selfLayer.getJSONArray(JSON_LAYER_PATHS);
-		JSONArray newLayers = new JSONArray();
-		for (int i = 0; i < netLayers.length(); i++) {
-			newLayers.put(netLayers.get(i));
-		}
-		for (int i = 0; i < selfLayers.length(); i++) {
-			newLayers.put(selfLayers.get(i));
-		}
-		selfLayer.put(JSON_LAYER_PATHS, newLayers);
-		return selfLayer;
+		return LayerJson.merge(jsonify(), networkedLayer.jsonify());
 	}
 }
@@ -3,6 +3,7 @@ package ca.tirtech.etchpad.fragments;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.*;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -13,6 +14,7 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.navigation.Navigation;
 import ca.tirtech.etchpad.R;
 import ca.tirtech.etchpad.drawingView.DrawingModel;
+import ca.tirtech.etchpad.drawingView.DrawingSurfaceView;
 import ca.tirtech.etchpad.drawingView.DrawingView;
 import ca.tirtech.etchpad.drawingView.network.DrawingProtocol;
 import ca.tirtech.etchpad.hardware.InteractionService;
@@ -25,6 +27,7 @@ public class DrawingViewFragment extends Fragment {
 	
 	private static final String TAG = "Drawing Fragment";
 	private DrawingView drawView;
+	private DrawingSurfaceView drawSurface;
 	private DrawingProtocol drawingProtocol;
 	private DrawingModel model;
 	private boolean connected = false;
@@ -45,6 +48,8 @@ public class DrawingViewFragment extends Fragment {
 		}
 	};
 	private SeekBar penSize;
+	private View documentProgress;
+	private ProgressBar documentProgressBar;
 	
 	@Nullable
 	@Override
@@ -56,7 +61,11 @@ public class DrawingViewFragment extends Fragment {
 			appBarLayout.setTitle(R.string.app_name);
 		}
 		drawView = root.findViewById(R.id.drawingView);
+		drawSurface = root.findViewById(R.id.drawingSurface);
 		penSize = root.findViewById(R.id.sliderPenSize);
+		documentProgress = root.findViewById(R.id.documentProgress);
+		documentProgressBar = root.findViewById(R.id.documentProgressBar);
+		root.findViewById(R.id.btnDocumentCancel).setOnClickListener(v -> model.cancelDocumentTask());
 		root.setOnTouchListener((v, e) -> InteractionService.onTouchEvent(e));
 		penSize.setOnSeekBarChangeListener(penSizeChangeListener);
 		initModel();
@@ -70,6 +79,14 @@ public class DrawingViewFragment extends Fragment {
 				penSize.setProgress((int) layer.getPaintSize());
 			}
 		});
+		model.getThreadedRendering().observe(getViewLifecycleOwner(), (threaded) -> {
+			drawView.setVisibility(threaded ? View.GONE : View.VISIBLE);
+			drawSurface.setVisibility(threaded ? View.VISIBLE : View.GONE);
+		});
+		model.getDocumentProgress().observe(getViewLifecycleOwner(), (percent) -> {
+			documentProgress.setVisibility(percent < 0 ? View.GONE : View.VISIBLE);
+			documentProgressBar.setProgress(Math.max(percent, 0));
+		});
 	}
 	
 	@Override
@@ -78,21 +95,26 @@ public class DrawingViewFragment extends Fragment {
 		
 		switch (id) {
 			case R.id.action_export:
-				Log.i(TAG, "Exporting as JPG...");
-				model.export(drawView.getContext(), drawView.getWidth(), drawView.getHeight());
+				Log.i(TAG, "Exporting as PNG...");
+				model.export(drawView.getContext());
 				return true;
 			case R.id.action_save:
-				Log.i(TAG, "Saving as JSON ...");
+				Log.i(TAG, "Saving ...");
 				model.save(drawView.getContext());
 				return true;
 			case R.id.action_load:
-				Log.i(TAG, "Loading JSON ...");
+				Log.i(TAG, "Loading ...");
 				model.load(drawView.getContext());
 				return true;
+			case R.id.action_undo:
+				model.undo();
+				return true;
+			case R.id.action_redo:
+				model.redo();
+				return true;
 			case R.id.action_clear:
 				Log.i(TAG, "Cleared Screen");
-				model.getLayer().getValue().clear();
-				model.getLayer().getValue().centerOnCursor();
+				model.clear();
 				return true;
 			case R.id.action_host:
 				if (drawingProtocol != null) {
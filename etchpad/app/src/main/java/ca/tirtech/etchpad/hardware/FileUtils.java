@@ -39,11 +39,24 @@ public class FileUtils {
 	 * @throws IOException error when writing the file
 	 */
 	public static Path writeToFile(Context context, String fileName, String extension, String env, byte[] contents) throws IOException {
-		Path jsonFile = Paths.get(context.getExternalFilesDir(env).getAbsolutePath(), fileName + extension);
+		Path jsonFile = getPath(context, fileName, extension, env);
 		Files.write(jsonFile, contents);
 		return jsonFile;
 	}
 	
+	/**
+	 * Get the path of a file with the provided name, for writing to it as a stream.
+	 *
+	 * @param context   context to use for dir references
+	 * @param fileName  the file name
+	 * @param extension the file's extension
+	 * @param env       the type of the system dir the file is in
+	 * @return the path to the file
+	 */
+	public static Path getPath(Context context, String fileName, String extension, String env) {
+		return Paths.get(context.getExternalFilesDir(env).getAbsolutePath(), fileName + extension);
+	}
+	
 	/**
 	 * Read from a file with the provided name.
 	 *
@@ -0,0 +1,79 @@
+package ca.tirtech.etchpad.hardware;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue of fixed-size float records for exactly one producer thread and one consumer thread.
+ * Records are copied in and out of a single preallocated array, so neither side allocates or blocks.
+ * <p/>
+ * The producer only writes the tail index and the consumer only writes the head index. Each side publishes its index
+ * with an ordered write after touching the slots, and reads the other side's index before touching them, so a
+ * record is never read before it is fully written, or overwritten before it is fully read.
+ */
+public class FloatRingBuffer {
+	
+	private final float[] values;
+	private final int stride;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	
+	/**
+	 * Create an empty buffer.
+	 *
+	 * @param capacity the number of records the buffer can hold, rounded up to a power of two
+	 * @param stride   the number of floats in each record
+	 */
+	public FloatRingBuffer(int capacity, int stride) {
+		int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.values = new float[size * stride];
+		this.stride = stride;
+		this.mask = size - 1;
+	}
+	
+	/**
+	 * Add a record to the end of the buffer. Must only be called from the producer thread.
+	 *
+	 * @param record the record to add, of at least {@code stride} floats
+	 * @return false if the buffer is full, in which case nothing was added
+	 */
+	public boolean offer(float[] record) {
+		long t = tail.get();
+		if (t - head.get() > mask) return false;
+		System.arraycopy(record, 0, values, (int) (t & mask) * stride, stride);
+		tail.lazySet(t + 1);
+		return true;
+	}
+	
+	/**
+	 * Remove the record at the start of the buffer. Must only be called from the consumer thread.
+	 *
+	 * @param out the array to copy the record into, of at least {@code stride} floats
+	 * @return false if the buffer is empty, in which case {@code out} is unchanged
+	 */
+	public boolean poll(float[] out) {
+		long h = head.get();
+		if (h == tail.get()) return false;
+		System.arraycopy(values, (int) (h & mask) * stride, out, 0, stride);
+		head.lazySet(h + 1);
+		return true;
+	}
+	
+	/**
+	 * Get the number of records in the buffer. The value may already be out of date when it is returned.
+	 *
+	 * @return the number of records
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+	
+	/**
+	 * Get the number of records the buffer can hold.
+	 *
+	 * @return the capacity of the buffer
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+}
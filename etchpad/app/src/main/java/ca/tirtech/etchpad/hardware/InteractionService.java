@@ -1,16 +1,23 @@
 package ca.tirtech.etchpad.hardware;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import androidx.core.util.Consumer;
 
 import java.util.ArrayList;
 
 /**
  * Service for managing sensor-based interactions. This class is a singleton.
+ * <p/>
+ * Sensor events are processed on a dedicated {@link HandlerThread}, so the pen keeps moving while the main thread is
+ * busy. Rotation and shake listeners are still called on the main thread.
  */
 public class InteractionService {
 	
@@ -19,6 +26,7 @@ public class InteractionService {
 	private final RotationManager rotationManager;
 	private final ShakeManager shakeManager;
 	private final ArrayList<GestureDetector> gestureDetectors;
+	private final ArrayList<ScaleGestureDetector> scaleGestureDetectors;
 	private final Vibrator vibrationService;
 	
 	/**
@@ -27,10 +35,14 @@ public class InteractionService {
 	 * @param context the context for this service
 	 */
 	private InteractionService(Context context) {
-		rotationManager = new RotationManager(context);
-		shakeManager = new ShakeManager(context);
+		HandlerThread sensorThread = new HandlerThread("Sensor Thread", Process.THREAD_PRIORITY_DISPLAY);
+		sensorThread.start();
+		Handler sensorHandler = new Handler(sensorThread.getLooper());
+		rotationManager = new RotationManager(context, sensorHandler);
+		shakeManager = new ShakeManager(context, sensorHandler);
 		vibrationService = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
 		gestureDetectors = new ArrayList<>();
+		scaleGestureDetectors = new ArrayList<>();
 	}
 	
 	/**
@@ -82,6 +94,9 @@ public class InteractionService {
 	public static boolean onTouchEvent(MotionEvent e) {
 		if (instance == null) return false;
 		boolean result = false;
+		for (ScaleGestureDetector detector : getInstance().scaleGestureDetectors) {
+			result = detector.onTouchEvent(e) || result;
+		}
 		for (GestureDetector detector : getInstance().gestureDetectors) {
 			result = result || detector.onTouchEvent(e);
 		}
@@ -106,6 +121,15 @@ public class InteractionService {
 		rotationManager.setRotationListener(func);
 	}
 	
+	/**
+	 * Set the listener for rotation events. Angles are passed as primitives, so no array is shared with the listener.
+	 *
+	 * @param listener the listener
+	 */
+	public void setOnRotation(RotationListener listener) {
+		rotationManager.setRotationListener(listener);
+	}
+	
 	/**
 	 * Set the consumer for shake events.
 	 *
@@ -133,6 +157,25 @@ public class InteractionService {
 		gestureDetectors.remove(detector);
 	}
 	
+	/**
+	 * Add a listener for pinch gestures. Scale gesture detectors are given every touch event, before the other gesture
+	 * detectors.
+	 *
+	 * @param detector the detector for touch events
+	 */
+	public void addScaleGestureDetector(ScaleGestureDetector detector) {
+		scaleGestureDetectors.add(detector);
+	}
+	
+	/**
+	 * Remove the scale gesture detector for touch events.
+	 *
+	 * @param detector the detector to remove
+	 */
+	public void removeScaleGestureDetector(ScaleGestureDetector detector) {
+		scaleGestureDetectors.remove(detector);
+	}
+	
 	/**
 	 * Vibrate the device according to an effect.
 	 *
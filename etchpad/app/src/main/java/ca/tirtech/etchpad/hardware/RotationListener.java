@@ -0,0 +1,17 @@
+package ca.tirtech.etchpad.hardware;
+
+/**
+ * Listener for rotations of the device relative to its baseline. Angles are passed as primitives, so nothing is
+ * allocated or shared between the sensor pipeline and the listener.
+ */
+@FunctionalInterface
+public interface RotationListener {
+	/**
+	 * Handle a rotation.
+	 *
+	 * @param azimuth the rotation around the z axis, in radians
+	 * @param pitch   the rotation around the x axis, in radians, less the deadzone
+	 * @param roll    the rotation around the y axis, in radians, less the deadzone
+	 */
+	void onRotation(float azimuth, float pitch, float roll);
+}
@@ -6,99 +6,182 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.core.util.Consumer;
 import androidx.preference.PreferenceManager;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static android.content.Context.SENSOR_SERVICE;
 
 /**
  * Manages rotation vector events to notify about rotation changes.
+ * <p/>
+ * Sensor events are delivered to, and turned into pen deltas on, the sensor thread of the given {@link Handler}, so
+ * they keep being processed while the main thread is busy. Deltas are handed to the main thread through a
+ * {@link FloatRingBuffer}, and the rotation listener is called on the main thread for each of them. If the main
+ * thread falls so far behind that the buffer fills up, new deltas are added together until there is room again, so
+ * no movement of the pen is lost. The added up delta is handed over as soon as the main thread has drained the buffer,
+ * even if the pen has stopped, and is discarded when listening stops.
+ * <p/>
+ * Processing an event does not allocate: the angles are computed by a {@link RotationProcessor} into its own
+ * buffers, copied into the ring buffer, and passed to a {@link RotationListener} as primitives.
  */
 public class RotationManager implements SensorEventListener {
 	
 	private static final String TAG = "Rotation Manager";
+	private static final int DELTA_CAPACITY = 256;
 	
 	private final SensorManager sensorManager;
 	private final Sensor rotationVector;
-	private Consumer<float[]> rotationListener;
+	private RotationListener rotationListener;
 	private final SharedPreferences sharedPreferences;
-	private float[] baseRotMatrix = null;
-	private float deadzone;
+	private final Handler sensorHandler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final FloatRingBuffer deltas = new FloatRingBuffer(DELTA_CAPACITY, 3);
+	private final AtomicBoolean drainPosted = new AtomicBoolean(false);
+	private final float[] pending = new float[3];
+	private final float[] delta = new float[3];
+	private final float[] record = new float[3];
+	private final Runnable drainDeltas = this::drainDeltas;
+	private final Runnable retryPending = this::retryPending;
+	private final RotationProcessor processor = new RotationProcessor();
+	private volatile boolean hasPending = false;
 	
 	/**
 	 * Construct a new manager for the given context.
 	 *
-	 * @param owner the context for this manager
+	 * @param owner         the context for this manager
+	 * @param sensorHandler the handler of the thread to process sensor events on
 	 */
-	public RotationManager(Context owner) {
+	public RotationManager(Context owner, Handler sensorHandler) {
+		this.sensorHandler = sensorHandler;
 		sensorManager = (SensorManager) owner.getSystemService(SENSOR_SERVICE);
 		rotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-		sensorManager.registerListener(this, rotationVector, SensorManager.SENSOR_DELAY_GAME);
+		sensorManager.registerListener(this, rotationVector, SensorManager.SENSOR_DELAY_GAME, sensorHandler);
 		sharedPreferences = PreferenceManager.getDefaultSharedPreferences(owner);
 	}
 	
 	/**
-	 * Set the listener to invoke when a rotation is detected. Will be given the pitch, roll, and azimuth of the rotation.
+	 * Set the listener to invoke when a rotation is detected. Will be given the azimuth, pitch and roll of the rotation,
+	 * on the main thread.
 	 *
 	 * @param rotationListener the listener for rotation events
 	 */
-	public void setRotationListener(Consumer<float[]> rotationListener) {
+	public void setRotationListener(RotationListener rotationListener) {
 		this.rotationListener = rotationListener;
 	}
 	
+	/**
+	 * Set the listener to invoke when a rotation is detected. Will be given the azimuth, pitch and roll of the
+	 * rotation as an array, on the main thread. The array is reused for every call, so it must not be kept.
+	 *
+	 * @param rotationListener the listener for rotation events
+	 */
+	public void setRotationListener(Consumer<float[]> rotationListener) {
+		if (rotationListener == null) {
+			this.rotationListener = null;
+			return;
+		}
+		float[] vector = new float[3];
+		this.rotationListener = (azimuth, pitch, roll) -> {
+			vector[0] = azimuth;
+			vector[1] = pitch;
+			vector[2] = roll;
+			rotationListener.accept(vector);
+		};
+	}
+	
 	/**
 	 * Start listening for rotation events. This will register sensor listeners.
 	 */
 	public void start() {
-		sensorManager.registerListener(this, rotationVector, SensorManager.SENSOR_DELAY_GAME);
-		baseRotMatrix = null;
-		this.deadzone = sharedPreferences.getInt("pen_deadzone", 10) / 1000.0f;
+		float deadzone = sharedPreferences.getInt("pen_deadzone", 10) / 1000.0f;
+		sensorHandler.post(() -> {
+			processor.reset();
+			processor.setDeadzone(deadzone);
+		});
+		sensorManager.registerListener(this, rotationVector, SensorManager.SENSOR_DELAY_GAME, sensorHandler);
 	}
 	
 	/**
-	 * Stop listening for rotation events. This will deregister sensor listeners.
+	 * Stop listening for rotation events. This will deregister sensor listeners. A delta still waiting for room in the
+	 * buffer is discarded, so it is not added to the first delta after the next {@link #start()}.
 	 */
 	public void stop() {
 		sensorManager.unregisterListener(this);
-		baseRotMatrix = null;
+		sensorHandler.post(() -> {
+			processor.reset();
+			hasPending = false;
+			Arrays.fill(pending, 0);
+		});
 	}
 	
 	@Override
 	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-			if (baseRotMatrix == null) {
-				baseRotMatrix = new float[9];
-				SensorManager.getRotationMatrixFromVector(baseRotMatrix, event.values);
-			}
-			float[] vector = getRelativeRotation(event.values);
-			if (Math.abs(vector[1]) > deadzone)
-				vector[1] -= vector[1] > 0 ? deadzone : -deadzone;
-			else
-				vector[1] = 0;
-			
-			if (Math.abs(vector[2]) > deadzone)
-				vector[2] -= vector[2] > 0 ? deadzone : -deadzone;
-			else
-				vector[2] = 0;
-			
-			if ((vector[1] != 0 || vector[2] != 0) && rotationListener != null) {
-				rotationListener.accept(vector);
-			}
+		if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR && processor.process(event.values)) {
+			record[0] = processor.getAzimuth();
+			record[1] = processor.getPitch();
+			record[2] = processor.getRoll();
+			publishDelta(record);
 		}
 	}
 	
 	/**
-	 * Convert the raw quaternion into relatively centred euler angles for pitch, roll, and azimuth.
+	 * Hand a pen delta to the main thread. Called on the sensor thread. If the buffer is full, the delta is added to a
+	 * pending delta that is handed over once there is room.
 	 *
-	 * @param vector raw rotation angles
-	 * @return angles from the baseline
+	 * @param vector the azimuth, pitch and roll of the delta
 	 */
-	private float[] getRelativeRotation(float[] vector) {
-		float[] newVector = new float[3];
-		float[] rotMatrix = new float[9];
-		SensorManager.getRotationMatrixFromVector(rotMatrix, vector);
-		SensorManager.getAngleChange(newVector, rotMatrix, baseRotMatrix);
-		return newVector;
+	private void publishDelta(float[] vector) {
+		if (hasPending) {
+			for (int i = 0; i < pending.length; i++) {
+				pending[i] += vector[i];
+			}
+			hasPending = !deltas.offer(pending);
+		} else if (!deltas.offer(vector)) {
+			System.arraycopy(vector, 0, pending, 0, pending.length);
+			hasPending = true;
+		}
+		postDrain();
+	}
+	
+	/**
+	 * Hand the pending delta to the main thread if there is room for it now. Called on the sensor thread once the main
+	 * thread has drained the buffer, so the delta is not held until the next sensor event.
+	 */
+	private void retryPending() {
+		if (hasPending && deltas.offer(pending)) {
+			hasPending = false;
+			postDrain();
+		}
+	}
+	
+	/**
+	 * Make sure the main thread drains the buffer, unless it is already due to.
+	 */
+	private void postDrain() {
+		if (drainPosted.compareAndSet(false, true)) {
+			mainHandler.post(drainDeltas);
+		}
+	}
+	
+	/**
+	 * Pass every delta in the buffer to the rotation listener, then have the sensor thread hand over any delta that was
+	 * waiting for room. Called on the main thread.
+	 */
+	private void drainDeltas() {
+		drainPosted.set(false);
+		while (deltas.poll(delta)) {
+			if (rotationListener != null) {
+				rotationListener.onRotation(delta[0], delta[1], delta[2]);
+			}
+		}
+		if (hasPending) {
+			sensorHandler.post(retryPending);
+		}
 	}
 	
 	@Override
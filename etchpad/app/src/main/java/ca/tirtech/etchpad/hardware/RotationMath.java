@@ -0,0 +1,70 @@
+package ca.tirtech.etchpad.hardware;
+
+/**
+ * Rotation maths used to turn rotation vector sensor events into angles. These match the methods of the same name in
+ * {@link android.hardware.SensorManager} for 3x3 matrices, but write into caller-provided arrays only and do not
+ * depend on the Android framework, so they can be used without allocating and tested on the JVM.
+ */
+public final class RotationMath {
+	
+	private RotationMath() {
+	}
+	
+	/**
+	 * Convert a rotation vector to a 3x3 rotation matrix.
+	 *
+	 * @param matrix         the array of 9 floats to write the matrix into, in row-major order
+	 * @param rotationVector the rotation vector, as the x, y and z components of a unit quaternion, optionally followed
+	 *                       by its scalar component
+	 * @see android.hardware.SensorManager#getRotationMatrixFromVector(float[], float[])
+	 */
+	public static void getRotationMatrixFromVector(float[] matrix, float[] rotationVector) {
+		float q1 = rotationVector[0];
+		float q2 = rotationVector[1];
+		float q3 = rotationVector[2];
+		float q0;
+		if (rotationVector.length >= 4) {
+			q0 = rotationVector[3];
+		} else {
+			q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+			q0 = q0 > 0 ? (float) Math.sqrt(q0) : 0;
+		}
+		float sqQ1 = 2 * q1 * q1;
+		float sqQ2 = 2 * q2 * q2;
+		float sqQ3 = 2 * q3 * q3;
+		float q1Q2 = 2 * q1 * q2;
+		float q3Q0 = 2 * q3 * q0;
+		float q1Q3 = 2 * q1 * q3;
+		float q2Q0 = 2 * q2 * q0;
+		float q2Q3 = 2 * q2 * q3;
+		float q1Q0 = 2 * q1 * q0;
+		matrix[0] = 1 - sqQ2 - sqQ3;
+		matrix[1] = q1Q2 - q3Q0;
+		matrix[2] = q1Q3 + q2Q0;
+		matrix[3] = q1Q2 + q3Q0;
+		matrix[4] = 1 - sqQ1 - sqQ3;
+		matrix[5] = q2Q3 - q1Q0;
+		matrix[6] = q1Q3 - q2Q0;
+		matrix[7] = q2Q3 + q1Q0;
+		matrix[8] = 1 - sqQ1 - sqQ2;
+	}
+	
+	/**
+	 * Compute the azimuth, pitch and roll of the rotation from one 3x3 rotation matrix to another.
+	 *
+	 * @param angleChange the array of 3 floats to write the azimuth, pitch and roll into, in radians
+	 * @param matrix      the current rotation matrix
+	 * @param previous    the rotation matrix to measure from
+	 * @see android.hardware.SensorManager#getAngleChange(float[], float[], float[])
+	 */
+	public static void getAngleChange(float[] angleChange, float[] matrix, float[] previous) {
+		float rd1 = previous[0] * matrix[1] + previous[3] * matrix[4] + previous[6] * matrix[7];
+		float rd4 = previous[1] * matrix[1] + previous[4] * matrix[4] + previous[7] * matrix[7];
+		float rd6 = previous[2] * matrix[0] + previous[5] * matrix[3] + previous[8] * matrix[6];
+		float rd7 = previous[2] * matrix[1] + previous[5] * matrix[4] + previous[8] * matrix[7];
+		float rd8 = previous[2] * matrix[2] + previous[5] * matrix[5] + previous[8] * matrix[8];
+		angleChange[0] = (float) Math.atan2(rd1, rd4);
+		angleChange[1] = (float) Math.asin(-rd7);
+		angleChange[2] = (float) Math.atan2(-rd6, rd8);
+	}
+}
@@ -0,0 +1,88 @@
+package ca.tirtech.etchpad.hardware;
+
+/**
+ * Turns rotation vector sensor events into angles relative to a baseline, with a deadzone applied to pitch and roll.
+ * The first event after a {@link #reset()} becomes the baseline.
+ * <p/>
+ * All working storage is allocated up front, so processing an event does not allocate. The processor owns its output:
+ * the angles returned by {@link #getAzimuth()}, {@link #getPitch()} and {@link #getRoll()} describe the last processed
+ * event and are overwritten by the next one, so callers must copy them before processing another event. A processor
+ * must only be used from one thread at a time.
+ */
+public class RotationProcessor {
+	
+	private final float[] baseMatrix = new float[9];
+	private final float[] matrix = new float[9];
+	private final float[] angles = new float[3];
+	private boolean hasBase = false;
+	private float deadzone = 0;
+	
+	/**
+	 * Forget the baseline, so the next event becomes the new one.
+	 */
+	public void reset() {
+		hasBase = false;
+	}
+	
+	/**
+	 * Set the angle that pitch and roll must exceed before the pen moves. The deadzone is subtracted from angles
+	 * beyond it.
+	 *
+	 * @param deadzone the deadzone, in radians
+	 */
+	public void setDeadzone(float deadzone) {
+		this.deadzone = deadzone;
+	}
+	
+	/**
+	 * Process a rotation vector event.
+	 *
+	 * @param rotationVector the values of the event
+	 * @return whether the pitch or roll is outside the deadzone, meaning the pen should move
+	 */
+	public boolean process(float[] rotationVector) {
+		if (!hasBase) {
+			RotationMath.getRotationMatrixFromVector(baseMatrix, rotationVector);
+			hasBase = true;
+		}
+		RotationMath.getRotationMatrixFromVector(matrix, rotationVector);
+		RotationMath.getAngleChange(angles, matrix, baseMatrix);
+		angles[1] = applyDeadzone(angles[1]);
+		angles[2] = applyDeadzone(angles[2]);
+		return angles[1] != 0 || angles[2] != 0;
+	}
+	
+	/**
+	 * Get the azimuth of the last processed event.
+	 *
+	 * @return the rotation around the z axis, in radians
+	 */
+	public float getAzimuth() {
+		return angles[0];
+	}
+	
+	/**
+	 * Get the pitch of the last processed event, less the deadzone.
+	 *
+	 * @return the rotation around the x axis, in radians
+	 */
+	public float getPitch() {
+		return angles[1];
+	}
+	
+	/**
+	 * Get the roll of the last processed event, less the deadzone.
+	 *
+	 * @return the rotation around the y axis, in radians
+	 */
+	public float getRoll() {
+		return angles[2];
+	}
+	
+	private float applyDeadzone(float angle) {
+		if (Math.abs(angle) > deadzone) {
+			return angle - (angle > 0 ? deadzone : -deadzone);
+		}
+		return 0;
+	}
+}
@@ -5,13 +5,16 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.core.util.Consumer;
 
 import static android.content.Context.SENSOR_SERVICE;
 
 /**
- * Manages device rotation and accelerations in order to provide shake-based interactions.
+ * Manages device rotation and accelerations in order to provide shake-based interactions. Acceleration events are
+ * processed on the sensor thread of the given {@link Handler}; the shake listener is called on the main thread.
  */
 public class ShakeManager implements SensorEventListener {
 	
@@ -22,6 +25,8 @@ public class ShakeManager implements SensorEventListener {
 	
 	private final SensorManager sensorManager;
 	private final Sensor accelerometer;
+	private final Handler sensorHandler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
 	private long lastShake = 0;
 	private int shakeCount = 0;
 	private Consumer<Integer> shakeListener;
@@ -29,12 +34,14 @@ public class ShakeManager implements SensorEventListener {
 	/**
 	 * Construct a new ShakeManager for the given context.
 	 *
-	 * @param owner the context for the manager
+	 * @param owner         the context for the manager
+	 * @param sensorHandler the handler of the thread to process sensor events on
 	 */
-	public ShakeManager(Context owner) {
+	public ShakeManager(Context owner, Handler sensorHandler) {
+		this.sensorHandler = sensorHandler;
 		sensorManager = (SensorManager) owner.getSystemService(SENSOR_SERVICE);
 		accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-		sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+		sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL, sensorHandler);
 	}
 	
 	/**
@@ -70,9 +77,12 @@ public class ShakeManager implements SensorEventListener {
 				lastShake = now;
 				shakeCount++;
 				Log.i(TAG, "Shaken: " + shakeCount);
-				if (shakeListener != null) {
-					shakeListener.accept(shakeCount);
-				}
+				final int count = shakeCount;
+				mainHandler.post(() -> {
+					if (shakeListener != null) {
+						shakeListener.accept(count);
+					}
+				});
 			}
 		}
 	}
@@ -81,7 +91,7 @@ public class ShakeManager implements SensorEventListener {
 	 * Start observing shakes. This will enable sensor listeners.
 	 */
 	public void start() {
-		sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+		sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL, sensorHandler);
 	}
 	
 	/**
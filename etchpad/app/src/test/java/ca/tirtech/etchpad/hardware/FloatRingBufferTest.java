@@ -0,0 +1,68 @@
+package ca.tirtech.etchpad.hardware;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link FloatRingBuffer}.
+ */
+public class FloatRingBufferTest {
+	
+	@Test
+	public void offer_rejectsRecordsWhenFull() {
+		FloatRingBuffer buffer = new FloatRingBuffer(3, 2);
+		assertEquals(4, buffer.capacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(new float[]{i, -i}));
+		}
+		assertFalse(buffer.offer(new float[]{9, 9}));
+		float[] out = new float[2];
+		assertTrue(buffer.poll(out));
+		assertArrayEquals(new float[]{0, 0}, out, 0f);
+		assertTrue(buffer.offer(new float[]{4, -4}));
+		assertEquals(4, buffer.size());
+	}
+	
+	@Test
+	public void poll_returnsRecordsInOrderAcrossWraps() {
+		FloatRingBuffer buffer = new FloatRingBuffer(4, 3);
+		float[] out = new float[3];
+		for (int i = 0; i < 10; i++) {
+			assertTrue(buffer.offer(new float[]{i, i + 1, i + 2}));
+			assertTrue(buffer.offer(new float[]{-i, 0, 0}));
+			assertTrue(buffer.poll(out));
+			assertArrayEquals(new float[]{i, i + 1, i + 2}, out, 0f);
+			assertTrue(buffer.poll(out));
+			assertEquals(-i, out[0], 0f);
+		}
+		assertFalse(buffer.poll(out));
+	}
+	
+	@Test
+	public void poll_seesEveryRecordFromAnotherThread() throws InterruptedException {
+		final int count = 1_000_000;
+		FloatRingBuffer buffer = new FloatRingBuffer(64, 2);
+		Thread producer = new Thread(() -> {
+			float[] record = new float[2];
+			for (int i = 0; i < count; i++) {
+				record[0] = i;
+				record[1] = -i;
+				while (!buffer.offer(record)) {
+					Thread.yield();
+				}
+			}
+		});
+		producer.start();
+		float[] out = new float[2];
+		for (int i = 0; i < count; i++) {
+			while (!buffer.poll(out)) {
+				Thread.yield();
+			}
+			assertEquals(i, out[0], 0f);
+			assertEquals(-i, out[1], 0f);
+		}
+		producer.join();
+		assertEquals(0, buffer.size());
+	}
+}
@@ -0,0 +1,92 @@
+package ca.tirtech.etchpad.hardware;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RotationProcessor}.
+ */
+public class RotationProcessorTest {
+	
+	private static final int EVENTS = 100_000;
+	
+	@Test
+	public void process_measuresFromFirstEvent() {
+		RotationProcessor processor = new RotationProcessor();
+		float angle = 0.3f;
+		assertFalse(processor.process(aboutX(0.1f)));
+		assertTrue(processor.process(aboutX(0.1f + angle)));
+		assertEquals(angle, Math.abs(processor.getPitch()), 1e-4f);
+		assertEquals(0f, processor.getRoll(), 1e-4f);
+		processor.reset();
+		assertFalse(processor.process(aboutX(0.1f + angle)));
+	}
+	
+	@Test
+	public void process_subtractsDeadzone() {
+		RotationProcessor processor = new RotationProcessor();
+		processor.setDeadzone(0.1f);
+		processor.process(aboutX(0));
+		assertFalse(processor.process(aboutX(0.05f)));
+		assertEquals(0f, processor.getPitch(), 0f);
+		assertTrue(processor.process(aboutX(0.25f)));
+		assertEquals(0.15f, Math.abs(processor.getPitch()), 1e-4f);
+	}
+	
+	/**
+	 * Stream synthetic rotation vector events through the processor and the ring buffer to a primitive listener, as
+	 * {@link RotationManager} does, and check nothing is allocated.
+	 */
+	@Test
+	public void pipeline_doesNotAllocate() {
+		float[][] events = new float[256][];
+		for (int i = 0; i < events.length; i++) {
+			float t = i / (float) events.length * 6.28f;
+			events[i] = normalize((float) Math.sin(t) * 0.2f, (float) Math.cos(t * 3) * 0.2f, 0.05f, 1f);
+		}
+		RotationProcessor processor = new RotationProcessor();
+		processor.setDeadzone(0.01f);
+		FloatRingBuffer buffer = new FloatRingBuffer(64, 3);
+		float[] record = new float[3];
+		float[] delta = new float[3];
+		float[] sum = new float[1];
+		RotationListener listener = (azimuth, pitch, roll) -> sum[0] += pitch + roll;
+		
+		stream(events, processor, buffer, record, delta, listener, EVENTS);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		stream(events, processor, buffer, record, delta, listener, EVENTS);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		
+		assertEquals(0, allocated);
+		assertNotEquals(0f, sum[0]);
+	}
+	
+	private static void stream(float[][] events, RotationProcessor processor, FloatRingBuffer buffer, float[] record,
+	                           float[] delta, RotationListener listener, int count) {
+		for (int i = 0; i < count; i++) {
+			if (processor.process(events[i % events.length])) {
+				record[0] = processor.getAzimuth();
+				record[1] = processor.getPitch();
+				record[2] = processor.getRoll();
+				buffer.offer(record);
+			}
+			while (buffer.poll(delta)) {
+				listener.onRotation(delta[0], delta[1], delta[2]);
+			}
+		}
+	}
+	
+	private static float[] aboutX(float angle) {
+		return new float[]{(float) Math.sin(angle / 2), 0, 0, (float) Math.cos(angle / 2)};
+	}
+	
+	private static float[] normalize(float x, float y, float z, float w) {
+		float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+		return new float[]{x / length, y / length, z / length, w / length};
+	}
+}
@@ -0,0 +1,253 @@
+package ca.tirtech.etchpad.benchmark;
+
+import ca.tirtech.etchpad.drawingView.*;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the hot paths of the drawing model, run on drawings of 1k, 100k and 1M vertices. The drawings are
+ * random walks split into strokes of {@link #STROKE_LENGTH} vertices. They are drawn, decimated, journalled and undone
+ * through the same {@link Stroke} methods {@code DrawingLayer} uses, so only the Android side of those edits is left
+ * out.
+ * <p/>
+ * Run with {@code ./gradlew :benchmark:jmh}. Results are written as JSON to {@code build/reports/jmh/results.json}, or
+ * to the file given with {@code -Presults=<file>}, so runs from different releases can be compared.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (value = 1, jvmArgsAppend = "-Xmx2g")
+public class DrawingBenchmark {
+	
+	private static final int STROKE_LENGTH = 1000;
+	private static final int COLOR = 0xFFFF0000;
+	private static final float WIDTH = 10;
+	private static final float TOLERANCE = 0.25f;
+	
+	@Param ({"1000", "100000", "1000000"})
+	public int vertices;
+	
+	private float[] walk;
+	private List<PointStroke> strokes;
+	private EditJournal journal;
+	private String json;
+	private Path etch;
+	
+	/**
+	 * Generate the vertices of the drawing and build it, along with its journal, JSON and {@code .etch} document.
+	 *
+	 * @throws JSONException thrown if the drawing could not be converted to JSON
+	 * @throws IOException   thrown if the document could not be written
+	 */
+	@Setup (Level.Trial)
+	public void setUp() throws JSONException, IOException {
+		Random random = new Random(42);
+		walk = new float[vertices * 2];
+		float x = 0;
+		float y = 0;
+		for (int i = 0; i < vertices; i++) {
+			x += (float) random.nextGaussian() * 5;
+			y += (float) random.nextGaussian() * 5;
+			walk[i * 2] = x;
+			walk[i * 2 + 1] = y;
+		}
+		journal = new EditJournal();
+		strokes = build(journal);
+		json = LayerJson.jsonify(strokes).toString();
+		etch = Files.createTempFile("benchmark", EtchFormat.EXTENSION);
+		try (EtchWriter writer = new EtchWriter(Files.newOutputStream(etch), new int[0], strokes.size())) {
+			for (PointStroke stroke : strokes) {
+				writer.writeStroke(stroke);
+			}
+		}
+	}
+	
+	/**
+	 * Delete the {@code .etch} document.
+	 *
+	 * @throws IOException thrown if the document could not be deleted
+	 */
+	@TearDown (Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(etch);
+	}
+	
+	/**
+	 * Draw every vertex of the drawing into new strokes, decimating and journalling each as the pen does.
+	 *
+	 * @return the built strokes
+	 */
+	@Benchmark
+	public List<PointStroke> lineTo() {
+		return build(new EditJournal());
+	}
+	
+	/**
+	 * Undo the last checkpoint of the journal, then redo it so the next invocation starts from the same state.
+	 * Mirrors the model side of {@code DrawingLayer.undo()} and {@code redo()}: the appended and moved vertices of the
+	 * current stroke are reverted and its bounds recomputed.
+	 *
+	 * @return the number of vertices after the undo
+	 */
+	@Benchmark
+	public int undo() {
+		PointStroke stroke = strokes.get(strokes.size() - 1);
+		int end = journal.getPosition();
+		int target = journal.previousCheckpoint();
+		for (int i = end - 1; i >= target; i--) {
+			stroke.revert(journal, i);
+		}
+		journal.setPosition(target);
+		stroke.getTail().rebuildBounds();
+		stroke.updateBounds();
+		int remaining = stroke.getPointCount();
+		for (int i = target; i < end; i++) {
+			stroke.apply(journal, i);
+			if (stroke.getTail().isFull()) {
+				stroke.startChunk();
+			}
+		}
+		journal.setPosition(end);
+		stroke.updateBounds();
+		return remaining;
+	}
+	
+	/**
+	 * Recompute the bounds of every chunk and stroke, and the stroked bounds of the whole drawing.
+	 *
+	 * @return the bounds of the drawing
+	 */
+	@Benchmark
+	public Bounds bounds() {
+		Bounds total = null;
+		Bounds stroked = new Bounds();
+		for (PointStroke stroke : strokes) {
+			for (StrokeChunk chunk : stroke.getChunks()) {
+				chunk.rebuildBounds();
+			}
+			stroke.updateBounds();
+			stroke.computeStrokeBounds(stroked);
+			if (total == null) {
+				total = new Bounds(stroked.getLeft(), stroked.getTop(), stroked.getRight(), stroked.getBottom());
+			} else {
+				total.union(stroked);
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * Convert the drawing to a JSON string and load it back.
+	 *
+	 * @return the loaded strokes
+	 * @throws JSONException thrown if the JSON was invalid
+	 */
+	@Benchmark
+	public List<PointStroke> jsonRoundTrip() throws JSONException {
+		String text = LayerJson.jsonify(strokes).toString();
+		return objectify(new JSONObject(text));
+	}
+	
+	/**
+	 * Load the drawing from a JSON string.
+	 *
+	 * @return the loaded strokes
+	 * @throws JSONException thrown if the JSON was invalid
+	 */
+	@Benchmark
+	public List<PointStroke> objectify() throws JSONException {
+		return objectify(new JSONObject(json));
+	}
+	
+	/**
+	 * Open the {@code .etch} document for random access and decode only the chunks in a screen sized area around the
+	 * start of the walk, as the first frame of a load does.
+	 *
+	 * @return the number of vertices decoded
+	 * @throws IOException thrown if the document could not be read
+	 */
+	@Benchmark
+	public int firstFrame() throws IOException {
+		int decoded = 0;
+		try (EtchIndex index = new EtchIndex(etch)) {
+			PointStroke stroke = new PointStroke(0, 0, 0, 0);
+			for (int s = 0; s < index.getStrokeCount(); s++) {
+				int first = index.getFirstChunk(s);
+				for (int c = 0; c < index.getChunkCount(s); c++) {
+					if (index.chunkIntersects(first + c, -540, -960, 540, 960)) {
+						index.readChunks(s, c, c + 1, stroke);
+						decoded += stroke.getPointCount();
+					}
+				}
+			}
+		}
+		return decoded;
+	}
+	
+	/**
+	 * Convert the drawing to JSON as two layers, as {@code NetworkedDrawingLayer.jsonifyMerged()} does with the local
+	 * and remote layers, and merge them.
+	 *
+	 * @return the merged JSON
+	 * @throws JSONException thrown if the JSON was invalid
+	 */
+	@Benchmark
+	public JSONObject jsonifyMerged() throws JSONException {
+		int half = strokes.size() / 2;
+		JSONObject local = LayerJson.jsonify(strokes.subList(half, strokes.size()));
+		JSONObject remote = LayerJson.jsonify(strokes.subList(0, half));
+		return LayerJson.merge(local, remote);
+	}
+	
+	/**
+	 * Build the drawing from the generated vertices, drawing each through the decimator as {@code DrawingLayer} does,
+	 * and recording each edit in the journal.
+	 *
+	 * @param journal the journal to record to
+	 * @return the built strokes
+	 */
+	private List<PointStroke> build(EditJournal journal) {
+		List<PointStroke> built = new ArrayList<>(vertices / STROKE_LENGTH + 1);
+		PointStroke stroke = null;
+		for (int i = 0; i < vertices; i++) {
+			float x = walk[i * 2];
+			float y = walk[i * 2 + 1];
+			if (i % STROKE_LENGTH == 0) {
+				journal.record(EditJournal.NEW_PATH, COLOR >>> 16, COLOR & 0xFFFF, WIDTH, 0);
+				stroke = new PointStroke(COLOR, WIDTH, x, y);
+				built.add(stroke);
+			} else if (!stroke.draw(x, y, TOLERANCE, journal) && stroke.getTail().isFull()) {
+				stroke.startChunk();
+			}
+		}
+		return built;
+	}
+	
+	/**
+	 * Load the strokes of a layer from its JSON.
+	 *
+	 * @param root the JSON of the layer
+	 * @return the loaded strokes
+	 * @throws JSONException thrown if the JSON was invalid
+	 */
+	private static List<PointStroke> objectify(JSONObject root) throws JSONException {
+		JSONArray layers = root.getJSONArray(LayerJson.JSON_LAYER_PATHS);
+		List<PointStroke> loaded = new ArrayList<>(layers.length());
+		for (int i = 0; i < layers.length(); i++) {
+			loaded.add(new PointStroke(layers.getJSONObject(i)));
+		}
+		return loaded;
+	}
+}
@@ -0,0 +1,149 @@
+package ca.tirtech.etchpad.drawingView;
+
+/**
+ * An axis aligned rectangle stored as four floats, used for the bounds of strokes without depending on Android's
+ * {@code RectF}. Unlike {@code RectF}, a rectangle with no width or height is not ignored when taking a union, so
+ * the bounds of a straight horizontal or vertical line are kept.
+ */
+public final class Bounds {
+	
+	float left;
+	float top;
+	float right;
+	float bottom;
+	
+	/**
+	 * Construct bounds covering the single point at the origin.
+	 */
+	public Bounds() {
+	}
+	
+	/**
+	 * Construct bounds with the given edges.
+	 *
+	 * @param left   the left edge
+	 * @param top    the top edge
+	 * @param right  the right edge
+	 * @param bottom the bottom edge
+	 */
+	public Bounds(float left, float top, float right, float bottom) {
+		set(left, top, right, bottom);
+	}
+	
+	/**
+	 * Set the edges of the bounds.
+	 *
+	 * @param left   the left edge
+	 * @param top    the top edge
+	 * @param right  the right edge
+	 * @param bottom the bottom edge
+	 */
+	public void set(float left, float top, float right, float bottom) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+	
+	/**
+	 * Copy the edges of other bounds.
+	 *
+	 * @param other the bounds to copy
+	 */
+	public void set(Bounds other) {
+		set(other.left, other.top, other.right, other.bottom);
+	}
+	
+	/**
+	 * Grow the bounds to include a point.
+	 *
+	 * @param x the x position of the point
+	 * @param y the y position of the point
+	 */
+	public void union(float x, float y) {
+		if (x < left) {
+			left = x;
+		} else if (x > right) {
+			right = x;
+		}
+		if (y < top) {
+			top = y;
+		} else if (y > bottom) {
+			bottom = y;
+		}
+	}
+	
+	/**
+	 * Grow the bounds to include other bounds.
+	 *
+	 * @param other the bounds to include
+	 */
+	public void union(Bounds other) {
+		left = Math.min(left, other.left);
+		top = Math.min(top, other.top);
+		right = Math.max(right, other.right);
+		bottom = Math.max(bottom, other.bottom);
+	}
+	
+	/**
+	 * Move every edge of the bounds inwards. Negative values move the edges outwards.
+	 *
+	 * @param dx the distance to move the left and right edges
+	 * @param dy the distance to move the top and bottom edges
+	 */
+	public void inset(float dx, float dy) {
+		left += dx;
+		top += dy;
+		right -= dx;
+		bottom -= dy;
+	}
+	
+	/**
+	 * Check whether the bounds intersect a rectangle. Touching edges count as intersecting.
+	 *
+	 * @param left   the left edge of the rectangle
+	 * @param top    the top edge of the rectangle
+	 * @param right  the right edge of the rectangle
+	 * @param bottom the bottom edge of the rectangle
+	 * @return whether the bounds and the rectangle overlap
+	 */
+	public boolean intersects(float left, float top, float right, float bottom) {
+		return this.left <= right && left <= this.right && this.top <= bottom && top <= this.bottom;
+	}
+	
+	/**
+	 * Get the left edge of the bounds.
+	 *
+	 * @return the left edge
+	 */
+	public float getLeft() {
+		return left;
+	}
+	
+	/**
+	 * Get the top edge of the bounds.
+	 *
+	 * @return the top edge
+	 */
+	public float getTop() {
+		return top;
+	}
+	
+	/**
+	 * Get the right edge of the bounds.
+	 *
+	 * @return the right edge
+	 */
+	public float getRight() {
+		return right;
+	}
+	
+	/**
+	 * Get the bottom edge of the bounds.
+	 *
+	 * @return the bottom edge
+	 */
+	public float getBottom() {
+		return bottom;
+	}
+}
@@ -0,0 +1,358 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.util.Arrays;
+
+/**
+ * A linear history of edits made to a layer, supporting undo and redo. Each entry is a single primitive edit, such as
+ * one segment added to a line, stored as a type, four float arguments and an optional attachment. The journal does
+ * not apply edits itself; it records them and lets the owner walk backwards and forwards through them.
+ * <p/>
+ * Checkpoints mark the positions that a normal undo or redo stops at. One is placed before every edit that is not a
+ * line segment, and every {@link #getCheckpointInterval()} segments along a line, so a long continuous line is undone
+ * in pieces. Checkpoints are kept in a sorted array, so finding the nearest one does not scan the history.
+ * <p/>
+ * Entries are stored in primitive arrays. When the journal grows past its memory limit, the oldest entries are
+ * collapsed: they are dropped and their edits become part of the base state that can no longer be undone.
+ * <p/>
+ * A mark records where a copy of the history kept elsewhere begins, such as a log of edits replayed onto a saved
+ * snapshot. See {@link #mark()}.
+ */
+public class EditJournal {
+	
+	/**
+	 * A point was added to the current line. Arguments: x, y.
+	 */
+	public static final byte APPEND = 0;
+	/**
+	 * The last point of the current line was moved. Arguments: old x, old y, new x, new y.
+	 */
+	public static final byte MOVE = 1;
+	/**
+	 * A new line was started. Arguments: high and low 16 bits of the color, stroke width.
+	 */
+	public static final byte NEW_PATH = 2;
+	/**
+	 * The stroke width of the current line was changed. Arguments: old width, new width.
+	 */
+	public static final byte PAINT_SIZE = 3;
+	/**
+	 * The layer was cleared. Arguments: old x and y transformation, x and y of the new pen position. Attachment: the
+	 * cleared content.
+	 */
+	public static final byte CLEAR = 4;
+	
+	private static final int ARGS = 4;
+	private static final long ENTRY_BYTES = 1 + ARGS * 4 + 4 + 8;
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 128;
+	private static final long DEFAULT_MEMORY_LIMIT = 4 * 1024 * 1024;
+	private byte[] types = new byte[64];
+	private float[] args = new float[64 * ARGS];
+	private Object[] attachments = new Object[64];
+	private long[] attachmentBytes = new long[64];
+	private int size = 0;
+	private int position = 0;
+	private int[] checkpoints = new int[16];
+	private int checkpointCount = 0;
+	private int segmentsSinceCheckpoint = 0;
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+	private long memoryUsage = 0;
+	private int markStart = 0;
+	private int markEnd = 0;
+	
+	/**
+	 * Record a new edit at the current position. Any edits that were undone are discarded, and the oldest edits are
+	 * collapsed if the journal is over its memory limit.
+	 *
+	 * @param type            the type of edit
+	 * @param a               the first argument
+	 * @param b               the second argument
+	 * @param c               the third argument
+	 * @param d               the fourth argument
+	 * @param attachment      an object the edit needs to be undone, or null
+	 * @param attachmentBytes the approximate size of the attachment in bytes
+	 */
+	public void record(byte type, float a, float b, float c, float d, Object attachment, long attachmentBytes) {
+		truncate();
+		if (position >= markStart && position <= markEnd) {
+			markEnd = position + 1;
+		}
+		if (type == APPEND || type == MOVE) {
+			if (segmentsSinceCheckpoint >= checkpointInterval) {
+				addCheckpoint();
+			}
+			segmentsSinceCheckpoint++;
+		} else {
+			addCheckpoint();
+		}
+		if (size == types.length) {
+			int capacity = size + (size >> 1);
+			types = Arrays.copyOf(types, capacity);
+			args = Arrays.copyOf(args, capacity * ARGS);
+			attachments = Arrays.copyOf(attachments, capacity);
+			this.attachmentBytes = Arrays.copyOf(this.attachmentBytes, capacity);
+		}
+		types[size] = type;
+		args[size * ARGS] = a;
+		args[size * ARGS + 1] = b;
+		args[size * ARGS + 2] = c;
+		args[size * ARGS + 3] = d;
+		attachments[size] = attachment;
+		this.attachmentBytes[size] = attachmentBytes;
+		memoryUsage += ENTRY_BYTES + attachmentBytes;
+		size++;
+		position = size;
+		if (memoryUsage > memoryLimit) {
+			collapse(memoryLimit * 3 / 4);
+		}
+	}
+	
+	/**
+	 * Record a new edit that has no attachment.
+	 *
+	 * @param type the type of edit
+	 * @param a    the first argument
+	 * @param b    the second argument
+	 * @param c    the third argument
+	 * @param d    the fourth argument
+	 */
+	public void record(byte type, float a, float b, float c, float d) {
+		record(type, a, b, c, d, null, 0);
+	}
+	
+	/**
+	 * Update the new stroke width of the last edit if it was a {@link #PAINT_SIZE} and nothing has been undone since.
+	 * Lets a continuous change of size, such as dragging a slider, be kept as a single edit.
+	 *
+	 * @param size the new stroke width
+	 * @return whether the last edit was updated
+	 */
+	public boolean amendPaintSize(float size) {
+		if (position == 0 || position != this.size || types[position - 1] != PAINT_SIZE) return false;
+		args[(position - 1) * ARGS + 1] = size;
+		return true;
+	}
+	
+	/**
+	 * Get the type of an edit.
+	 *
+	 * @param index the index of the edit
+	 * @return the type of the edit
+	 */
+	public byte getType(int index) {
+		return types[checkIndex(index)];
+	}
+	
+	/**
+	 * Get an argument of an edit.
+	 *
+	 * @param index the index of the edit
+	 * @param arg   the argument, from 0 to 3
+	 * @return the value of the argument
+	 */
+	public float getArg(int index, int arg) {
+		return args[checkIndex(index) * ARGS + arg];
+	}
+	
+	/**
+	 * Get the attachment of an edit.
+	 *
+	 * @param index the index of the edit
+	 * @return the attachment, or null if the edit has none
+	 */
+	public Object getAttachment(int index) {
+		return attachments[checkIndex(index)];
+	}
+	
+	/**
+	 * Get the number of edits that are currently applied. The edit at {@code getPosition() - 1} is the next to undo,
+	 * and the edit at {@code getPosition()} is the next to redo.
+	 *
+	 * @return the current position in the journal
+	 */
+	public int getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Move the current position. Callers must apply or revert the edits between the old and new positions.
+	 *
+	 * @param position the new position, between 0 and {@link #size()}
+	 */
+	public void setPosition(int position) {
+		if (position < 0 || position > size) {
+			throw new IndexOutOfBoundsException("Position " + position + " out of range 0.." + size);
+		}
+		this.position = position;
+		segmentsSinceCheckpoint = 0;
+	}
+	
+	/**
+	 * Get the number of edits in the journal, including those that were undone.
+	 *
+	 * @return the number of edits
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Find the last checkpoint before the current position.
+	 *
+	 * @return the position of the checkpoint, or 0 if there is none
+	 */
+	public int previousCheckpoint() {
+		int i = Arrays.binarySearch(checkpoints, 0, checkpointCount, position);
+		i = i >= 0 ? i - 1 : -i - 2;
+		return i >= 0 ? checkpoints[i] : 0;
+	}
+	
+	/**
+	 * Find the first checkpoint after the current position.
+	 *
+	 * @return the position of the checkpoint, or {@link #size()} if there is none
+	 */
+	public int nextCheckpoint() {
+		int i = Arrays.binarySearch(checkpoints, 0, checkpointCount, position);
+		i = i >= 0 ? i + 1 : -i - 1;
+		return i < checkpointCount ? checkpoints[i] : size;
+	}
+	
+	/**
+	 * Discard every edit after the current position, so they can no longer be redone.
+	 */
+	public void truncate() {
+		for (int i = position; i < size; i++) {
+			memoryUsage -= ENTRY_BYTES + attachmentBytes[i];
+			attachments[i] = null;
+		}
+		size = position;
+		markEnd = Math.min(markEnd, size);
+		while (checkpointCount > 0 && checkpoints[checkpointCount - 1] > position) {
+			checkpointCount--;
+		}
+	}
+	
+	/**
+	 * Remove every edit from the journal.
+	 */
+	public void clear() {
+		Arrays.fill(attachments, 0, size, null);
+		size = 0;
+		position = 0;
+		checkpointCount = 0;
+		segmentsSinceCheckpoint = 0;
+		memoryUsage = 0;
+		markStart = 0;
+		markEnd = 0;
+	}
+	
+	/**
+	 * Mark the current position as the start of a copy of the history kept elsewhere, which only holds the edits
+	 * recorded after the mark. Undo and redo can be repeated on the copy as long as the position stays between the
+	 * mark and the last edit recorded since; see {@link #isWithinMark(int)}. Edits that were undone before the mark
+	 * are not part of the copy, so redoing them leaves it.
+	 */
+	public void mark() {
+		markStart = position;
+		markEnd = position;
+	}
+	
+	/**
+	 * Check whether a position can be reached in the copy of the history started by {@link #mark()}. A fresh or
+	 * cleared journal is marked at its start.
+	 *
+	 * @param position the position to check
+	 * @return whether the position is between the mark and the last edit recorded since
+	 */
+	public boolean isWithinMark(int position) {
+		return position >= markStart && position <= markEnd;
+	}
+	
+	/**
+	 * Get the number of line segments between automatic checkpoints.
+	 *
+	 * @return the checkpoint interval
+	 */
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+	
+	/**
+	 * Set the number of line segments between automatic checkpoints.
+	 *
+	 * @param interval the checkpoint interval
+	 */
+	public void setCheckpointInterval(int interval) {
+		this.checkpointInterval = Math.max(1, interval);
+	}
+	
+	/**
+	 * Set the approximate number of bytes the journal may use. The oldest edits are collapsed if the journal is over
+	 * the new limit.
+	 *
+	 * @param bytes the memory limit
+	 */
+	public void setMemoryLimit(long bytes) {
+		this.memoryLimit = bytes;
+		if (memoryUsage > memoryLimit) {
+			collapse(memoryLimit * 3 / 4);
+		}
+	}
+	
+	/**
+	 * Get the approximate number of bytes used by the journal, including attachments.
+	 *
+	 * @return the memory used by the journal
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+	
+	/**
+	 * Drop the oldest applied edits until the journal uses no more than the given number of bytes. Edits that have been
+	 * undone are never dropped this way.
+	 *
+	 * @param target the memory to reduce usage to
+	 */
+	private void collapse(long target) {
+		int dropped = 0;
+		while (dropped < position && memoryUsage > target) {
+			memoryUsage -= ENTRY_BYTES + attachmentBytes[dropped];
+			dropped++;
+		}
+		if (dropped == 0) return;
+		System.arraycopy(types, dropped, types, 0, size - dropped);
+		System.arraycopy(args, dropped * ARGS, args, 0, (size - dropped) * ARGS);
+		System.arraycopy(attachments, dropped, attachments, 0, size - dropped);
+		System.arraycopy(attachmentBytes, dropped, attachmentBytes, 0, size - dropped);
+		Arrays.fill(attachments, size - dropped, size, null);
+		size -= dropped;
+		position -= dropped;
+		markStart = Math.max(0, markStart - dropped);
+		markEnd = Math.max(0, markEnd - dropped);
+		int kept = 0;
+		for (int i = 0; i < checkpointCount; i++) {
+			if (checkpoints[i] > dropped) {
+				checkpoints[kept++] = checkpoints[i] - dropped;
+			}
+		}
+		checkpointCount = kept;
+	}
+	
+	private void addCheckpoint() {
+		segmentsSinceCheckpoint = 0;
+		if (checkpointCount > 0 && checkpoints[checkpointCount - 1] == position) return;
+		if (checkpointCount == checkpoints.length) {
+			checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+		}
+		checkpoints[checkpointCount++] = position;
+	}
+	
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of range 0.." + size);
+		}
+		return index;
+	}
+}
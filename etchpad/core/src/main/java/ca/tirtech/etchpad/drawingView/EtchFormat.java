@@ -0,0 +1,88 @@
+package ca.tirtech.etchpad.drawingView;
+
+/**
+ * Constants of the binary {@code .etch} drawing format, written by {@link EtchWriter} and read by {@link EtchReader}
+ * or, from version 2, opened for random access by {@link EtchIndex}.
+ * <p/>
+ * A file is laid out as follows, where {@code varint} is an unsigned LEB128 integer, {@code svarint} is a zigzag
+ * encoded signed varint and {@code int32}, {@code int64} and {@code float32} are big-endian:
+ * <pre>
+ * header:  "ETCH" | version: byte | quantum: varint | palette size: varint | palette colors: int32...
+ *          | stroke count: varint
+ * stroke:  color: int32 | width: float32 bits as int32 | head x, y: svarint | chunk count: varint | chunk...
+ * chunk:   vertex count: varint | first vertex x, y: svarint | deltas to each following vertex x, y: svarint...
+ * table:   per stroke: stroke offset: int64 | first chunk: int32 | chunk count: int32
+ *          then per chunk: chunk offset: int64 | left, top, right, bottom: float32
+ * trailer: table offset: int64 | chunk count: int32 | "ETCT"
+ * </pre>
+ * Coordinates are quantized to {@code 1 / quantum} of a pixel. Vertices are stored as the difference from the
+ * vertex before them, so the short segments of a line take one or two bytes per coordinate. Each chunk starts from
+ * an absolute vertex, repeating the last vertex of the chunk before it, so any chunk can be decoded on its own. The
+ * table at the end gives the offset of every stroke and chunk and the bounds of every chunk, so a reader can decode
+ * only the chunks in view.
+ * <p/>
+ * Version 1 files have no table, and store each stroke as a vertex count and a single run of deltas in place of its
+ * chunks.
+ */
+public final class EtchFormat {
+	
+	/**
+	 * The bytes every {@code .etch} file starts with.
+	 */
+	public static final byte[] MAGIC = {'E', 'T', 'C', 'H'};
+	/**
+	 * The version of the format written by {@link EtchWriter}.
+	 */
+	public static final int VERSION = 2;
+	/**
+	 * The first version with chunks and a chunk table.
+	 */
+	public static final int VERSION_INDEXED = 2;
+	/**
+	 * The number of steps per pixel coordinates are quantized to when writing.
+	 */
+	public static final int QUANTUM = 16;
+	/**
+	 * The file extension of the format.
+	 */
+	public static final String EXTENSION = ".etch";
+	/**
+	 * The bytes every version 2 file ends with.
+	 */
+	static final byte[] TRAILER_MAGIC = {'E', 'T', 'C', 'T'};
+	/**
+	 * The size of the trailer.
+	 */
+	static final int TRAILER_BYTES = 16;
+	/**
+	 * The size of the table entry of a stroke.
+	 */
+	static final int STROKE_ENTRY_BYTES = 16;
+	/**
+	 * The size of the table entry of a chunk.
+	 */
+	static final int CHUNK_ENTRY_BYTES = 24;
+	
+	private EtchFormat() {
+	}
+	
+	/**
+	 * Zigzag encode a signed integer, so that numbers close to zero have small encodings.
+	 *
+	 * @param n the integer to encode
+	 * @return the encoded integer
+	 */
+	static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+	
+	/**
+	 * Decode a zigzag encoded integer.
+	 *
+	 * @param n the encoded integer
+	 * @return the decoded integer
+	 */
+	static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+}
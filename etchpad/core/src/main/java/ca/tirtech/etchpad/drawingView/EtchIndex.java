@@ -0,0 +1,278 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Random access to a version 2 {@code .etch} document, as described in {@link EtchFormat}. The file is memory-mapped
+ * and only its header, trailer and chunk table are read when it is opened, so opening does not depend on the size of
+ * the drawing. Strokes, or any run of their chunks, are then decoded on demand straight from the mapping, which lets a
+ * viewer show the chunks in view before the rest of the document has been read.
+ * <p/>
+ * Decoding does not change the state of the index, so strokes may be read from several threads at once.
+ */
+public class EtchIndex implements Closeable {
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final float quantum;
+	private final int[] palette;
+	private final int strokeCount;
+	private final int chunkCount;
+	private final int strokeTable;
+	private final int chunkTable;
+	
+	/**
+	 * Open a document for random access. The header, trailer and table are read immediately.
+	 *
+	 * @param file the document to open
+	 * @throws IOException error reading the file, or the file is not an indexed {@code .etch} document
+	 */
+	public EtchIndex(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Document too large to map: " + size + " bytes");
+			}
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			ByteBuffer in = map.duplicate();
+			byte[] magic = new byte[EtchFormat.MAGIC.length];
+			in.get(magic);
+			if (!Arrays.equals(magic, EtchFormat.MAGIC)) {
+				throw new IOException("Not an .etch document");
+			}
+			int version = in.get() & 0xFF;
+			if (version < EtchFormat.VERSION_INDEXED || version > EtchFormat.VERSION) {
+				throw new IOException("Unsupported .etch version for random access " + version);
+			}
+			quantum = readVarint(in);
+			if (quantum <= 0) {
+				throw new IOException("Invalid quantum " + quantum);
+			}
+			palette = new int[readVarint(in)];
+			for (int i = 0; i < palette.length; i++) {
+				palette[i] = in.getInt();
+			}
+			strokeCount = readVarint(in);
+			
+			in.position((int) size - EtchFormat.TRAILER_BYTES);
+			long tableOffset = in.getLong();
+			chunkCount = in.getInt();
+			in.get(magic);
+			if (!Arrays.equals(magic, EtchFormat.TRAILER_MAGIC)) {
+				throw new IOException("The .etch document has no chunk table");
+			}
+			long tableBytes = (long) strokeCount * EtchFormat.STROKE_ENTRY_BYTES + (long) chunkCount * EtchFormat.CHUNK_ENTRY_BYTES;
+			if (chunkCount < 0 || tableOffset < 0 || tableOffset + tableBytes != size - EtchFormat.TRAILER_BYTES) {
+				throw new IOException("Malformed .etch chunk table");
+			}
+			strokeTable = (int) tableOffset;
+			chunkTable = strokeTable + strokeCount * EtchFormat.STROKE_ENTRY_BYTES;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			if (e instanceof IOException) throw (IOException) e;
+			throw new IOException("Malformed .etch document", e);
+		}
+	}
+	
+	/**
+	 * Check whether a file is a {@code .etch} document that can be opened for random access, from its header alone.
+	 *
+	 * @param file the file to check
+	 * @return true if the file is a version 2 or later document
+	 * @throws IOException error reading the file
+	 */
+	public static boolean isIndexed(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(EtchFormat.MAGIC.length + 1);
+			while (header.hasRemaining() && channel.read(header) >= 0) ;
+			if (header.hasRemaining()) return false;
+			byte[] magic = Arrays.copyOf(header.array(), EtchFormat.MAGIC.length);
+			int version = header.get(EtchFormat.MAGIC.length) & 0xFF;
+			return Arrays.equals(magic, EtchFormat.MAGIC) && version >= EtchFormat.VERSION_INDEXED && version <= EtchFormat.VERSION;
+		}
+	}
+	
+	/**
+	 * Get the colors of the palette stored in the document.
+	 *
+	 * @return the palette colors
+	 */
+	public int[] getPalette() {
+		return palette;
+	}
+	
+	/**
+	 * Get the number of strokes in the document.
+	 *
+	 * @return the number of strokes
+	 */
+	public int getStrokeCount() {
+		return strokeCount;
+	}
+	
+	/**
+	 * Get the number of chunks of every stroke in the document.
+	 *
+	 * @return the number of chunks
+	 */
+	public int getChunkCount() {
+		return chunkCount;
+	}
+	
+	/**
+	 * Get the index of the first chunk of a stroke, among the chunks of the whole document.
+	 *
+	 * @param stroke the index of the stroke
+	 * @return the index of its first chunk
+	 */
+	public int getFirstChunk(int stroke) {
+		return map.getInt(strokeEntry(stroke) + 8);
+	}
+	
+	/**
+	 * Get the number of chunks of a stroke.
+	 *
+	 * @param stroke the index of the stroke
+	 * @return the number of chunks of the stroke
+	 */
+	public int getChunkCount(int stroke) {
+		return map.getInt(strokeEntry(stroke) + 12);
+	}
+	
+	/**
+	 * Get the width of a stroke, without decoding its vertices.
+	 *
+	 * @param stroke the index of the stroke
+	 * @return the width of the stroke
+	 * @throws IOException the stroke is malformed
+	 */
+	public float getStrokeWidth(int stroke) throws IOException {
+		return Float.intBitsToFloat(map.getInt(offset(map.getLong(strokeEntry(stroke))) + 4));
+	}
+	
+	/**
+	 * Check whether the vertices of a chunk may lie inside an area, from the bounds stored in the table.
+	 *
+	 * @param chunk  the index of the chunk, among the chunks of the whole document
+	 * @param left   the left edge of the area
+	 * @param top    the top edge of the area
+	 * @param right  the right edge of the area
+	 * @param bottom the bottom edge of the area
+	 * @return true if the bounds of the chunk intersect the area
+	 */
+	public boolean chunkIntersects(int chunk, float left, float top, float right, float bottom) {
+		int entry = chunkEntry(chunk) + 8;
+		return map.getFloat(entry) <= right && map.getFloat(entry + 4) <= bottom
+				&& map.getFloat(entry + 8) >= left && map.getFloat(entry + 12) >= top;
+	}
+	
+	/**
+	 * Decode a whole stroke, replacing the contents of the given stroke.
+	 *
+	 * @param stroke the index of the stroke
+	 * @param into   the stroke to load the vertices into
+	 * @throws IOException the stroke is malformed
+	 */
+	public void readStroke(int stroke, Stroke<?> into) throws IOException {
+		readChunks(stroke, 0, getChunkCount(stroke), into);
+	}
+	
+	/**
+	 * Decode a run of consecutive chunks of a stroke, replacing the contents of the given stroke. If the run ends with
+	 * the last chunk, the head of the loaded stroke is the head of the stored stroke; otherwise it is the last vertex
+	 * of the run.
+	 *
+	 * @param stroke the index of the stroke
+	 * @param from   the index of the first chunk to decode, within the stroke
+	 * @param to     the index after the last chunk to decode, within the stroke
+	 * @param into   the stroke to load the vertices into
+	 * @throws IOException the stroke is malformed
+	 */
+	public void readChunks(int stroke, int from, int to, Stroke<?> into) throws IOException {
+		int chunks = getChunkCount(stroke);
+		if (from < 0 || to > chunks || from >= to) {
+			throw new IndexOutOfBoundsException("Chunks " + from + " to " + to + " of a stroke with " + chunks);
+		}
+		try {
+			ByteBuffer in = map.duplicate();
+			in.position(offset(map.getLong(strokeEntry(stroke))));
+			int color = in.getInt();
+			float width = Float.intBitsToFloat(in.getInt());
+			float headX = EtchFormat.unzigzag(readVarint(in)) / quantum;
+			float headY = EtchFormat.unzigzag(readVarint(in)) / quantum;
+			int first = getFirstChunk(stroke);
+			int x = 0;
+			int y = 0;
+			for (int c = from; c < to; c++) {
+				in.position(offset(map.getLong(chunkEntry(first + c))));
+				int count = readVarint(in);
+				x = EtchFormat.unzigzag(readVarint(in));
+				y = EtchFormat.unzigzag(readVarint(in));
+				if (c == from) {
+					into.start(color, width, headX, headY, x / quantum, y / quantum);
+				}
+				for (int i = 1; i < count; i++) {
+					x += EtchFormat.unzigzag(readVarint(in));
+					y += EtchFormat.unzigzag(readVarint(in));
+					into.lineTo(x / quantum, y / quantum);
+				}
+			}
+			if (to < chunks) {
+				into.x = x / quantum;
+				into.y = y / quantum;
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Malformed stroke " + stroke, e);
+		}
+	}
+	
+	/**
+	 * Unmap the document and close the file. The mapping itself is released once it is no longer referenced.
+	 *
+	 * @throws IOException error closing the file
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private int strokeEntry(int stroke) {
+		if (stroke < 0 || stroke >= strokeCount) {
+			throw new IndexOutOfBoundsException("Stroke " + stroke + " of " + strokeCount);
+		}
+		return strokeTable + stroke * EtchFormat.STROKE_ENTRY_BYTES;
+	}
+	
+	private int chunkEntry(int chunk) {
+		if (chunk < 0 || chunk >= chunkCount) {
+			throw new IndexOutOfBoundsException("Chunk " + chunk + " of " + chunkCount);
+		}
+		return chunkTable + chunk * EtchFormat.CHUNK_ENTRY_BYTES;
+	}
+	
+	private int offset(long offset) throws IOException {
+		if (offset < 0 || offset >= strokeTable) {
+			throw new IOException("Offset " + offset + " outside the .etch stroke data");
+		}
+		return (int) offset;
+	}
+	
+	private static int readVarint(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
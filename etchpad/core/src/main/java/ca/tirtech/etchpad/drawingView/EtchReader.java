@@ -0,0 +1,172 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming decoder for the binary {@code .etch} drawing format described in {@link EtchFormat}. The header is read
+ * when the reader is created. Strokes are then decoded one at a time by {@link #readStroke(Stroke)}, straight into the
+ * stroke's own storage, so no more than a small buffer is held besides the strokes themselves. The chunk table of
+ * version 2 files is not needed to read them in order, and is skipped.
+ */
+public class EtchReader implements Closeable {
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private final int version;
+	private final float quantum;
+	private final int[] palette;
+	private final int strokeCount;
+	private int strokesRead = 0;
+	
+	/**
+	 * Start reading a document. The header is read immediately.
+	 *
+	 * @param in the stream to read the document from
+	 * @throws IOException error reading from the stream, or the stream is not a supported {@code .etch} document
+	 */
+	public EtchReader(InputStream in) throws IOException {
+		this.in = in;
+		byte[] magic = new byte[EtchFormat.MAGIC.length];
+		for (int i = 0; i < magic.length; i++) {
+			magic[i] = (byte) readByte();
+		}
+		if (!Arrays.equals(magic, EtchFormat.MAGIC)) {
+			throw new IOException("Not an .etch document");
+		}
+		version = readByte();
+		if (version < 1 || version > EtchFormat.VERSION) {
+			throw new IOException("Unsupported .etch version " + version);
+		}
+		quantum = readVarint();
+		if (quantum <= 0) {
+			throw new IOException("Invalid quantum " + quantum);
+		}
+		palette = new int[readVarint()];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = readInt();
+		}
+		strokeCount = readVarint();
+	}
+	
+	/**
+	 * Get the version of the format the document was written with.
+	 *
+	 * @return the format version
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Get the colors of the palette stored in the document.
+	 *
+	 * @return the palette colors
+	 */
+	public int[] getPalette() {
+		return palette;
+	}
+	
+	/**
+	 * Get the number of strokes in the document.
+	 *
+	 * @return the number of strokes
+	 */
+	public int getStrokeCount() {
+		return strokeCount;
+	}
+	
+	/**
+	 * Read the next stroke of the document, replacing the contents of the given stroke.
+	 *
+	 * @param into the stroke to load the vertices into
+	 * @throws IOException error reading from the stream, or every stroke has already been read
+	 */
+	public void readStroke(Stroke<?> into) throws IOException {
+		if (strokesRead == strokeCount) {
+			throw new IOException("All " + strokeCount + " strokes have already been read");
+		}
+		int color = readInt();
+		float width = Float.intBitsToFloat(readInt());
+		float headX = EtchFormat.unzigzag(readVarint()) / quantum;
+		float headY = EtchFormat.unzigzag(readVarint()) / quantum;
+		if (version < EtchFormat.VERSION_INDEXED) {
+			int count = readVarint();
+			int x = EtchFormat.unzigzag(readVarint());
+			int y = EtchFormat.unzigzag(readVarint());
+			into.start(color, width, headX, headY, x / quantum, y / quantum);
+			readDeltas(count - 1, x, y, into);
+		} else {
+			int chunks = readVarint();
+			for (int c = 0; c < chunks; c++) {
+				int count = readVarint();
+				int x = EtchFormat.unzigzag(readVarint());
+				int y = EtchFormat.unzigzag(readVarint());
+				if (c == 0) {
+					into.start(color, width, headX, headY, x / quantum, y / quantum);
+				}
+				readDeltas(count - 1, x, y, into);
+			}
+		}
+		strokesRead++;
+	}
+	
+	/**
+	 * Decode a run of vertex deltas, adding each vertex to the end of a stroke.
+	 *
+	 * @param count the number of deltas
+	 * @param x     the quantized x position of the vertex before the first delta
+	 * @param y     the quantized y position of the vertex before the first delta
+	 * @param into  the stroke to add the vertices to
+	 * @throws IOException error reading from the stream
+	 */
+	private void readDeltas(int count, int x, int y, Stroke<?> into) throws IOException {
+		for (int i = 0; i < count; i++) {
+			x += EtchFormat.unzigzag(readVarint());
+			y += EtchFormat.unzigzag(readVarint());
+			into.lineTo(x / quantum, y / quantum);
+		}
+	}
+	
+	/**
+	 * Close the underlying stream.
+	 *
+	 * @throws IOException error closing the stream
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	private int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	private int readInt() throws IOException {
+		return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+	}
+	
+	private int readByte() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, BUFFER_SIZE);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				throw new EOFException("Unexpected end of .etch document");
+			}
+		}
+		return buffer[position++] & 0xFF;
+	}
+}
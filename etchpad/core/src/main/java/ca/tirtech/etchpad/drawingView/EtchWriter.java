@@ -0,0 +1,213 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming encoder for the binary {@code .etch} drawing format described in {@link EtchFormat}. The header is written
+ * when the writer is created, and each stroke is encoded and written as it is passed to {@link #writeStroke(Stroke)},
+ * so only a small buffer is held in memory no matter how large the drawing is. The offsets and bounds of the strokes
+ * and chunks are collected as they are written, and the chunk table is written when the writer is closed.
+ */
+public class EtchWriter implements Closeable {
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final int strokeCount;
+	private int position = 0;
+	private int strokesWritten = 0;
+	private long flushed = 0;
+	private long[] strokeOffsets = new long[16];
+	private int[] strokeChunks = new int[16];
+	private long[] chunkOffsets = new long[64];
+	private float[] chunkBounds = new float[64 * 4];
+	private int chunkCount = 0;
+	
+	/**
+	 * Start a new document. The header is written immediately.
+	 *
+	 * @param out         the stream to write the document to
+	 * @param palette     the colors of the palette
+	 * @param strokeCount the number of strokes that will be written
+	 * @throws IOException error writing to the stream
+	 */
+	public EtchWriter(OutputStream out, int[] palette, int strokeCount) throws IOException {
+		this.out = out;
+		this.strokeCount = strokeCount;
+		for (byte b : EtchFormat.MAGIC) {
+			writeByte(b);
+		}
+		writeByte(EtchFormat.VERSION);
+		writeVarint(EtchFormat.QUANTUM);
+		writeVarint(palette.length);
+		for (int color : palette) {
+			writeInt(color);
+		}
+		writeVarint(strokeCount);
+	}
+	
+	/**
+	 * Write the next stroke of the document.
+	 *
+	 * @param stroke the stroke to write
+	 * @throws IOException error writing to the stream
+	 */
+	public void writeStroke(Stroke<?> stroke) throws IOException {
+		if (strokesWritten == strokeCount) {
+			throw new IllegalStateException("All " + strokeCount + " strokes have already been written");
+		}
+		if (strokesWritten == strokeOffsets.length) {
+			strokeOffsets = Arrays.copyOf(strokeOffsets, strokesWritten * 2);
+			strokeChunks = Arrays.copyOf(strokeChunks, strokesWritten * 2);
+		}
+		strokeOffsets[strokesWritten] = offset();
+		strokeChunks[strokesWritten] = stroke.chunks.size();
+		writeInt(stroke.color);
+		writeInt(Float.floatToIntBits(stroke.width));
+		writeVarint(EtchFormat.zigzag(quantize(stroke.x)));
+		writeVarint(EtchFormat.zigzag(quantize(stroke.y)));
+		writeVarint(stroke.chunks.size());
+		for (int c = 0; c < stroke.chunks.size(); c++) {
+			writeChunk(stroke.chunks.get(c).points);
+		}
+		strokesWritten++;
+	}
+	
+	/**
+	 * Write the vertices of a chunk, starting from its first vertex, and record its offset and quantized bounds for
+	 * the chunk table.
+	 *
+	 * @param points the vertices of the chunk
+	 * @throws IOException error writing to the stream
+	 */
+	private void writeChunk(PointBuffer points) throws IOException {
+		if (chunkCount == chunkOffsets.length) {
+			chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+			chunkBounds = Arrays.copyOf(chunkBounds, chunkCount * 2 * 4);
+		}
+		chunkOffsets[chunkCount] = offset();
+		float[] raw = points.getRawPoints();
+		writeVarint(points.size());
+		int lastX = 0;
+		int lastY = 0;
+		int left = Integer.MAX_VALUE;
+		int top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		for (int i = 0; i < points.size(); i++) {
+			int x = quantize(raw[i * 2]);
+			int y = quantize(raw[i * 2 + 1]);
+			writeVarint(EtchFormat.zigzag(x - lastX));
+			writeVarint(EtchFormat.zigzag(y - lastY));
+			lastX = x;
+			lastY = y;
+			left = Math.min(left, x);
+			top = Math.min(top, y);
+			right = Math.max(right, x);
+			bottom = Math.max(bottom, y);
+		}
+		float quantum = EtchFormat.QUANTUM;
+		chunkBounds[chunkCount * 4] = left / quantum;
+		chunkBounds[chunkCount * 4 + 1] = top / quantum;
+		chunkBounds[chunkCount * 4 + 2] = right / quantum;
+		chunkBounds[chunkCount * 4 + 3] = bottom / quantum;
+		chunkCount++;
+	}
+	
+	/**
+	 * Finish the document by writing its chunk table and trailer, and close the underlying stream.
+	 *
+	 * @throws IOException error writing to the stream, or fewer strokes were written than the header declared
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (strokesWritten != strokeCount) {
+				throw new IOException("Only " + strokesWritten + " of " + strokeCount + " strokes were written");
+			}
+			long tableOffset = offset();
+			int firstChunk = 0;
+			for (int i = 0; i < strokesWritten; i++) {
+				writeLong(strokeOffsets[i]);
+				writeInt(firstChunk);
+				writeInt(strokeChunks[i]);
+				firstChunk += strokeChunks[i];
+			}
+			for (int i = 0; i < chunkCount; i++) {
+				writeLong(chunkOffsets[i]);
+				for (int b = 0; b < 4; b++) {
+					writeInt(Float.floatToIntBits(chunkBounds[i * 4 + b]));
+				}
+			}
+			writeLong(tableOffset);
+			writeInt(chunkCount);
+			for (byte b : EtchFormat.TRAILER_MAGIC) {
+				writeByte(b);
+			}
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Convert a coordinate to a whole number of quantization steps.
+	 *
+	 * @param value the coordinate
+	 * @return the quantized coordinate
+	 */
+	private static int quantize(float value) {
+		return Math.round(value * EtchFormat.QUANTUM);
+	}
+	
+	/**
+	 * Get the offset in the document of the next byte to be written.
+	 *
+	 * @return the offset of the next byte
+	 */
+	private long offset() {
+		return flushed + position;
+	}
+	
+	private void writeVarint(int value) throws IOException {
+		if (position > BUFFER_SIZE - 5) {
+			flush();
+		}
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) (value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+	
+	private void writeInt(int value) throws IOException {
+		if (position > BUFFER_SIZE - 4) {
+			flush();
+		}
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+	
+	private void writeLong(long value) throws IOException {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+	
+	private void writeByte(int value) throws IOException {
+		if (position == BUFFER_SIZE) {
+			flush();
+		}
+		buffer[position++] = (byte) value;
+	}
+	
+	private void flush() throws IOException {
+		out.write(buffer, 0, position);
+		flushed += position;
+		position = 0;
+	}
+}
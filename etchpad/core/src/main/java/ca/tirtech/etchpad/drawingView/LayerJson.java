@@ -0,0 +1,57 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Conversion of whole layers of {@link Stroke}s to and from JSON. A layer is written as an object holding the list of
+ * its strokes, oldest first, under {@link #JSON_LAYER_PATHS}.
+ */
+public final class LayerJson {
+	
+	public static final String JSON_LAYER_PATHS = "layer_paths";
+	
+	private LayerJson() {
+	}
+	
+	/**
+	 * Convert a list of strokes into the JSON representation of a layer.
+	 *
+	 * @param strokes the strokes of the layer, oldest first
+	 * @return the JSON representation of the layer
+	 * @throws JSONException thrown if instance values were not valid JSON types
+	 */
+	public static JSONObject jsonify(Iterable<? extends Stroke<?>> strokes) throws JSONException {
+		JSONObject root = new JSONObject();
+		JSONArray layers = new JSONArray();
+		for (Stroke<?> stroke : strokes) {
+			layers.put(stroke.jsonify());
+		}
+		root.put(JSON_LAYER_PATHS, layers);
+		return root;
+	}
+	
+	/**
+	 * Merge the strokes of one layer underneath the strokes of another. The strokes of {@code under} are placed
+	 * before the strokes of {@code layer}, so they are drawn first.
+	 *
+	 * @param layer the JSON of the layer to merge into, which is modified and returned
+	 * @param under the JSON of the layer to place underneath
+	 * @return the merged layer
+	 * @throws JSONException thrown if either layer was not valid JSON
+	 */
+	public static JSONObject merge(JSONObject layer, JSONObject under) throws JSONException {
+		JSONArray underLayers = under.getJSONArray(JSON_LAYER_PATHS);
+		JSONArray selfLayers = layer.getJSONArray(JSON_LAYER_PATHS);
+		JSONArray newLayers = new JSONArray();
+		for (int i = 0; i < underLayers.length(); i++) {
+			newLayers.put(underLayers.get(i));
+		}
+		for (int i = 0; i < selfLayers.length(); i++) {
+			newLayers.put(selfLayers.get(i));
+		}
+		layer.put(JSON_LAYER_PATHS, newLayers);
+		return layer;
+	}
+}
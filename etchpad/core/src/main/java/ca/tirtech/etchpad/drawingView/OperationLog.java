@@ -0,0 +1,485 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the edits made to a drawing, written ahead of a snapshot so the drawing can be recovered
+ * after a crash by loading the snapshot and replaying the log onto it with {@link #replay(Path, Replayer)}.
+ * <p/>
+ * Edits are encoded into an in-memory block as they are made, which does no I/O, and the block is appended to the
+ * file by {@link #flush()}. Encoding may happen on one thread while another flushes; the block is swapped for an
+ * empty one under a lock, so the drawing thread never waits on the file. The file is laid out as follows, using the
+ * integer encodings of {@link EtchFormat}:
+ * <pre>
+ * header:    "ETCL" | version: byte | quantum: varint
+ * block:     payload length: int32 | CRC32 of payload: int32 | operations...
+ * operation: type: byte | arguments
+ * </pre>
+ * Points are quantized like {@code .etch} documents and stored as the difference from the last point written, so
+ * each vertex of a line takes a few bytes. A block that was only partly written when the app died fails its length
+ * or checksum, and replaying stops before it.
+ */
+public class OperationLog implements Closeable {
+	
+	/**
+	 * A vertex was added to the current line. Arguments: x and y difference from the last point, as svarints.
+	 */
+	public static final byte SEGMENT = 0;
+	/**
+	 * The last vertex of the current line was moved. Arguments: x and y difference from the last point, as svarints.
+	 */
+	public static final byte MOVE = 1;
+	/**
+	 * A new line was started with a color. Arguments: the color, as int32.
+	 */
+	public static final byte COLOR = 2;
+	/**
+	 * The stroke width was changed. Arguments: the width, as float bits in an int32.
+	 */
+	public static final byte PAINT_SIZE = 3;
+	/**
+	 * Edits were undone. Arguments: the number of edits, as a varint.
+	 */
+	public static final byte UNDO = 4;
+	/**
+	 * Edits were redone. Arguments: the number of edits, as a varint.
+	 */
+	public static final byte REDO = 5;
+	/**
+	 * The drawing was cleared. Arguments: the x and y difference of the new pen position from the last point, as
+	 * svarints.
+	 */
+	public static final byte CLEAR = 6;
+	/**
+	 * The file extension of the log.
+	 */
+	public static final String EXTENSION = ".log";
+	private static final byte[] MAGIC = {'E', 'T', 'C', 'L'};
+	private static final int VERSION = 1;
+	private static final int BLOCK_HEADER_BYTES = 8;
+	private static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024;
+	private static final int INITIAL_BLOCK_SIZE = 16 * 1024;
+	private final Path file;
+	private final CRC32 crc = new CRC32();
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+	private FileChannel channel;
+	private byte[] pending = new byte[INITIAL_BLOCK_SIZE];
+	private byte[] spare = new byte[INITIAL_BLOCK_SIZE];
+	private int pendingSize = 0;
+	private int lastX = 0;
+	private int lastY = 0;
+	private volatile long length = 0;
+	
+	/**
+	 * Start a new, empty log. The file is not created until the first {@link #flush()}, and is replaced if it exists.
+	 *
+	 * @param file the file to write the log to
+	 */
+	public OperationLog(Path file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Get the file the log is written to.
+	 *
+	 * @return the log file
+	 */
+	public Path getFile() {
+		return file;
+	}
+	
+	/**
+	 * Get the number of bytes written to the file so far, not counting edits that are waiting to be flushed.
+	 *
+	 * @return the length of the file
+	 */
+	public long length() {
+		return length;
+	}
+	
+	/**
+	 * Log a vertex added to the current line.
+	 *
+	 * @param x the x position of the vertex
+	 * @param y the y position of the vertex
+	 */
+	public synchronized void segment(float x, float y) {
+		putPoint(SEGMENT, x, y);
+	}
+	
+	/**
+	 * Log the last vertex of the current line being moved.
+	 *
+	 * @param x the new x position of the vertex
+	 * @param y the new y position of the vertex
+	 */
+	public synchronized void move(float x, float y) {
+		putPoint(MOVE, x, y);
+	}
+	
+	/**
+	 * Log a new line being started with a color.
+	 *
+	 * @param color the color of the new line
+	 */
+	public synchronized void color(int color) {
+		ensureCapacity(5);
+		pending[pendingSize++] = COLOR;
+		putInt(color);
+	}
+	
+	/**
+	 * Log a change of stroke width.
+	 *
+	 * @param size the new stroke width
+	 */
+	public synchronized void paintSize(float size) {
+		ensureCapacity(5);
+		pending[pendingSize++] = PAINT_SIZE;
+		putInt(Float.floatToIntBits(size));
+	}
+	
+	/**
+	 * Log edits being undone.
+	 *
+	 * @param count the number of edits undone
+	 */
+	public synchronized void undo(int count) {
+		ensureCapacity(6);
+		pending[pendingSize++] = UNDO;
+		putVarint(count);
+	}
+	
+	/**
+	 * Log edits being redone.
+	 *
+	 * @param count the number of edits redone
+	 */
+	public synchronized void redo(int count) {
+		ensureCapacity(6);
+		pending[pendingSize++] = REDO;
+		putVarint(count);
+	}
+	
+	/**
+	 * Log the drawing being cleared.
+	 *
+	 * @param x the x position of the pen after clearing
+	 * @param y the y position of the pen after clearing
+	 */
+	public synchronized void clear(float x, float y) {
+		putPoint(CLEAR, x, y);
+	}
+	
+	/**
+	 * Append the edits logged since the last flush to the file as one block. The file is created with its header on
+	 * the first flush. Flushes must not run on more than one thread at once.
+	 *
+	 * @throws IOException error writing the file
+	 */
+	public void flush() throws IOException {
+		byte[] block;
+		int size;
+		synchronized (this) {
+			if (pendingSize == 0 && channel != null) return;
+			block = pending;
+			size = pendingSize;
+			pending = spare;
+			pendingSize = 0;
+			spare = block;
+		}
+		if (channel == null) {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1 + 5);
+			header.put(MAGIC).put((byte) VERSION);
+			int quantum = EtchFormat.QUANTUM;
+			while ((quantum & ~0x7F) != 0) {
+				header.put((byte) (quantum & 0x7F | 0x80));
+				quantum >>>= 7;
+			}
+			header.put((byte) quantum);
+			header.flip();
+			writeFully(header);
+		}
+		if (size == 0) return;
+		crc.reset();
+		crc.update(block, 0, size);
+		blockHeader.clear();
+		blockHeader.putInt(size).putInt((int) crc.getValue());
+		blockHeader.flip();
+		writeFully(blockHeader, ByteBuffer.wrap(block, 0, size));
+	}
+	
+	/**
+	 * Flush the logged edits and force them to the storage device, so they survive the device losing power.
+	 *
+	 * @throws IOException error writing the file
+	 */
+	public void sync() throws IOException {
+		flush();
+		channel.force(false);
+	}
+	
+	/**
+	 * Flush and sync the logged edits, and close the file.
+	 *
+	 * @throws IOException error writing the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+	
+	/**
+	 * Read a log back, calling the replayer for each logged edit in order. Replaying stops quietly at the first block
+	 * that is incomplete or fails its checksum, such as one that was being written when the app died.
+	 *
+	 * @param file     the log to replay
+	 * @param replayer the receiver of the edits
+	 * @return the number of edits replayed
+	 * @throws IOException error reading the file, or it is not a log
+	 */
+	public static int replay(Path file, Replayer replayer) throws IOException {
+		int count = 0;
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+			if (!readFully(in, header)) {
+				return 0;
+			}
+			header.flip();
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION) {
+				throw new IOException("Not an operation log: " + file.getFileName());
+			}
+			int quantum = readVarint(in);
+			if (quantum == -1) {
+				return 0;
+			}
+			if (quantum <= 0) {
+				throw new IOException("Invalid quantum " + quantum + " in " + file.getFileName());
+			}
+			CRC32 crc = new CRC32();
+			ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+			int[] last = new int[2];
+			while (true) {
+				blockHeader.clear();
+				if (!readFully(in, blockHeader)) break;
+				blockHeader.flip();
+				int size = blockHeader.getInt();
+				int checksum = blockHeader.getInt();
+				if (size <= 0 || size > MAX_BLOCK_BYTES || size > in.size() - in.position()) break;
+				ByteBuffer block = ByteBuffer.allocate(size);
+				if (!readFully(in, block)) break;
+				crc.reset();
+				crc.update(block.array(), 0, size);
+				if ((int) crc.getValue() != checksum) break;
+				block.flip();
+				count += replayBlock(block, quantum, last, replayer);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Decode the edits of one block.
+	 *
+	 * @param block    the payload of the block
+	 * @param quantum  the number of quantization steps per pixel
+	 * @param last     the last point decoded, carried between blocks
+	 * @param replayer the receiver of the edits
+	 * @return the number of edits replayed
+	 * @throws IOException the block holds an unknown edit
+	 */
+	private static int replayBlock(ByteBuffer block, float quantum, int[] last, Replayer replayer) throws IOException {
+		int count = 0;
+		while (block.hasRemaining()) {
+			byte type = block.get();
+			switch (type) {
+				case SEGMENT:
+				case MOVE:
+				case CLEAR:
+					last[0] += EtchFormat.unzigzag(getVarint(block));
+					last[1] += EtchFormat.unzigzag(getVarint(block));
+					float x = last[0] / quantum;
+					float y = last[1] / quantum;
+					if (type == SEGMENT) {
+						replayer.segment(x, y);
+					} else if (type == MOVE) {
+						replayer.move(x, y);
+					} else {
+						replayer.clear(x, y);
+					}
+					break;
+				case COLOR:
+					replayer.color(block.getInt());
+					break;
+				case PAINT_SIZE:
+					replayer.paintSize(Float.intBitsToFloat(block.getInt()));
+					break;
+				case UNDO:
+					replayer.undo(getVarint(block));
+					break;
+				case REDO:
+					replayer.redo(getVarint(block));
+					break;
+				default:
+					throw new IOException("Unknown operation " + type);
+			}
+			count++;
+		}
+		return count;
+	}
+	
+	private void putPoint(byte type, float x, float y) {
+		ensureCapacity(11);
+		int qx = Math.round(x * EtchFormat.QUANTUM);
+		int qy = Math.round(y * EtchFormat.QUANTUM);
+		pending[pendingSize++] = type;
+		putVarint(EtchFormat.zigzag(qx - lastX));
+		putVarint(EtchFormat.zigzag(qy - lastY));
+		lastX = qx;
+		lastY = qy;
+	}
+	
+	private void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			pending[pendingSize++] = (byte) (value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		pending[pendingSize++] = (byte) value;
+	}
+	
+	private void putInt(int value) {
+		pending[pendingSize++] = (byte) (value >>> 24);
+		pending[pendingSize++] = (byte) (value >>> 16);
+		pending[pendingSize++] = (byte) (value >>> 8);
+		pending[pendingSize++] = (byte) value;
+	}
+	
+	private void ensureCapacity(int bytes) {
+		if (pendingSize + bytes > pending.length) {
+			pending = Arrays.copyOf(pending, Math.max(pendingSize + bytes, pending.length * 2));
+		}
+	}
+	
+	private void writeFully(ByteBuffer... buffers) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+		length = channel.position();
+	}
+	
+	private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Read a varint straight from a file, a byte at a time.
+	 *
+	 * @param in the file to read from
+	 * @return the value read, or -1 if the file ended before it
+	 * @throws IOException error reading the file, or the varint is malformed
+	 */
+	private static int readVarint(FileChannel in) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(1);
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			b.clear();
+			if (!readFully(in, b)) return -1;
+			int next = b.get(0) & 0xFF;
+			value |= (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	private static int getVarint(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * Receiver of the edits read back from a log by {@link #replay(Path, Replayer)}.
+	 */
+	public interface Replayer {
+		
+		/**
+		 * Add a vertex to the current line.
+		 *
+		 * @param x the x position of the vertex
+		 * @param y the y position of the vertex
+		 */
+		void segment(float x, float y);
+		
+		/**
+		 * Move the last vertex of the current line.
+		 *
+		 * @param x the new x position of the vertex
+		 * @param y the new y position of the vertex
+		 */
+		void move(float x, float y);
+		
+		/**
+		 * Start a new line with a color.
+		 *
+		 * @param color the color of the new line
+		 */
+		void color(int color);
+		
+		/**
+		 * Change the stroke width.
+		 *
+		 * @param size the new stroke width
+		 */
+		void paintSize(float size);
+		
+		/**
+		 * Undo edits.
+		 *
+		 * @param count the number of edits to undo
+		 */
+		void undo(int count);
+		
+		/**
+		 * Redo edits.
+		 *
+		 * @param count the number of edits to redo
+		 */
+		void redo(int count);
+		
+		/**
+		 * Clear the drawing.
+		 *
+		 * @param x the x position of the pen after clearing
+		 * @param y the y position of the pen after clearing
+		 */
+		void clear(float x, float y);
+	}
+}
@@ -0,0 +1,159 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming encoder for opaque 8-bit RGB PNG images. Rows are written one at a time from {@code ARGB} pixels and are
+ * compressed and written out immediately, so only a single row is held in memory no matter how large the image is.
+ * Alpha is discarded.
+ * <p/>
+ * Rows use the PNG "Sub" filter, which compresses the flat backgrounds and long lines of drawings well.
+ */
+public class PngWriter implements Closeable {
+	
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+	private static final byte FILTER_SUB = 1;
+	private final DataOutputStream out;
+	private final int width;
+	private final int height;
+	private final byte[] row;
+	private final Deflater deflater = new Deflater();
+	private final ChunkOutputStream chunks = new ChunkOutputStream();
+	private final DeflaterOutputStream idat;
+	private int rowsWritten = 0;
+	
+	/**
+	 * Start a new image. The PNG header is written immediately.
+	 *
+	 * @param out    the stream to write the image to
+	 * @param width  the width of the image in pixels
+	 * @param height the height of the image in pixels
+	 * @throws IOException error writing to the stream
+	 */
+	public PngWriter(OutputStream out, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Image size must be positive, was " + width + "x" + height);
+		}
+		this.out = new DataOutputStream(out);
+		this.width = width;
+		this.height = height;
+		this.row = new byte[1 + width * 3];
+		this.out.write(SIGNATURE);
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8; // bit depth
+		header[9] = 2; // color type: truecolor
+		writeChunk("IHDR", header, header.length);
+		idat = new DeflaterOutputStream(chunks, deflater, MAX_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Write the next row of the image.
+	 *
+	 * @param argb   the pixels to read from, as {@code ARGB} colors
+	 * @param offset the index of the first pixel of the row
+	 * @throws IOException error writing to the stream
+	 */
+	public void writeRow(int[] argb, int offset) throws IOException {
+		if (rowsWritten == height) {
+			throw new IllegalStateException("All " + height + " rows have already been written");
+		}
+		row[0] = FILTER_SUB;
+		int previous = 0;
+		for (int x = 0; x < width; x++) {
+			int pixel = argb[offset + x];
+			int i = 1 + x * 3;
+			row[i] = (byte) ((pixel >> 16) - (previous >> 16));
+			row[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+			row[i + 2] = (byte) (pixel - previous);
+			previous = pixel;
+		}
+		idat.write(row);
+		rowsWritten++;
+	}
+	
+	/**
+	 * Finish the image and close the underlying stream. Every row must have been written.
+	 *
+	 * @throws IOException error writing to the stream, or the image is incomplete
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (rowsWritten != height) {
+				throw new IOException("Image has " + rowsWritten + " of " + height + " rows");
+			}
+			idat.finish();
+			chunks.flush();
+			writeChunk("IEND", new byte[0], 0);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+	
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+	
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+	
+	/**
+	 * Stream splitting compressed data into {@code IDAT} chunks.
+	 */
+	private class ChunkOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+		private int length = 0;
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (length == buffer.length) {
+				flush();
+			}
+			buffer[length++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (length == buffer.length) {
+					flush();
+				}
+				int count = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, count);
+				length += count;
+				off += count;
+				len -= count;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			if (length > 0) {
+				writeChunk("IDAT", buffer, length);
+				length = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of points stored as interleaved {@code x,y} floats in a single primitive array.
+ * Appending is amortized constant time and allocates nothing once the buffer has grown large enough to hold its points.
+ * <p/>
+ * Points may be read one at a time using {@link #getX(int)} and {@link #getY(int)}, or in bulk using
+ * {@link #getRawPoints()}, which exposes the backing array. Only the first {@code 2 * }{@link #size()} values of
+ * the backing array are valid.
+ */
+public class PointBuffer {
+	
+	private static final int DEFAULT_CAPACITY = 16;
+	private float[] points;
+	private int size = 0;
+	
+	/**
+	 * Construct an empty buffer with the default capacity.
+	 */
+	public PointBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Construct an empty buffer able to hold the given number of points before growing.
+	 *
+	 * @param capacity the number of points to reserve space for
+	 */
+	public PointBuffer(int capacity) {
+		points = new float[Math.max(capacity, 1) * 2];
+	}
+	
+	/**
+	 * Append a point to the end of the buffer.
+	 *
+	 * @param x the x position of the point
+	 * @param y the y position of the point
+	 */
+	public void add(float x, float y) {
+		if (size * 2 == points.length) {
+			ensureCapacity(size + 1);
+		}
+		points[size * 2] = x;
+		points[size * 2 + 1] = y;
+		size++;
+	}
+	
+	/**
+	 * Replace the point at the given index.
+	 *
+	 * @param index the index of the point
+	 * @param x     the new x position
+	 * @param y     the new y position
+	 */
+	public void set(int index, float x, float y) {
+		points[checkIndex(index) * 2] = x;
+		points[index * 2 + 1] = y;
+	}
+	
+	/**
+	 * Get the x position of the point at the given index.
+	 *
+	 * @param index the index of the point
+	 * @return the x position
+	 */
+	public float getX(int index) {
+		return points[checkIndex(index) * 2];
+	}
+	
+	/**
+	 * Get the y position of the point at the given index.
+	 *
+	 * @param index the index of the point
+	 * @return the y position
+	 */
+	public float getY(int index) {
+		return points[checkIndex(index) * 2 + 1];
+	}
+	
+	/**
+	 * Get the number of points stored in this buffer.
+	 *
+	 * @return the number of points
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the backing array of this buffer. Points are interleaved as {@code [x0, y0, x1, y1, ...]}.
+	 * The array is shared with the buffer and is replaced whenever the buffer grows or is trimmed,
+	 * so it should not be held across modifications.
+	 *
+	 * @return the backing array
+	 */
+	public float[] getRawPoints() {
+		return points;
+	}
+	
+	/**
+	 * Replace the points of this buffer with a copy of the points of another buffer, in a single array copy.
+	 *
+	 * @param other the buffer to copy
+	 */
+	public void copyFrom(PointBuffer other) {
+		ensureCapacity(other.size);
+		System.arraycopy(other.points, 0, points, 0, other.size * 2);
+		size = other.size;
+	}
+	
+	/**
+	 * Grow the buffer so that it can hold at least the given number of points without reallocating.
+	 *
+	 * @param capacity the number of points to hold
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity * 2 <= points.length) return;
+		int current = points.length / 2;
+		points = Arrays.copyOf(points, Math.max(capacity, current + (current >> 1)) * 2);
+	}
+	
+	/**
+	 * Remove all points after the first {@code size} points.
+	 *
+	 * @param size the number of points to keep
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > this.size) {
+			throw new IndexOutOfBoundsException("Cannot truncate " + this.size + " points to " + size);
+		}
+		this.size = size;
+	}
+	
+	/**
+	 * Release any unused capacity, shrinking the backing array to fit the stored points.
+	 */
+	public void trimToSize() {
+		if (size * 2 < points.length) {
+			points = Arrays.copyOf(points, Math.max(size, 1) * 2);
+		}
+	}
+	
+	/**
+	 * Remove all points from the buffer. The capacity of the buffer is kept.
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,80 @@
+package ca.tirtech.etchpad.drawingView;
+
+/**
+ * Streaming simplification of a polyline as its points arrive. Instead of appending a point, the decimator moves the
+ * last point of the line when the point it replaces would lie within the tolerance of the new, longer segment.
+ * Straight runs and sub-tolerance jitter therefore collapse into a single segment.
+ * <p/>
+ * While the last segment is shorter than the tolerance, new points within the tolerance of the segment's start
+ * replace its end. Once it is longer, its direction is fixed and new points replace its end for as long as they stay
+ * within the tolerance of that direction and keep moving forwards along it. Dropped points are never further than
+ * twice the tolerance from the simplified line.
+ * <p/>
+ * Each decimator tracks the tail of one line; call {@link #reset()} whenever the last point of the line must be
+ * kept, such as when the line is finished or reloaded.
+ */
+public class PointDecimator {
+	
+	private boolean mergeable = false;
+	private boolean hasDirection = false;
+	private float dirX;
+	private float dirY;
+	
+	/**
+	 * Add a point to the end of a line, either by appending it or by moving the last point of the line to it.
+	 *
+	 * @param points    the points of the line
+	 * @param x         the x position of the new point
+	 * @param y         the y position of the new point
+	 * @param tolerance the largest distance a dropped point may be from the line; 0 disables decimation
+	 * @return true if the last point was moved, false if the point was appended
+	 */
+	public boolean add(PointBuffer points, float x, float y, float tolerance) {
+		int last = points.size() - 1;
+		if (mergeable && tolerance > 0 && last >= 1) {
+			float dx = x - points.getX(last - 1);
+			float dy = y - points.getY(last - 1);
+			boolean merge;
+			if (!hasDirection) {
+				merge = true;
+				float length = (float) Math.sqrt(dx * dx + dy * dy);
+				if (length >= tolerance) {
+					setDirection(dx, dy, length);
+				}
+			} else {
+				float along = dx * dirX + dy * dirY;
+				float across = Math.abs(dx * dirY - dy * dirX);
+				float tailAlong = (points.getX(last) - points.getX(last - 1)) * dirX + (points.getY(last) - points.getY(last - 1)) * dirY;
+				merge = across <= tolerance && along >= tailAlong;
+			}
+			if (merge) {
+				points.set(last, x, y);
+				return true;
+			}
+		}
+		float dx = last >= 0 ? x - points.getX(last) : 0;
+		float dy = last >= 0 ? y - points.getY(last) : 0;
+		points.add(x, y);
+		mergeable = last >= 0;
+		hasDirection = false;
+		float length = (float) Math.sqrt(dx * dx + dy * dy);
+		if (tolerance > 0 && length >= tolerance) {
+			setDirection(dx, dy, length);
+		}
+		return false;
+	}
+	
+	/**
+	 * Fix the last point of the line so that later points are always appended after it.
+	 */
+	public void reset() {
+		mergeable = false;
+		hasDirection = false;
+	}
+	
+	private void setDirection(float dx, float dy, float length) {
+		dirX = dx / length;
+		dirY = dy / length;
+		hasDirection = true;
+	}
+}
@@ -0,0 +1,47 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A {@link Stroke} made of plain {@link StrokeChunk}s, holding only vertices and bounds. Used where strokes are
+ * processed without being drawn, such as in tests and benchmarks on the JVM.
+ */
+public class PointStroke extends Stroke<StrokeChunk> {
+	
+	/**
+	 * Start a new stroke with a single vertex at its head.
+	 *
+	 * @param color the color of the stroke
+	 * @param width the width of the stroke
+	 * @param x     the x position of the head
+	 * @param y     the y position of the head
+	 */
+	public PointStroke(int color, float width, float x, float y) {
+		super(color, width, x, y);
+	}
+	
+	/**
+	 * Creates a copy of another stroke, holding only its vertices, bounds and style.
+	 *
+	 * @param other the stroke to copy
+	 */
+	public PointStroke(Stroke<?> other) {
+		copyFrom(other);
+	}
+	
+	/**
+	 * Creates a new stroke from the given JSON.
+	 *
+	 * @param root the JSON to load from
+	 * @throws JSONException thrown if loaded data was not valid JSON
+	 */
+	public PointStroke(JSONObject root) throws JSONException {
+		objectify(root);
+	}
+	
+	@Override
+	protected StrokeChunk createChunk(float x, float y) {
+		return new StrokeChunk(x, y);
+	}
+}
@@ -0,0 +1,26 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Receiver of progress reports from long running operations, such as saving, loading or exporting a drawing.
+ * Operations call {@link #update(long, long)} regularly, which also gives the receiver a chance to cancel them.
+ */
+@FunctionalInterface
+public interface Progress {
+	
+	/**
+	 * A receiver that ignores progress and never cancels.
+	 */
+	Progress NONE = (done, total) -> {
+	};
+	
+	/**
+	 * Report how much of an operation is done.
+	 *
+	 * @param done  the amount of work done so far
+	 * @param total the total amount of work, in the same unit
+	 * @throws InterruptedIOException the operation was cancelled and must stop
+	 */
+	void update(long done, long total) throws InterruptedIOException;
+}
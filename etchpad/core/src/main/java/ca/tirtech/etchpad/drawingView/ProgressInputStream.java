@@ -0,0 +1,59 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that reports the number of bytes read so far to a {@link Progress}, so reading a file of known size
+ * can show its progress and be cancelled without the reader knowing about either.
+ */
+public class ProgressInputStream extends FilterInputStream {
+	
+	private final Progress progress;
+	private final long total;
+	private long done = 0;
+	
+	/**
+	 * Wrap a stream.
+	 *
+	 * @param in       the stream to read from
+	 * @param total    the number of bytes expected, such as the size of the file
+	 * @param progress the receiver of progress reports
+	 */
+	public ProgressInputStream(InputStream in, long total, Progress progress) {
+		super(in);
+		this.total = total;
+		this.progress = progress;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			advance(1);
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if (read > 0) {
+			advance(read);
+		}
+		return read;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		advance(skipped);
+		return skipped;
+	}
+	
+	private void advance(long bytes) throws IOException {
+		done += bytes;
+		progress.update(done, total);
+	}
+}
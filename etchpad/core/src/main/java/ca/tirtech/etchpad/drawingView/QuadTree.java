@@ -0,0 +1,253 @@
+package ca.tirtech.etchpad.drawingView;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index of integer ids keyed on axis-aligned bounds. Used to find the paths of a layer that are visible
+ * without testing every path.
+ * <p/>
+ * The tree is unbounded: the root grows outwards whenever an item falls outside of it. Each node holds up to
+ * {@link #NODE_CAPACITY} items before it splits into four quadrants. Items that straddle a quadrant boundary stay in the
+ * node that fully contains them.
+ * <p/>
+ * Queries reuse an internal result buffer, so a query does not allocate once the buffer has grown. The tree is not
+ * thread safe.
+ */
+public class QuadTree {
+
+	private static final int NODE_CAPACITY = 8;
+	private static final float MIN_HALF_SIZE = 32f;
+	private static final float INITIAL_HALF_SIZE = 1024f;
+	private Node root;
+	private int size = 0;
+	private int[] results = new int[16];
+	private int resultCount = 0;
+
+	/**
+	 * Add an item to the tree.
+	 *
+	 * @param id     the id of the item
+	 * @param left   the left edge of the item's bounds
+	 * @param top    the top edge of the item's bounds
+	 * @param right  the right edge of the item's bounds
+	 * @param bottom the bottom edge of the item's bounds
+	 */
+	public void insert(int id, float left, float top, float right, float bottom) {
+		if (!(Float.isFinite(left) && Float.isFinite(top) && Float.isFinite(right) && Float.isFinite(bottom))) {
+			throw new IllegalArgumentException("Bounds must be finite");
+		}
+		if (root == null) {
+			float half = Math.max(INITIAL_HALF_SIZE, Math.max(right - left, bottom - top));
+			root = new Node((left + right) / 2, (top + bottom) / 2, half);
+		}
+		while (!root.contains(left, top, right, bottom)) {
+			growRoot(left, top);
+		}
+		Node node = root;
+		int quadrant;
+		while (node.children != null && (quadrant = node.quadrantOf(left, top, right, bottom)) >= 0) {
+			node = node.children[quadrant];
+		}
+		node.add(id, left, top, right, bottom);
+		size++;
+	}
+
+	/**
+	 * Remove an item from the tree. The bounds must be the same as those the item was inserted with.
+	 *
+	 * @param id     the id of the item
+	 * @param left   the left edge of the item's bounds
+	 * @param top    the top edge of the item's bounds
+	 * @param right  the right edge of the item's bounds
+	 * @param bottom the bottom edge of the item's bounds
+	 * @return whether the item was found and removed
+	 */
+	public boolean remove(int id, float left, float top, float right, float bottom) {
+		Node node = root;
+		while (node != null) {
+			if (node.remove(id)) {
+				size--;
+				return true;
+			}
+			int quadrant = node.children == null ? -1 : node.quadrantOf(left, top, right, bottom);
+			node = quadrant < 0 ? null : node.children[quadrant];
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all items from the tree.
+	 */
+	public void clear() {
+		root = null;
+		size = 0;
+		resultCount = 0;
+	}
+
+	/**
+	 * Get the number of items in the tree.
+	 *
+	 * @return the number of items
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find all items whose bounds intersect the given rectangle. The ids of the items are written in ascending order to
+	 * the buffer returned by {@link #getResults()}.
+	 *
+	 * @param left   the left edge of the area
+	 * @param top    the top edge of the area
+	 * @param right  the right edge of the area
+	 * @param bottom the bottom edge of the area
+	 * @return the number of items found
+	 */
+	public int query(float left, float top, float right, float bottom) {
+		resultCount = 0;
+		if (root != null) {
+			query(root, left, top, right, bottom);
+			Arrays.sort(results, 0, resultCount);
+		}
+		return resultCount;
+	}
+
+	/**
+	 * Get the result buffer of the last {@link #query(float, float, float, float)}. Only the first values, up to the
+	 * count returned by the query, are valid.
+	 *
+	 * @return the ids found by the last query
+	 */
+	public int[] getResults() {
+		return results;
+	}
+
+	private void query(Node node, float left, float top, float right, float bottom) {
+		if (!node.intersects(left, top, right, bottom)) return;
+		for (int i = 0; i < node.count; i++) {
+			int b = i * 4;
+			if (node.bounds[b] <= right && node.bounds[b + 2] >= left && node.bounds[b + 1] <= bottom && node.bounds[b + 3] >= top) {
+				if (resultCount == results.length) {
+					results = Arrays.copyOf(results, resultCount * 2);
+				}
+				results[resultCount++] = node.ids[i];
+			}
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				query(child, left, top, right, bottom);
+			}
+		}
+	}
+
+	/**
+	 * Double the size of the root towards the given point. The old root becomes one quadrant of the new root.
+	 *
+	 * @param x the x position to grow towards
+	 * @param y the y position to grow towards
+	 */
+	private void growRoot(float x, float y) {
+		Node old = root;
+		float cx = x < old.cx ? old.cx - old.half : old.cx + old.half;
+		float cy = y < old.cy ? old.cy - old.half : old.cy + old.half;
+		root = new Node(cx, cy, old.half * 2);
+		root.split();
+		root.children[root.quadrantOf(old.cx, old.cy, old.cx, old.cy)] = old;
+	}
+
+	/**
+	 * A square region of the tree holding the items that fit within it but not within any one of its quadrants.
+	 */
+	private static class Node {
+		final float cx;
+		final float cy;
+		final float half;
+		int count = 0;
+		int[] ids = new int[NODE_CAPACITY];
+		float[] bounds = new float[NODE_CAPACITY * 4];
+		Node[] children;
+
+		Node(float cx, float cy, float half) {
+			this.cx = cx;
+			this.cy = cy;
+			this.half = half;
+		}
+
+		boolean contains(float left, float top, float right, float bottom) {
+			return left >= cx - half && right <= cx + half && top >= cy - half && bottom <= cy + half;
+		}
+
+		boolean intersects(float left, float top, float right, float bottom) {
+			return left <= cx + half && right >= cx - half && top <= cy + half && bottom >= cy - half;
+		}
+
+		/**
+		 * Find the quadrant fully containing the given bounds.
+		 *
+		 * @return the quadrant index, or -1 if the bounds straddle the centre of this node
+		 */
+		int quadrantOf(float left, float top, float right, float bottom) {
+			int x = right < cx ? 0 : left >= cx ? 1 : -1;
+			int y = bottom < cy ? 0 : top >= cy ? 2 : -1;
+			return x < 0 || y < 0 ? -1 : x + y;
+		}
+
+		void add(int id, float left, float top, float right, float bottom) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				bounds = Arrays.copyOf(bounds, count * 8);
+			}
+			ids[count] = id;
+			bounds[count * 4] = left;
+			bounds[count * 4 + 1] = top;
+			bounds[count * 4 + 2] = right;
+			bounds[count * 4 + 3] = bottom;
+			count++;
+			if (children == null && count > NODE_CAPACITY && half / 2 >= MIN_HALF_SIZE) {
+				split();
+				redistribute();
+			}
+		}
+
+		boolean remove(int id) {
+			for (int i = 0; i < count; i++) {
+				if (ids[i] == id) {
+					count--;
+					ids[i] = ids[count];
+					System.arraycopy(bounds, count * 4, bounds, i * 4, 4);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void split() {
+			float q = half / 2;
+			children = new Node[]{
+					new Node(cx - q, cy - q, q),
+					new Node(cx + q, cy - q, q),
+					new Node(cx - q, cy + q, q),
+					new Node(cx + q, cy + q, q)
+			};
+		}
+
+		/**
+		 * Move items that fit within a single quadrant down into that quadrant.
+		 */
+		private void redistribute() {
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				int b = i * 4;
+				int quadrant = quadrantOf(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]);
+				if (quadrant >= 0) {
+					children[quadrant].add(ids[i], bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]);
+				} else {
+					ids[kept] = ids[i];
+					System.arraycopy(bounds, b, bounds, kept * 4, 4);
+					kept++;
+				}
+			}
+			count = kept;
+		}
+	}
+}
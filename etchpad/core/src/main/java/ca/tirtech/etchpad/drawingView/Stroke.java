@@ -0,0 +1,402 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+/**
+ * A line with a color, a width and a current position (head). The vertices of the line are split into
+ * {@link StrokeChunk}s of at most {@link StrokeChunk#CAPACITY} vertices, so that adding to a long line only touches its
+ * last chunk.
+ * <p/>
+ * This is the platform independent model of a line; it knows nothing about how it is drawn. Renderers extend it,
+ * providing their own chunk type through {@link #createChunk(float, float)}. Strokes may be converted to and from JSON
+ * using {@link #jsonify()} and {@link #objectify(JSONObject)}.
+ *
+ * @param <C> the type of chunk the stroke is made of
+ */
+public abstract class Stroke<C extends StrokeChunk> {
+	
+	public static final String JSON_PAINT_COLOR = "paint_color";
+	public static final String JSON_X = "x";
+	public static final String JSON_Y = "y";
+	public static final String JSON_PATH = "path";
+	public static final String JSON_PAINT_SIZE = "paint_size";
+	final ArrayList<C> chunks = new ArrayList<>();
+	final PointDecimator decimator = new PointDecimator();
+	final Bounds bounds = new Bounds();
+	int color;
+	float width;
+	float x;
+	float y;
+	
+	/**
+	 * Start a new stroke with a single vertex at its head.
+	 *
+	 * @param color the color of the stroke
+	 * @param width the width of the stroke
+	 * @param x     the x position of the head
+	 * @param y     the y position of the head
+	 */
+	protected Stroke(int color, float width, float x, float y) {
+		this.color = color;
+		this.width = width;
+		this.x = x;
+		this.y = y;
+		this.chunks.add(createChunk(x, y));
+		this.bounds.set(x, y, x, y);
+	}
+	
+	/**
+	 * Construct an empty stroke, which must be loaded with {@link #objectify(JSONObject)} before it is used.
+	 */
+	protected Stroke() {
+	}
+	
+	/**
+	 * Create a new chunk for this stroke.
+	 *
+	 * @param x the x position of the first vertex
+	 * @param y the y position of the first vertex
+	 * @return the new chunk
+	 */
+	protected abstract C createChunk(float x, float y);
+	
+	/**
+	 * Get the last chunk of this stroke, which new points are added to.
+	 *
+	 * @return the tail chunk
+	 */
+	public C getTail() {
+		return chunks.get(chunks.size() - 1);
+	}
+	
+	/**
+	 * Get the chunks of this stroke, in order.
+	 *
+	 * @return the chunks of the stroke
+	 */
+	public ArrayList<C> getChunks() {
+		return chunks;
+	}
+	
+	/**
+	 * Get the number of vertices in this stroke. The point shared by adjacent chunks is only counted once.
+	 *
+	 * @return the number of vertices
+	 */
+	public int getPointCount() {
+		int count = 1;
+		for (C chunk : chunks) {
+			count += chunk.points.size() - 1;
+		}
+		return count;
+	}
+	
+	/**
+	 * Append a vertex to the end of this stroke, starting a new chunk if the tail is full.
+	 *
+	 * @param x the x position of the vertex
+	 * @param y the y position of the vertex
+	 */
+	public void lineTo(float x, float y) {
+		C tail = getTail();
+		if (tail.isFull()) {
+			int last = tail.points.size() - 1;
+			tail = createChunk(tail.points.getX(last), tail.points.getY(last));
+			chunks.add(tail);
+		}
+		tail.lineTo(x, y);
+		bounds.union(x, y);
+	}
+	
+	/**
+	 * Draw the head of this stroke to a point, as the pen does. The decimator decides whether the last vertex is moved
+	 * to the point or the point is appended, and the edit is recorded in the journal as an {@link EditJournal#MOVE} or
+	 * an {@link EditJournal#APPEND}. A tail chunk filled by the point is left for the caller to close with
+	 * {@link #startChunk()}, so that a renderer can commit it first.
+	 *
+	 * @param x         the x position to draw to
+	 * @param y         the y position to draw to
+	 * @param tolerance the decimation tolerance; see {@link PointDecimator#add(PointBuffer, float, float, float)}
+	 * @param journal   the journal to record the edit in
+	 * @return true if the last vertex was moved, false if the point was appended
+	 */
+	public boolean draw(float x, float y, float tolerance, EditJournal journal) {
+		C tail = getTail();
+		int last = tail.points.size() - 1;
+		float lastX = tail.points.getX(last);
+		float lastY = tail.points.getY(last);
+		bounds.union(x, y);
+		tail.bounds.union(x, y);
+		this.x = x;
+		this.y = y;
+		if (decimator.add(tail.points, x, y, tolerance)) {
+			journal.record(EditJournal.MOVE, lastX, lastY, x, y);
+			return true;
+		}
+		journal.record(EditJournal.APPEND, x, y, 0, 0);
+		return false;
+	}
+	
+	/**
+	 * Start a new tail chunk from the last vertex of the current tail, once the tail is full. The decimator is reset,
+	 * so the vertex shared by the two chunks is never moved.
+	 *
+	 * @return the new tail chunk
+	 */
+	public C startChunk() {
+		C tail = getTail();
+		int last = tail.points.size() - 1;
+		C next = createChunk(tail.points.getX(last), tail.points.getY(last));
+		chunks.add(next);
+		decimator.reset();
+		return next;
+	}
+	
+	/**
+	 * Undo a line edit of this stroke recorded in a journal by {@link #draw(float, float, float, EditJournal)}. An
+	 * {@link EditJournal#APPEND} removes the last vertex, as {@link #removeLast()} does, and an
+	 * {@link EditJournal#MOVE} moves it back. Other edits are left to the owner of the journal. The bounds are grown to
+	 * include a moved vertex but never shrunk; see {@link #removeLast()}.
+	 *
+	 * @param journal the journal the edit was recorded in
+	 * @param index   the index of the edit
+	 * @return true if the tail chunk was dropped
+	 */
+	public boolean revert(EditJournal journal, int index) {
+		switch (journal.getType(index)) {
+			case EditJournal.APPEND:
+				return removeLast();
+			case EditJournal.MOVE:
+				moveLast(journal.getArg(index, 0), journal.getArg(index, 1));
+				return false;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Redo a line edit of this stroke recorded in a journal by {@link #draw(float, float, float, EditJournal)}, without
+	 * decimation. A tail chunk filled by an {@link EditJournal#APPEND} is left for the caller to close with
+	 * {@link #startChunk()}. Other edits are left to the owner of the journal.
+	 *
+	 * @param journal the journal the edit was recorded in
+	 * @param index   the index of the edit
+	 */
+	public void apply(EditJournal journal, int index) {
+		switch (journal.getType(index)) {
+			case EditJournal.APPEND:
+				getTail().lineTo(journal.getArg(index, 0), journal.getArg(index, 1));
+				bounds.union(journal.getArg(index, 0), journal.getArg(index, 1));
+				break;
+			case EditJournal.MOVE:
+				moveLast(journal.getArg(index, 2), journal.getArg(index, 3));
+				break;
+		}
+	}
+	
+	/**
+	 * Remove the last vertex of this stroke. If it was the only vertex of the tail chunk other than the one shared with
+	 * the chunk before, the tail chunk is dropped. The bounds are not shrunk; use {@link #updateBounds()} after the
+	 * tail's bounds have been rebuilt.
+	 *
+	 * @return true if the tail chunk was dropped
+	 */
+	public boolean removeLast() {
+		C tail = getTail();
+		boolean dropped = tail.points.size() == 1 && chunks.size() > 1;
+		if (dropped) {
+			chunks.remove(chunks.size() - 1);
+			tail = getTail();
+		}
+		if (tail.points.size() > 1) {
+			tail.points.truncate(tail.points.size() - 1);
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Move the last vertex of this stroke, growing the bounds to include it.
+	 *
+	 * @param x the new x position of the vertex
+	 * @param y the new y position of the vertex
+	 */
+	private void moveLast(float x, float y) {
+		C tail = getTail();
+		tail.points.set(tail.points.size() - 1, x, y);
+		tail.bounds.union(x, y);
+		bounds.union(x, y);
+	}
+	
+	/**
+	 * Recompute the bounds of the vertices from the bounds of the chunks.
+	 */
+	public void updateBounds() {
+		bounds.set(chunks.get(0).bounds);
+		for (int i = 1; i < chunks.size(); i++) {
+			bounds.union(chunks.get(i).bounds);
+		}
+	}
+	
+	/**
+	 * Compute the bounds of the area covered when this stroke is drawn with its width.
+	 *
+	 * @param out the bounds to write into
+	 */
+	public void computeStrokeBounds(Bounds out) {
+		out.set(bounds);
+		float halfStroke = width / 2 + 1;
+		out.inset(-halfStroke, -halfStroke);
+	}
+	
+	/**
+	 * Get the bounds of the vertices of this stroke.
+	 *
+	 * @return the bounds of the vertices
+	 */
+	public Bounds getBounds() {
+		return bounds;
+	}
+	
+	/**
+	 * Get the color of this stroke.
+	 *
+	 * @return the color as an ARGB int
+	 */
+	public int getColor() {
+		return color;
+	}
+	
+	/**
+	 * Get the width of this stroke.
+	 *
+	 * @return the width of the stroke
+	 */
+	public float getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Get the x position of the head of this stroke.
+	 *
+	 * @return the x position of the head
+	 */
+	public float getX() {
+		return x;
+	}
+	
+	/**
+	 * Get the y position of the head of this stroke.
+	 *
+	 * @return the y position of the head
+	 */
+	public float getY() {
+		return y;
+	}
+	
+	/**
+	 * Convert this Stroke into a {@link JSONObject}. To recreate this object, use {@link #objectify(JSONObject)}.
+	 * The vertices of every chunk are written as a single list, so the chunk size is not part of the format.
+	 *
+	 * @return the JSON representation of this object
+	 * @throws JSONException thrown if instance values were not valid JSON types
+	 */
+	public JSONObject jsonify() throws JSONException {
+		JSONObject root = new JSONObject();
+		JSONArray points = new JSONArray();
+		for (int c = 0; c < chunks.size(); c++) {
+			PointBuffer chunkPoints = chunks.get(c).points;
+			for (int i = c == 0 ? 0 : 1; i < chunkPoints.size(); i++) {
+				JSONArray xy = new JSONArray();
+				xy.put(Float.valueOf(chunkPoints.getX(i)));
+				xy.put(Float.valueOf(chunkPoints.getY(i)));
+				points.put(xy);
+			}
+		}
+		root.put(JSON_PATH, points);
+		root.put(JSON_X, x);
+		root.put(JSON_Y, y);
+		root.put(JSON_PAINT_COLOR, color);
+		root.put(JSON_PAINT_SIZE, width);
+		return root;
+	}
+	
+	/**
+	 * Load the given {@link JSONObject} into this Stroke. JSON should conform to the output of {@link #jsonify()}.
+	 * The vertices are split into chunks as they are read.
+	 *
+	 * @param root the JSON to load from
+	 * @throws JSONException thrown if loaded data was not valid JSON
+	 */
+	public void objectify(JSONObject root) throws JSONException {
+		float x = (float) root.getDouble(JSON_X);
+		float y = (float) root.getDouble(JSON_Y);
+		JSONArray points = root.getJSONArray(JSON_PATH);
+		float firstX = x;
+		float firstY = y;
+		if (points.length() > 0) {
+			JSONArray point = points.getJSONArray(0);
+			firstX = (float) point.getDouble(0);
+			firstY = (float) point.getDouble(1);
+		}
+		start(root.getInt(JSON_PAINT_COLOR), (float) root.getDouble(JSON_PAINT_SIZE), x, y, firstX, firstY);
+		for (int i = 1; i < points.length(); i++) {
+			JSONArray point = points.getJSONArray(i);
+			lineTo((float) point.getDouble(0), (float) point.getDouble(1));
+		}
+	}
+	
+	/**
+	 * Discard every vertex of this stroke and start it again from a single vertex. Used when loading a stroke; the
+	 * rest of its vertices are then added with {@link #lineTo(float, float)}, which keeps the bounds up to date.
+	 *
+	 * @param color  the color of the stroke
+	 * @param width  the width of the stroke
+	 * @param x      the x position of the head
+	 * @param y      the y position of the head
+	 * @param firstX the x position of the first vertex
+	 * @param firstY the y position of the first vertex
+	 */
+	public void start(int color, float width, float x, float y, float firstX, float firstY) {
+		setStyle(color, width);
+		this.x = x;
+		this.y = y;
+		this.chunks.clear();
+		this.chunks.add(createChunk(firstX, firstY));
+		this.bounds.set(firstX, firstY, firstX, firstY);
+	}
+	
+	/**
+	 * Replace the contents of this stroke with a copy of another stroke. The vertices are copied chunk by chunk with
+	 * {@link StrokeChunk#copyFrom(StrokeChunk)}, so later changes to either stroke do not affect the other.
+	 *
+	 * @param other the stroke to copy
+	 */
+	public void copyFrom(Stroke<?> other) {
+		StrokeChunk first = other.chunks.get(0);
+		start(other.color, other.width, other.x, other.y, first.points.getX(0), first.points.getY(0));
+		chunks.ensureCapacity(other.chunks.size());
+		for (int c = 0; c < other.chunks.size(); c++) {
+			StrokeChunk source = other.chunks.get(c);
+			if (c > 0) {
+				chunks.add(createChunk(source.points.getX(0), source.points.getY(0)));
+			}
+			getTail().copyFrom(source);
+		}
+		bounds.set(other.bounds);
+	}
+	
+	/**
+	 * Change the color and width of this stroke. Renderers override this to keep their drawing state in step.
+	 *
+	 * @param color the new color
+	 * @param width the new width
+	 */
+	protected void setStyle(int color, float width) {
+		this.color = color;
+		this.width = width;
+	}
+}
@@ -0,0 +1,101 @@
+package ca.tirtech.etchpad.drawingView;
+
+/**
+ * A run of consecutive vertices of a {@link Stroke}, with its own bounds. The first vertex of a chunk is the last vertex
+ * of the chunk before it, so the chunks join into one continuous line.
+ * <p/>
+ * This is the platform independent part of a chunk. Renderers extend it to keep whatever they need to draw the chunk
+ * alongside its vertices.
+ */
+public class StrokeChunk {
+	
+	/**
+	 * The most vertices a chunk may hold.
+	 */
+	public static final int CAPACITY = 256;
+	final PointBuffer points = new PointBuffer(CAPACITY);
+	final Bounds bounds = new Bounds();
+	
+	/**
+	 * Start a new chunk.
+	 *
+	 * @param x the x position of the first vertex
+	 * @param y the y position of the first vertex
+	 */
+	public StrokeChunk(float x, float y) {
+		this.points.add(x, y);
+		this.bounds.set(x, y, x, y);
+	}
+	
+	/**
+	 * Append a vertex to this chunk.
+	 *
+	 * @param x the x position of the vertex
+	 * @param y the y position of the vertex
+	 */
+	public void lineTo(float x, float y) {
+		points.add(x, y);
+		bounds.union(x, y);
+	}
+	
+	/**
+	 * Replace the vertices and bounds of this chunk with a copy of another chunk's. Renderers override this to rebuild
+	 * whatever they keep alongside the vertices.
+	 *
+	 * @param other the chunk to copy
+	 */
+	public void copyFrom(StrokeChunk other) {
+		points.copyFrom(other.points);
+		bounds.set(other.bounds);
+	}
+	
+	/**
+	 * Check whether this chunk holds as many vertices as a chunk may.
+	 *
+	 * @return whether the chunk is full
+	 */
+	public boolean isFull() {
+		return points.size() >= CAPACITY;
+	}
+	
+	/**
+	 * Recompute the bounds of this chunk from its stored vertices.
+	 */
+	public void rebuildBounds() {
+		float[] raw = points.getRawPoints();
+		bounds.set(raw[0], raw[1], raw[0], raw[1]);
+		for (int i = 1; i < points.size(); i++) {
+			bounds.union(raw[i * 2], raw[i * 2 + 1]);
+		}
+	}
+	
+	/**
+	 * Compute the bounds of the area covered when this chunk is stroked with the given width.
+	 *
+	 * @param width the width of the stroke
+	 * @param out   the bounds to write into
+	 */
+	public void computeStrokeBounds(float width, Bounds out) {
+		out.set(bounds);
+		float halfStroke = width / 2 + 1;
+		out.inset(-halfStroke, -halfStroke);
+	}
+	
+	/**
+	 * Get the vertices of this chunk.
+	 *
+	 * @return the vertices of the chunk
+	 */
+	public PointBuffer getPoints() {
+		return points;
+	}
+	
+	/**
+	 * Get the bounds of the vertices of this chunk.
+	 *
+	 * @return the bounds of the vertices
+	 */
+	public Bounds getBounds() {
+		return bounds;
+	}
+}
@@ -0,0 +1,95 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link EditJournal}.
+ */
+public class EditJournalTest {
+	
+	@Test
+	public void previousCheckpoint_stopsBeforeNonSegmentEdits() {
+		EditJournal journal = new EditJournal();
+		journal.record(EditJournal.APPEND, 1, 1, 0, 0);
+		journal.record(EditJournal.NEW_PATH, 0, 0, 5, 0);
+		journal.record(EditJournal.APPEND, 2, 2, 0, 0);
+		journal.record(EditJournal.APPEND, 3, 3, 0, 0);
+		assertEquals(1, journal.previousCheckpoint());
+		journal.setPosition(1);
+		assertEquals(0, journal.previousCheckpoint());
+		assertEquals(4, journal.nextCheckpoint());
+	}
+	
+	@Test
+	public void record_placesCheckpointsAlongLongLines() {
+		EditJournal journal = new EditJournal();
+		journal.setCheckpointInterval(10);
+		for (int i = 0; i < 35; i++) {
+			journal.record(EditJournal.APPEND, i, i, 0, 0);
+		}
+		assertEquals(30, journal.previousCheckpoint());
+		journal.setPosition(30);
+		assertEquals(20, journal.previousCheckpoint());
+	}
+	
+	@Test
+	public void record_discardsUndoneEdits() {
+		EditJournal journal = new EditJournal();
+		journal.record(EditJournal.APPEND, 1, 1, 0, 0);
+		journal.record(EditJournal.APPEND, 2, 2, 0, 0);
+		journal.setPosition(1);
+		journal.record(EditJournal.MOVE, 1, 1, 4, 4);
+		assertEquals(2, journal.size());
+		assertEquals(EditJournal.MOVE, journal.getType(1));
+		assertEquals(4f, journal.getArg(1, 3), 0f);
+	}
+	
+	@Test
+	public void amendPaintSize_coalescesConsecutiveChanges() {
+		EditJournal journal = new EditJournal();
+		journal.record(EditJournal.PAINT_SIZE, 5, 6, 0, 0);
+		assertTrue(journal.amendPaintSize(9));
+		assertEquals(1, journal.size());
+		assertEquals(9f, journal.getArg(0, 1), 0f);
+		journal.record(EditJournal.APPEND, 1, 1, 0, 0);
+		assertFalse(journal.amendPaintSize(3));
+	}
+	
+	@Test
+	public void setMemoryLimit_collapsesOldestEdits() {
+		EditJournal journal = new EditJournal();
+		for (int i = 0; i < 10_000; i++) {
+			journal.record(EditJournal.APPEND, i, i, 0, 0);
+		}
+		journal.setMemoryLimit(journal.getMemoryUsage() / 10);
+		assertTrue(journal.size() < 1_000);
+		assertEquals(journal.size(), journal.getPosition());
+		assertEquals(9_999f, journal.getArg(journal.size() - 1, 0), 0f);
+		for (int i = 0; i < 100_000; i++) {
+			journal.record(EditJournal.APPEND, i, i, 0, 0);
+		}
+		assertTrue(journal.getMemoryUsage() <= journal.size() * 64L);
+		assertTrue(journal.size() < 1_000);
+		assertTrue(journal.previousCheckpoint() >= 0);
+	}
+	
+	@Test
+	public void isWithinMark_coversEditsRecordedSinceMark() {
+		EditJournal journal = new EditJournal();
+		for (int i = 0; i < 5; i++) {
+			journal.record(EditJournal.APPEND, i, i, 0, 0);
+		}
+		journal.setPosition(3);
+		journal.mark();
+		assertTrue(journal.isWithinMark(3));
+		assertFalse(journal.isWithinMark(2));
+		assertFalse(journal.isWithinMark(4));
+		journal.record(EditJournal.APPEND, 9, 9, 0, 0);
+		journal.record(EditJournal.APPEND, 9, 9, 0, 0);
+		assertTrue(journal.isWithinMark(5));
+		assertTrue(journal.isWithinMark(3));
+		assertFalse(journal.isWithinMark(2));
+	}
+}
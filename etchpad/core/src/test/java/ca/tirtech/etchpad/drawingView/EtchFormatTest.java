@@ -0,0 +1,166 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link EtchWriter}, {@link EtchReader} and {@link EtchIndex}.
+ */
+public class EtchFormatTest {
+	
+	private static final float TOLERANCE = 0.5f / EtchFormat.QUANTUM;
+	
+	@Test
+	public void readStroke_roundTripsWithinQuantum() throws IOException {
+		List<PointStroke> strokes = randomStrokes(new Random(1), 5, StrokeChunk.CAPACITY * 3);
+		strokes.add(new PointStroke(0xFF00FF00, 2, -40.3f, 17.9f));
+		int[] palette = {0xFFFF0000, 0xFF00FF00, 0x800000FF};
+		byte[] bytes = write(palette, strokes);
+		
+		try (EtchReader reader = new EtchReader(new ByteArrayInputStream(bytes))) {
+			assertEquals(EtchFormat.VERSION, reader.getVersion());
+			assertArrayEquals(palette, reader.getPalette());
+			assertEquals(strokes.size(), reader.getStrokeCount());
+			for (PointStroke expected : strokes) {
+				PointStroke actual = new PointStroke(0, 0, 0, 0);
+				reader.readStroke(actual);
+				assertEquals(expected.getColor(), actual.getColor());
+				assertEquals(expected.getWidth(), actual.getWidth(), 0f);
+				assertEquals(expected.getX(), actual.getX(), TOLERANCE);
+				assertEquals(expected.getY(), actual.getY(), TOLERANCE);
+				assertEquals(expected.getPointCount(), actual.getPointCount());
+				assertEquals(expected.getChunks().size(), actual.getChunks().size());
+				for (int c = 0; c < expected.getChunks().size(); c++) {
+					PointBuffer e = expected.getChunks().get(c).getPoints();
+					PointBuffer a = actual.getChunks().get(c).getPoints();
+					assertEquals(e.size(), a.size());
+					for (int i = 0; i < e.size(); i++) {
+						assertEquals(e.getX(i), a.getX(i), TOLERANCE);
+						assertEquals(e.getY(i), a.getY(i), TOLERANCE);
+					}
+				}
+				assertEquals(expected.getBounds().getRight(), actual.getBounds().getRight(), TOLERANCE);
+			}
+		}
+	}
+	
+	@Test
+	public void write_isMuchSmallerThanJson() throws IOException, JSONException {
+		List<PointStroke> strokes = randomStrokes(new Random(2), 20, 5_000);
+		byte[] bytes = write(new int[0], strokes);
+		int json = LayerJson.jsonify(strokes).toString().getBytes(StandardCharsets.UTF_8).length;
+		assertTrue("etch " + bytes.length + " bytes, json " + json + " bytes", bytes.length * 8 < json);
+	}
+	
+	@Test (expected = IOException.class)
+	public void reader_rejectsOtherFiles() throws IOException {
+		new EtchReader(new ByteArrayInputStream("{\"model\":{}}".getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	@Test (expected = IOException.class)
+	public void reader_rejectsTruncatedDocument() throws IOException {
+		byte[] bytes = write(new int[0], randomStrokes(new Random(3), 1, 100));
+		EtchReader reader = new EtchReader(new ByteArrayInputStream(bytes, 0, bytes.length / 2));
+		reader.readStroke(new PointStroke(0, 0, 0, 0));
+	}
+	
+	@Test
+	public void index_readsTheSameStrokesAsReader() throws IOException {
+		List<PointStroke> strokes = randomStrokes(new Random(4), 4, StrokeChunk.CAPACITY * 2 + 7);
+		byte[] bytes = write(new int[] {0xFF123456}, strokes);
+		Path file = Files.createTempFile("index", EtchFormat.EXTENSION);
+		try {
+			Files.write(file, bytes);
+			assertTrue(EtchIndex.isIndexed(file));
+			try (EtchIndex index = new EtchIndex(file);
+			     EtchReader reader = new EtchReader(new ByteArrayInputStream(bytes))) {
+				assertArrayEquals(reader.getPalette(), index.getPalette());
+				assertEquals(strokes.size(), index.getStrokeCount());
+				for (int s = 0; s < strokes.size(); s++) {
+					PointStroke expected = new PointStroke(0, 0, 0, 0);
+					reader.readStroke(expected);
+					PointStroke actual = new PointStroke(0, 0, 0, 0);
+					index.readStroke(s, actual);
+					assertEquals(expected.getColor(), actual.getColor());
+					assertEquals(expected.getX(), actual.getX(), 0f);
+					assertEquals(expected.getY(), actual.getY(), 0f);
+					assertEquals(expected.getChunks().size(), index.getChunkCount(s));
+					assertEquals(expected.getPointCount(), actual.getPointCount());
+					PointBuffer e = expected.getTail().getPoints();
+					PointBuffer a = actual.getTail().getPoints();
+					assertEquals(e.getX(e.size() - 1), a.getX(a.size() - 1), 0f);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void index_selectsOnlyChunksInView() throws IOException {
+		PointStroke stroke = new PointStroke(0xFF000000, 4, 0, 0);
+		for (int i = 1; i <= (StrokeChunk.CAPACITY - 1) * 3; i++) {
+			stroke.lineTo(i, 0);
+		}
+		Path file = Files.createTempFile("index", EtchFormat.EXTENSION);
+		try {
+			Files.write(file, write(new int[0], Collections.singletonList(stroke)));
+			try (EtchIndex index = new EtchIndex(file)) {
+				assertEquals(3, index.getChunkCount(0));
+				float middle = StrokeChunk.CAPACITY * 1.5f;
+				assertFalse(index.chunkIntersects(0, middle, -1, middle + 1, 1));
+				assertTrue(index.chunkIntersects(1, middle, -1, middle + 1, 1));
+				assertFalse(index.chunkIntersects(2, middle, -1, middle + 1, 1));
+				PointStroke partial = new PointStroke(0, 0, 0, 0);
+				index.readChunks(0, 1, 2, partial);
+				PointBuffer points = partial.getTail().getPoints();
+				assertEquals(1, partial.getChunks().size());
+				assertEquals(StrokeChunk.CAPACITY - 1, points.getX(0), TOLERANCE);
+				assertEquals(points.getX(points.size() - 1), partial.getX(), 0f);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	private static byte[] write(int[] palette, List<PointStroke> strokes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (EtchWriter writer = new EtchWriter(out, palette, strokes.size())) {
+			for (PointStroke stroke : strokes) {
+				writer.writeStroke(stroke);
+			}
+		}
+		return out.toByteArray();
+	}
+	
+	private static List<PointStroke> randomStrokes(Random random, int count, int length) {
+		List<PointStroke> strokes = new ArrayList<>();
+		float x = 500;
+		float y = 500;
+		for (int s = 0; s < count; s++) {
+			PointStroke stroke = new PointStroke(random.nextInt(), 1 + random.nextInt(40), x, y);
+			for (int i = 1; i < length; i++) {
+				x += (float) random.nextGaussian() * 3;
+				y += (float) random.nextGaussian() * 3;
+				stroke.lineTo(x, y);
+			}
+			stroke.x = x;
+			stroke.y = y;
+			strokes.add(stroke);
+		}
+		return strokes;
+	}
+}
@@ -0,0 +1,146 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link OperationLog}.
+ */
+public class OperationLogTest {
+	
+	private static final float TOLERANCE = 0.5f / EtchFormat.QUANTUM;
+	private Path file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("operations", OperationLog.EXTENSION);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	@Test
+	public void replay_returnsEditsInOrder() throws IOException {
+		OperationLog log = new OperationLog(file);
+		log.segment(10.3f, -4.1f);
+		log.move(11, -3);
+		log.color(0xFF00FF00);
+		log.flush();
+		log.paintSize(7.5f);
+		log.undo(3);
+		log.redo(2);
+		log.clear(500, 250);
+		log.segment(501, 249);
+		log.close();
+		
+		Recorder recorder = new Recorder();
+		assertEquals(8, OperationLog.replay(file, recorder));
+		assertEquals("segment move color:ff00ff00 paintSize:7.5 undo:3 redo:2 clear segment", String.join(" ", recorder.edits));
+		assertEquals(10.3f, recorder.points.get(0), TOLERANCE);
+		assertEquals(-4.1f, recorder.points.get(1), TOLERANCE);
+		assertEquals(11f, recorder.points.get(2), TOLERANCE);
+		assertEquals(500f, recorder.points.get(4), TOLERANCE);
+		assertEquals(249f, recorder.points.get(7), TOLERANCE);
+	}
+	
+	@Test
+	public void segment_takesAFewBytesPerVertex() throws IOException {
+		OperationLog log = new OperationLog(file);
+		float x = 0;
+		for (int i = 0; i < 10_000; i++) {
+			x += 2.5f;
+			log.segment(x, (float) Math.sin(i / 10.0) * 20);
+		}
+		log.close();
+		assertTrue(Files.size(file) + " bytes", Files.size(file) < 10_000 * 6);
+	}
+	
+	@Test
+	public void header_storesQuantumAsVarint() throws IOException {
+		new OperationLog(file).close();
+		byte[] bytes = Files.readAllBytes(file);
+		assertEquals(6, bytes.length);
+		assertEquals("ETCL", new String(bytes, 0, 4, "US-ASCII"));
+		assertEquals(EtchFormat.QUANTUM, bytes[5] & 0xFF);
+		assertEquals(0, OperationLog.replay(file, new Recorder()));
+	}
+	
+	@Test
+	public void replay_stopsAtTornBlock() throws IOException {
+		OperationLog log = new OperationLog(file);
+		log.segment(1, 1);
+		log.flush();
+		log.segment(2, 2);
+		log.segment(3, 3);
+		log.close();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+		
+		Recorder recorder = new Recorder();
+		assertEquals(1, OperationLog.replay(file, recorder));
+		assertEquals(1f, recorder.points.get(0), 0f);
+	}
+	
+	/**
+	 * Records replayed edits as strings, and the points of edits that have them.
+	 */
+	private static class Recorder implements OperationLog.Replayer {
+		final List<String> edits = new ArrayList<>();
+		final List<Float> points = new ArrayList<>();
+		
+		@Override
+		public void segment(float x, float y) {
+			edits.add("segment");
+			points.add(x);
+			points.add(y);
+		}
+		
+		@Override
+		public void move(float x, float y) {
+			edits.add("move");
+			points.add(x);
+			points.add(y);
+		}
+		
+		@Override
+		public void color(int color) {
+			edits.add("color:" + Integer.toHexString(color));
+		}
+		
+		@Override
+		public void paintSize(float size) {
+			edits.add("paintSize:" + size);
+		}
+		
+		@Override
+		public void undo(int count) {
+			edits.add("undo:" + count);
+		}
+		
+		@Override
+		public void redo(int count) {
+			edits.add("redo:" + count);
+		}
+		
+		@Override
+		public void clear(float x, float y) {
+			edits.add("clear");
+			points.add(x);
+			points.add(y);
+		}
+	}
+}
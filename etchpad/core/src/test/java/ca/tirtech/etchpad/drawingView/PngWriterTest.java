@@ -0,0 +1,120 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PngWriter}.
+ */
+public class PngWriterTest {
+	
+	private static final int WHITE = 0xFFFFFFFF;
+	private static final int INK = 0xFF123456;
+	
+	@Test
+	public void writeRow_decodesToSamePixels() throws IOException {
+		int width = 37;
+		int height = 21;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int[] row = new int[width];
+		try (PngWriter png = new PngWriter(bytes, width, height)) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					row[x] = 0xFF000000 | (x * 7) << 16 | (y * 11) << 8 | (x ^ y);
+				}
+				png.writeRow(row, 0);
+			}
+		}
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(width, image.getWidth());
+		assertEquals(height, image.getHeight());
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(0xFF000000 | (x * 7) << 16 | (y * 11) << 8 | (x ^ y), image.getRGB(x, y));
+			}
+		}
+	}
+	
+	@Test (expected = IOException.class)
+	public void close_rejectsIncompleteImage() throws IOException {
+		try (PngWriter png = new PngWriter(new ByteArrayOutputStream(), 4, 4)) {
+			png.writeRow(new int[4], 0);
+		}
+	}
+	
+	/**
+	 * Stream an image whose pixels would not fit in the heap, then check every row of the output without holding more
+	 * than one row in memory.
+	 */
+	@Test
+	public void writeRow_streamsImageLargerThanHeap() throws IOException {
+		long heap = Runtime.getRuntime().maxMemory();
+		int size = (int) Math.ceil(Math.sqrt(heap / 4.0)) + 1;
+		assertTrue((long) size * size * 4 > heap);
+		File file = File.createTempFile("large", ".png");
+		file.deleteOnExit();
+		int[] row = new int[size];
+		try (PngWriter png = new PngWriter(new BufferedOutputStream(new FileOutputStream(file)), size, size)) {
+			for (int y = 0; y < size; y++) {
+				Arrays.fill(row, WHITE);
+				row[y] = INK;
+				png.writeRow(row, 0);
+			}
+		}
+		assertTrue(file.length() < heap / 16);
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			byte[] signature = new byte[8];
+			in.readFully(signature);
+			assertEquals("PNG", new String(signature, 1, 3, StandardCharsets.US_ASCII));
+			ByteArrayOutputStream idat = new ByteArrayOutputStream();
+			String type;
+			do {
+				int length = in.readInt();
+				byte[] typeBytes = new byte[4];
+				in.readFully(typeBytes);
+				type = new String(typeBytes, StandardCharsets.US_ASCII);
+				byte[] data = new byte[length];
+				in.readFully(data);
+				CRC32 crc = new CRC32();
+				crc.update(typeBytes);
+				crc.update(data);
+				assertEquals(type + " checksum", (int) crc.getValue(), in.readInt());
+				if (type.equals("IHDR")) {
+					DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+					assertEquals(size, header.readInt());
+					assertEquals(size, header.readInt());
+				} else if (type.equals("IDAT")) {
+					idat.write(data);
+				}
+			} while (!type.equals("IEND"));
+			
+			DataInputStream pixels = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(idat.toByteArray())));
+			byte[] filtered = new byte[1 + size * 3];
+			for (int y = 0; y < size; y++) {
+				pixels.readFully(filtered);
+				assertEquals(1, filtered[0]);
+				for (int i = 4; i < filtered.length; i++) {
+					filtered[i] += filtered[i - 3];
+				}
+				assertEquals(WHITE, pixelAt(filtered, (y + 1) % size));
+				assertEquals(INK, pixelAt(filtered, y));
+			}
+			assertEquals(-1, pixels.read());
+		}
+	}
+	
+	private static int pixelAt(byte[] row, int x) {
+		int i = 1 + x * 3;
+		return 0xFF000000 | (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+	}
+}
@@ -0,0 +1,78 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PointBuffer}.
+ */
+public class PointBufferTest {
+	
+	@Test
+	public void add_storesInterleavedPoints() {
+		PointBuffer buffer = new PointBuffer(1);
+		for (int i = 0; i < 100; i++) {
+			buffer.add(i, -i);
+		}
+		assertEquals(100, buffer.size());
+		assertEquals(42f, buffer.getX(42), 0f);
+		assertEquals(-42f, buffer.getY(42), 0f);
+		float[] raw = buffer.getRawPoints();
+		assertEquals(99f, raw[198], 0f);
+		assertEquals(-99f, raw[199], 0f);
+	}
+	
+	@Test
+	public void truncate_keepsLeadingPoints() {
+		PointBuffer buffer = new PointBuffer();
+		buffer.add(1, 2);
+		buffer.add(3, 4);
+		buffer.add(5, 6);
+		buffer.truncate(1);
+		assertEquals(1, buffer.size());
+		buffer.add(7, 8);
+		assertEquals(7f, buffer.getX(1), 0f);
+	}
+	
+	@Test
+	public void trimToSize_shrinksBackingArray() {
+		PointBuffer buffer = new PointBuffer(1000);
+		buffer.add(1, 2);
+		buffer.trimToSize();
+		assertEquals(2, buffer.getRawPoints().length);
+		assertEquals(2f, buffer.getY(0), 0f);
+	}
+	
+	@Test (expected = IndexOutOfBoundsException.class)
+	public void get_outOfBoundsThrows() {
+		PointBuffer buffer = new PointBuffer();
+		buffer.add(1, 2);
+		buffer.getX(1);
+	}
+	
+	@Test
+	public void add_steadyStateDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		PointBuffer buffer = new PointBuffer();
+		fill(buffer, 100_000);
+		buffer.clear();
+		threads.getThreadAllocatedBytes(thread);
+		
+		long before = threads.getThreadAllocatedBytes(thread);
+		fill(buffer, 100_000);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		
+		assertEquals(0, allocated);
+		assertEquals(100_000, buffer.size());
+	}
+	
+	private static void fill(PointBuffer buffer, int count) {
+		for (int i = 0; i < count; i++) {
+			buffer.add(i, i * 0.5f);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package ca.tirtech.etchpad.drawingView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link Stroke}.
+ */
+public class StrokeTest {
+	
+	@Test
+	public void lineTo_splitsIntoChunksSharingEndpoints() {
+		PointStroke stroke = new PointStroke(0xFF000000, 4, 0, 0);
+		int points = StrokeChunk.CAPACITY * 2 + 10;
+		for (int i = 1; i < points; i++) {
+			stroke.lineTo(i, i % 7);
+		}
+		assertEquals(3, stroke.getChunks().size());
+		assertEquals(points, stroke.getPointCount());
+		for (int c = 1; c < stroke.getChunks().size(); c++) {
+			PointBuffer previous = stroke.getChunks().get(c - 1).getPoints();
+			PointBuffer next = stroke.getChunks().get(c).getPoints();
+			assertEquals(previous.getX(previous.size() - 1), next.getX(0), 0f);
+			assertEquals(previous.getY(previous.size() - 1), next.getY(0), 0f);
+		}
+		assertEquals(points - 1, stroke.getBounds().getRight(), 0f);
+		assertEquals(6, stroke.getBounds().getBottom(), 0f);
+	}
+	
+	@Test
+	public void draw_revertAndApplyRestoreEveryEdit() {
+		PointStroke stroke = new PointStroke(0xFF000000, 4, 0, 0);
+		EditJournal journal = new EditJournal();
+		int moved = 0;
+		for (int i = 1; i <= StrokeChunk.CAPACITY * 2; i++) {
+			// Runs of collinear points are merged into moves of the last vertex
+			if (stroke.draw(i, i / 10 * 3, 0.25f, journal)) {
+				moved++;
+			} else if (stroke.getTail().isFull()) {
+				stroke.startChunk();
+			}
+		}
+		assertTrue(moved > 0);
+		assertEquals(StrokeChunk.CAPACITY * 2, journal.size());
+		PointStroke drawn = new PointStroke(stroke);
+		
+		for (int i = journal.size() - 1; i >= 0; i--) {
+			stroke.revert(journal, i);
+		}
+		assertEquals(1, stroke.getChunks().size());
+		assertEquals(1, stroke.getPointCount());
+		
+		for (int i = 0; i < journal.size(); i++) {
+			stroke.apply(journal, i);
+			if (stroke.getTail().isFull()) {
+				stroke.startChunk();
+			}
+		}
+		assertEquals(drawn.getChunks().size(), stroke.getChunks().size());
+		for (int c = 0; c < drawn.getChunks().size(); c++) {
+			PointBuffer expected = drawn.getChunks().get(c).getPoints();
+			PointBuffer actual = stroke.getChunks().get(c).getPoints();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.getX(i), actual.getX(i), 0f);
+				assertEquals(expected.getY(i), actual.getY(i), 0f);
+			}
+		}
+	}
+	
+	@Test
+	public void computeStrokeBounds_keepsStraightLines() {
+		PointStroke stroke = new PointStroke(0xFF000000, 4, 10, 10);
+		stroke.lineTo(20, 10);
+		Bounds out = new Bounds();
+		stroke.computeStrokeBounds(out);
+		assertEquals(7, out.getLeft(), 0f);
+		assertEquals(7, out.getTop(), 0f);
+		assertEquals(23, out.getRight(), 0f);
+		assertEquals(13, out.getBottom(), 0f);
+	}
+	
+	@Test
+	public void jsonify_roundTripsAcrossChunks() throws JSONException {
+		PointStroke stroke = new PointStroke(0xFF123456, 7.5f, 3, 4);
+		for (int i = 0; i < StrokeChunk.CAPACITY + 50; i++) {
+			stroke.lineTo(i * 0.5f, -i);
+		}
+		JSONObject json = stroke.jsonify();
+		PointStroke loaded = new PointStroke(new JSONObject(json.toString()));
+		assertEquals(stroke.getColor(), loaded.getColor());
+		assertEquals(stroke.getWidth(), loaded.getWidth(), 0f);
+		assertEquals(stroke.getChunks().size(), loaded.getChunks().size());
+		assertEquals(stroke.getPointCount(), loaded.getPointCount());
+		for (int c = 0; c < stroke.getChunks().size(); c++) {
+			PointBuffer expected = stroke.getChunks().get(c).getPoints();
+			PointBuffer actual = loaded.getChunks().get(c).getPoints();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.getX(i), actual.getX(i), 0f);
+				assertEquals(expected.getY(i), actual.getY(i), 0f);
+			}
+		}
+		assertEquals(stroke.getBounds().getLeft(), loaded.getBounds().getLeft(), 0f);
+		assertEquals(stroke.getBounds().getBottom(), loaded.getBounds().getBottom(), 0f);
+	}
+	
+	@Test
+	public void copyFrom_isIndependentOfOriginal() {
+		PointStroke stroke = new PointStroke(0xFF123456, 3, 1, 2);
+		for (int i = 0; i < StrokeChunk.CAPACITY + 20; i++) {
+			stroke.lineTo(i, i * 2);
+		}
+		PointStroke copy = new PointStroke(0, 1, 0, 0);
+		copy.copyFrom(stroke);
+		stroke.lineTo(-100, -100);
+		assertEquals(stroke.getColor(), copy.getColor());
+		assertEquals(stroke.getChunks().size(), copy.getChunks().size());
+		assertEquals(stroke.getPointCount() - 1, copy.getPointCount());
+		assertEquals(0, copy.getBounds().getLeft(), 0f);
+		assertEquals(StrokeChunk.CAPACITY + 19, copy.getBounds().getRight(), 0f);
+	}
+}